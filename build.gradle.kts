@@ -10,13 +10,14 @@ group = "skjsjhb.rhytick.opfw"
 version = "1.0"
 
 java {
-    sourceCompatibility = JavaVersion.VERSION_20
-    targetCompatibility = JavaVersion.VERSION_20
+    sourceCompatibility = JavaVersion.VERSION_21
+    targetCompatibility = JavaVersion.VERSION_21
 }
 
 val graalVMVersion = "23.1.0"
 val lwjglVersion = "3.3.3"
 val jomlVersion = "1.10.5"
+val jmhVersion = "1.37"
 var isWindows = System.getProperty("os.name").startsWith("Windows")
 // Detect platform and get natives
 val lwjglNatives = Pair(
@@ -116,6 +117,7 @@ dependencies {
 
     // Reflection
     implementation("com.google.guava", "guava", "32.1.3-jre")
+    annotationProcessor(project(":processor"))
 
     // Tests
     testImplementation(platform("org.junit:junit-bom:5.9.1"))
@@ -145,6 +147,31 @@ application {
     applicationDefaultJvmArgs = appArgs
 }
 
+// Benchmarks
+// JMH runs from the plain runtime classpath rather than a fat jar, as the polyglot class isolation rejects
+// duplicated packages. Forked benchmark VMs inherit the JVM args below.
+val jmh: SourceSet by sourceSets.creating {
+    compileClasspath += sourceSets.main.get().output
+    runtimeClasspath += sourceSets.main.get().output
+}
+configurations[jmh.implementationConfigurationName].extendsFrom(configurations.implementation.get())
+configurations[jmh.runtimeOnlyConfigurationName].extendsFrom(configurations.runtimeOnly.get())
+dependencies {
+    jmh.implementationConfigurationName("org.openjdk.jmh:jmh-core:$jmhVersion")
+    jmh.annotationProcessorConfigurationName("org.openjdk.jmh:jmh-generator-annprocess:$jmhVersion")
+}
+
+tasks.register<JavaExec>("jmh") {
+    description = "Runs JMH benchmarks. Use -Pjmh.includes=<regex> to select benchmarks and -Pjmh.args for extra options."
+    group = "verification"
+    classpath = jmh.runtimeClasspath
+    mainClass.set("org.openjdk.jmh.Main")
+    jvmArgs(appArgs)
+    args(listOfNotNull(providers.gradleProperty("jmh.includes").orNull))
+    args(providers.gradleProperty("jmh.args").orNull?.split(" ")?.filter { it.isNotBlank() } ?: listOf<String>())
+    args("-rff", layout.buildDirectory.file("jmh-result.txt").get().asFile.path)
+}
+
 
 distributions {
     main {
@@ -154,16 +181,48 @@ distributions {
     }
 }
 
+// Class data sharing
+// The training run records the classes loaded at startup into an archive next to the installed jars, which must
+// not change afterwards. CDS is disabled by the JVM while the compiler module is upgraded, so the archive is dumped
+// without it, and only takes effect when the start scripts are told to skip the upgrade (OPKJE_COMPILER_UPGRADE=0),
+// e.g. on a JDK which already ships the Graal compiler.
+val cdsArchiveName = "opkje.jsa"
+
+tasks.register<JavaExec>("cdsArchive") {
+    description = "Records a CDS archive for the installed distribution with a training run of the launcher."
+    group = "distribution"
+    dependsOn(tasks.installDist)
+    val installDir = tasks.installDist.get().destinationDir
+    val trainingHome = layout.buildDirectory.dir("cds-training").get().asFile
+    classpath = files(provider { tasks.startScripts.get().classpath!!.map { File(installDir, "lib/${it.name}") } })
+    mainClass.set(application.mainClass)
+    jvmArgs(appArgs.filter { !it.startsWith("--upgrade-module-path") })
+    jvmArgs("-XX:ArchiveClassesAtExit=${File(installDir, "lib/$cdsArchiveName")}",
+            "-Duser.home=$trainingHome", "-Djava.awt.headless=true")
+    args("--training")
+    doFirst {
+        trainingHome.mkdirs()
+    }
+}
+
 tasks.startScripts {
     doLast {
-        // Some hacks to set the module path
+        // Some hacks to set the module path, and use the CDS archive if present
         var windowsContent = windowsScript.readText()
-        windowsContent = windowsContent.replaceFirst(Regex("\"--upgrade-module-path\\=[^\"]*\""), "\"--upgrade-module-path=%APP_HOME%\"")
+        windowsContent = Regex("set DEFAULT_JVM_OPTS=(.*) \"--upgrade-module-path\\=[^\"]*\"").replace(windowsContent) {
+            """
+                set DEFAULT_JVM_OPTS=${it.groupValues[1]}
+                if not "%OPKJE_COMPILER_UPGRADE%"=="0" set DEFAULT_JVM_OPTS=%DEFAULT_JVM_OPTS% "--upgrade-module-path=%APP_HOME%"
+                if exist "%APP_HOME%\lib\$cdsArchiveName" set DEFAULT_JVM_OPTS=%DEFAULT_JVM_OPTS% "-XX:SharedArchiveFile=%APP_HOME%\lib\$cdsArchiveName"
+            """.trimIndent()
+        }
         windowsScript.writeText(windowsContent)
 
         var unixContent = unixScript.readText()
         unixContent = unixContent.replaceFirst(Regex("\"--upgrade-module-path\\=[^\"]*\"'"),
-                Matcher.quoteReplacement("';DEFAULT_JVM_OPTS+=\"\\\"--upgrade-module-path=\$APP_HOME\\\"\""))
+                Matcher.quoteReplacement("'\n" +
+                        "[ \"\$OPKJE_COMPILER_UPGRADE\" = 0 ] || DEFAULT_JVM_OPTS=\"\$DEFAULT_JVM_OPTS \\\"--upgrade-module-path=\$APP_HOME\\\"\"\n" +
+                        "[ -f \"\$APP_HOME/lib/$cdsArchiveName\" ] && DEFAULT_JVM_OPTS=\"\$DEFAULT_JVM_OPTS \\\"-XX:SharedArchiveFile=\$APP_HOME/lib/$cdsArchiveName\\\"\""))
         unixScript.writeText(unixContent)
     }
 }
@@ -173,7 +232,7 @@ tasks.test {
     jvmArgs(appArgs)
 }
 
-tasks.withType<Jar> {
+tasks.jar {
     manifest {
         attributes["Main-Class"] = "skjsjhb.rhytick.opfw.je.launcher.Launcher"
     }
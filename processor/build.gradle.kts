@@ -0,0 +1,11 @@
+plugins {
+    java
+}
+
+group = "skjsjhb.rhytick.opfw"
+version = "1.0"
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_21
+    targetCompatibility = JavaVersion.VERSION_21
+}
@@ -0,0 +1,164 @@
+package skjsjhb.rhytick.opfw.je.processor;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.*;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.FileObject;
+import javax.tools.StandardLocation;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Generates the index of guest modules at compile time.
+ * <br/>
+ * Each class annotated with {@code GuestModule} is written to {@value #INDEX_LOCATION}, one per line as
+ * {@code name, binary class name, static or instance}, separated by tabs. {@code Modular.autoRegister} reads the
+ * index, instead of scanning and loading every class at startup.
+ * <br/>
+ * Mistakes which used to be found at runtime are reported here: modules which cannot be instantiated are errors,
+ * and non-public members annotated with {@code Expose} (which GraalVM never exposes) are warnings.
+ */
+@SupportedAnnotationTypes({ModuleIndexProcessor.GUEST_MODULE, ModuleIndexProcessor.EXPOSE})
+public final class ModuleIndexProcessor extends AbstractProcessor {
+    /**
+     * Location of the index in the class output.
+     */
+    public static final String INDEX_LOCATION = "META-INF/opkje/modules";
+
+    static final String GUEST_MODULE = "skjsjhb.rhytick.opfw.je.dce.GuestModule";
+
+    static final String EXPOSE = "skjsjhb.rhytick.opfw.je.dce.Expose";
+
+    /**
+     * Index lines by module name, collected over all rounds.
+     */
+    private final Map<String, String> entries = new TreeMap<>();
+
+    /**
+     * Annotated classes, as originating elements of the index.
+     */
+    private final List<Element> origins = new ArrayList<>();
+
+    /**
+     * Internal method for reading an annotation value, or {@code null} if not set.
+     */
+    private static Object annotationValue(AnnotationMirror m, String name) {
+        for (var e : m.getElementValues().entrySet()) {
+            if (e.getKey().getSimpleName().contentEquals(name)) {
+                return e.getValue().getValue();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Internal method for finding an annotation on an element by its type name.
+     */
+    private static AnnotationMirror findAnnotation(Element e, String type) {
+        for (AnnotationMirror m : e.getAnnotationMirrors()) {
+            if (((TypeElement) m.getAnnotationType().asElement()).getQualifiedName().contentEquals(type)) {
+                return m;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Internal method for checking a module class.
+     */
+    private boolean checkModule(TypeElement t) {
+        if (!t.getModifiers().contains(Modifier.PUBLIC) || t.getModifiers().contains(Modifier.ABSTRACT)) {
+            error(t, "guest module must be a public concrete class");
+            return false;
+        }
+        for (ExecutableElement c : ElementFilter.constructorsIn(t.getEnclosedElements())) {
+            if (c.getParameters().isEmpty() && c.getModifiers().contains(Modifier.PUBLIC)) {
+                return true;
+            }
+        }
+        error(t, "guest module must have a public constructor without parameters");
+        return false;
+    }
+
+    /**
+     * Internal method for reporting an error on an element.
+     */
+    private void error(Element e, String msg) {
+        processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, e);
+    }
+
+    @Override
+    public SourceVersion getSupportedSourceVersion() {
+        return SourceVersion.latestSupported();
+    }
+
+    @Override
+    public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment round) {
+        for (TypeElement a : annotations) {
+            String name = a.getQualifiedName().toString();
+            if (name.equals(GUEST_MODULE)) {
+                for (TypeElement t : ElementFilter.typesIn(round.getElementsAnnotatedWith(a))) {
+                    processModule(t);
+                }
+            } else if (name.equals(EXPOSE)) {
+                for (Element e : round.getElementsAnnotatedWith(a)) {
+                    if (!e.getModifiers().contains(Modifier.PUBLIC)) {
+                        processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+                                "non-public member is not visible to guests", e);
+                    }
+                }
+            }
+        }
+        if (round.processingOver() && !round.errorRaised() && !origins.isEmpty()) {
+            writeIndex();
+        }
+        return false;
+    }
+
+    /**
+     * Internal method for adding a module class to the index.
+     */
+    private void processModule(TypeElement t) {
+        AnnotationMirror m = findAnnotation(t, GUEST_MODULE);
+        if (m == null || !checkModule(t)) {
+            return;
+        }
+        String module = (String) annotationValue(m, "value");
+        boolean statik = Boolean.TRUE.equals(annotationValue(m, "statik"));
+        String line = module + "\t" + processingEnv.getElementUtils().getBinaryName(t) + "\t"
+                + (statik ? "static" : "instance");
+        String prev = entries.putIfAbsent(module, line);
+        if (prev != null && !prev.equals(line)) {
+            error(t, "duplicated guest module name: " + module);
+            return;
+        }
+        origins.add(t);
+    }
+
+    /**
+     * Internal method for writing the index.
+     */
+    private void writeIndex() {
+        try {
+            FileObject f = processingEnv.getFiler().createResource(StandardLocation.CLASS_OUTPUT, "",
+                    INDEX_LOCATION, origins.toArray(Element[]::new));
+            try (Writer w = f.openWriter()) {
+                for (String line : entries.values()) {
+                    w.write(line);
+                    w.write('\n');
+                }
+            }
+        } catch (IOException e) {
+            processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, "could not write module index: " + e);
+        }
+    }
+}
@@ -1 +1,3 @@
 rootProject.name = "OPKJE"
+
+include("processor")
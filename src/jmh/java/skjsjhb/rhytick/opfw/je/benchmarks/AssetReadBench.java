@@ -0,0 +1,65 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Emulation;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Getting an asset into a guest {@code Uint8Array}: {@code Finder.readFile} (read and copy) compared with
+ * {@code Finder.mapFile} (mapped, no copy).
+ * <br/>
+ * Each call touches the first and the last byte only, so the cost is the one of making the bytes available.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AssetReadBench {
+    static final String FILE = "/opt/asset.bin";
+
+    @Param({"65536", "1048576"})
+    public int size;
+
+    ScriptEnv env;
+
+    Source map;
+
+    Source read;
+
+    @Benchmark
+    public void mapFile() {
+        env.eval(map);
+    }
+
+    @Benchmark
+    public void readFile() {
+        env.eval(read);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.configureTempRoot();
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        Finder.ensureDir(FILE);
+        Files.write(Paths.get(Finder.resolve(FILE)), content);
+        Modular.autoRegister();
+        Emulation emul = new Emulation();
+        emul.prepareRun();
+        env = emul.getEnv();
+        env.getLoop().runOnce(); // Preload
+        map = Source.create("js", "{ const a = Finder.mapFile('" + FILE + "'); a[0] + a[a.length - 1]; }");
+        read = Source.create("js", "{ const a = Finder.readFile('" + FILE + "'); a[0] + a[a.length - 1]; }");
+    }
+}
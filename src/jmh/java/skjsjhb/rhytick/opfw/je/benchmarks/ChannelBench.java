@@ -0,0 +1,87 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.*;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Message throughput from a producer thread to a guest handler running in a worker env.
+ * <br/>
+ * Byte payloads are transferred by reference, so their cost should stay close to the one of plain numbers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChannelBench {
+    static final int BATCH = 1024;
+
+    static final String RECEIVER = """
+            const counter = VM.require('benchcounter');
+            VM.require('channels').onMessage((d) => counter.inc());
+            """;
+
+    static final AtomicLong received = new AtomicLong();
+
+    @Param({"int", "bytes4k"})
+    public String payload;
+
+    Mailbox.Message message;
+
+    long sent;
+
+    int target;
+
+    Emulation worker;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Cfg.load(new String[]{"workers.pool_min 0"});
+        Modular.autoRegister();
+        Modular.addModule("benchcounter", Counter.class, true);
+        worker = new Emulation();
+        worker.prepareRun();
+        worker.getEnv().pushScript(RECEIVER);
+        worker.startAsync();
+        target = worker.getEnv().getID();
+        message = payload.equals("int")
+                ? new Mailbox.Message(-1, 42, Mailbox.Kind.VALUE)
+                : new Mailbox.Message(-1, ByteBuffer.allocateDirect(4096), Mailbox.Kind.BYTES);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws InterruptedException {
+        worker.getEnv().getLoop().requestStop();
+        if (worker.getThread() != null) {
+            worker.getThread().join();
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void post() {
+        for (int i = 0; i < BATCH; i++) {
+            while (!Channels.send(target, message)) {
+                Thread.onSpinWait(); // Inbox full
+            }
+        }
+        sent += BATCH;
+        while (received.get() < sent) {
+            Thread.onSpinWait();
+        }
+    }
+
+    public static final class Counter {
+        @Expose
+        @SuppressWarnings("unused")
+        public static void inc() {
+            received.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,59 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.finder.IntegrityCache;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link Finder#readFileBytes(String, boolean)} with and without SHA-256 verification.
+ * <br/>
+ * Verified reads reuse the digest cached by {@link IntegrityCache}, unless it's cleared first.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FinderBench {
+    static final String FILE = "/opt/bench.bin";
+
+    @Param({"4096", "1048576", "16777216"})
+    public int size;
+
+    @Benchmark
+    public byte[] read() throws IOException {
+        return Finder.readFileBytes(FILE, false);
+    }
+
+    @Benchmark
+    public byte[] readVerified() throws IOException {
+        return Finder.readFileBytes(FILE, true);
+    }
+
+    @Benchmark
+    public byte[] readVerifiedCold() throws IOException {
+        IntegrityCache.clear();
+        return Finder.readFileBytes(FILE, true);
+    }
+
+    @Setup
+    public void setup() throws IOException, NoSuchAlgorithmException {
+        Fixtures.configureTempRoot();
+        byte[] content = new byte[size];
+        new Random(42).nextBytes(content);
+        String sig = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Finder.ensureDir(FILE);
+        Files.write(Paths.get(Finder.resolve(FILE)), content);
+        Files.writeString(Paths.get(Finder.resolve(FILE + ".sig")), sig);
+    }
+}
@@ -0,0 +1,24 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Shared setup for benchmarks.
+ */
+final class Fixtures {
+    /**
+     * Point {@link Finder} to a fresh temporary root, so benchmarks never touch real user data.
+     * <br/>
+     * Each benchmark runs in a forked JVM, thus overriding {@code user.home} is safe.
+     */
+    static Path configureTempRoot() throws IOException {
+        Path home = Files.createTempDirectory("opkje-bench");
+        System.setProperty("user.home", home.toString());
+        Finder.configure();
+        return home;
+    }
+}
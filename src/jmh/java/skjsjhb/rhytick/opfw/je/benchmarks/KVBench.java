@@ -0,0 +1,66 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.finder.KV;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link KV} get, set and save, backed by the log.
+ * <br/>
+ * {@code set} only waits for the writer when its queue is full, so the sustained rate includes the cost of
+ * writing and syncing the log.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KVBench {
+    @Param({"1000", "1000000"})
+    public int entries;
+
+    String[] keys;
+
+    int next = 0;
+
+    @Benchmark
+    public String get() {
+        return KV.get(nextKey());
+    }
+
+    String nextKey() {
+        next = (next + 1) % entries;
+        return keys[next];
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void save() {
+        KV.save();
+    }
+
+    @Benchmark
+    public void set() {
+        KV.set(nextKey(), "{\"score\":1000000,\"acc\":0.995}");
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.configureTempRoot();
+        KV.load();
+        keys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "chart." + i + ".best";
+            KV.set(keys[i], "{\"score\":" + i + "}");
+        }
+        KV.save();
+    }
+
+    @TearDown
+    public void tearDown() {
+        KV.close();
+    }
+}
@@ -0,0 +1,86 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.finder.KVIndex;
+
+import java.util.Hashtable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Index of {@link skjsjhb.rhytick.opfw.je.finder.KV} accessed by several worker threads at once.
+ * <br/>
+ * {@code hashtable} is the index used before, which locks on every access. {@code index} is the current
+ * {@link KVIndex}. The prefix scan on {@code hashtable} has to walk all entries, as it has no key order.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Threads(4)
+@Fork(1)
+public class KVConcurrentBench {
+    @Param({"100000"})
+    public int entries;
+
+    @Param({"hashtable", "index"})
+    public String index;
+
+    String[] keys;
+
+    Hashtable<String, String> table;
+
+    KVIndex idx;
+
+    @Benchmark
+    public Object get() {
+        String k = keys[ThreadLocalRandom.current().nextInt(entries)];
+        return idx == null ? table.get(k) : idx.get(k);
+    }
+
+    @Benchmark
+    public Object mixed() {
+        String k = keys[ThreadLocalRandom.current().nextInt(entries)];
+        if (ThreadLocalRandom.current().nextInt(10) == 0) {
+            return idx == null ? table.put(k, "{\"score\":0}") : idx.put(k, "{\"score\":0}");
+        }
+        return idx == null ? table.get(k) : idx.get(k);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int scan() {
+        String prefix = "chart." + ThreadLocalRandom.current().nextInt(entries / 10) + ".";
+        if (idx != null) {
+            return idx.scan(prefix, 0).size();
+        }
+        int n = 0;
+        synchronized (table) {
+            for (var e : table.entrySet()) {
+                if (e.getKey().startsWith(prefix)) {
+                    n++;
+                }
+            }
+        }
+        return n;
+    }
+
+    @Setup
+    public void setup() {
+        if (index.equals("hashtable")) {
+            table = new Hashtable<>();
+        } else {
+            idx = new KVIndex();
+        }
+        keys = new String[entries];
+        for (int i = 0; i < entries; i++) {
+            keys[i] = "chart." + i / 10 + "." + i % 10;
+            if (idx == null) {
+                table.put(keys[i], "{\"score\":" + i + "}");
+            } else {
+                idx.put(keys[i], "{\"score\":" + i + "}");
+            }
+        }
+    }
+}
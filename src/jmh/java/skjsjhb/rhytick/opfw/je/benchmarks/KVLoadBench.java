@@ -0,0 +1,41 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.finder.KV;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cold load of the {@link KV} log, i.e. replaying it into the index.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class KVLoadBench {
+    @Param({"1000000"})
+    public int entries;
+
+    @Benchmark
+    public void load() {
+        KV.load();
+    }
+
+    @Setup(Level.Invocation)
+    public void reset() {
+        KV.close();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        Fixtures.configureTempRoot();
+        KV.load();
+        for (int i = 0; i < entries; i++) {
+            KV.set("chart." + i + ".best", "{\"score\":" + i + "}");
+        }
+        KV.compact();
+    }
+}
@@ -0,0 +1,61 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.finder.KV;
+import skjsjhb.rhytick.opfw.je.finder.KVPersistence;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hot keys updated by a script, e.g. live score and combo, with every change appended to the log ({@code direct}),
+ * and with {@link KVPersistence} flushing dirty keys ({@code service}).
+ * <br/>
+ * The loop runs one turn every 64 changes. Records and bytes written are printed on tear down.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KVPersistenceBench {
+    @Param({"direct", "service"})
+    public String mode;
+
+    String[] keys;
+
+    Loop loop;
+
+    int next = 0;
+
+    @Benchmark
+    public void set() {
+        next++;
+        KV.set(keys[next & 15], String.valueOf(next));
+        if ((next & 63) == 0 && loop != null) {
+            loop.runOnce();
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Fixtures.configureTempRoot();
+        KV.load();
+        keys = new String[16];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "live." + i;
+        }
+        if (mode.equals("service")) {
+            loop = new Loop();
+            loop.push(new KVPersistence());
+            loop.runOnce();
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        KV.close(); // Prints the statistics
+    }
+}
@@ -0,0 +1,77 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.graalvm.polyglot.Source;
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.finder.KV;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Storing and loading per-chart stats from the guest, 1000 times per op: JSON strings, packed values, and a plain
+ * number for comparison.
+ * <br/>
+ * KV is not loaded, so only the encoding and the host crossing are measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 10, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KVValueBench {
+    static final String STATS = "{score: 998765, acc: 0.9912, combo: 1234, grade: 'S', judges: [1200, 30, 4, 0]}";
+
+    ScriptEnv env;
+
+    Source json;
+
+    Source number;
+
+    Source packed;
+
+    @Benchmark
+    public void json() {
+        env.eval(json);
+    }
+
+    static Source loop(String set, String get) {
+        return Source.create("js", """
+                {
+                    const s = %s;
+                    for (let i = 0; i < 1000; i++) {
+                        %s;
+                        if (%s == null) throw 'Missing!';
+                    }
+                }
+                """.formatted(STATS, set, get));
+    }
+
+    @Benchmark
+    public void number() {
+        env.eval(number);
+    }
+
+    @Benchmark
+    public void packed() {
+        env.eval(packed);
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        Modular.autoRegister();
+        env = new ScriptEnv();
+        env.initVMAPI();
+        try (InputStream in = Objects.requireNonNull(KV.class.getClassLoader().getResourceAsStream("preload.js"))) {
+            env.eval(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        json = loop("KV.set('chart.' + (i % 16), s)", "KV.get('chart.' + (i % 16)).score");
+        packed = loop("KV.setPacked('chart.' + (i % 16), s)", "KV.getPacked('chart.' + (i % 16)).score");
+        number = loop("KV.setNumber('chart.' + (i % 16), s.score)", "KV.getNumber('chart.' + (i % 16))");
+    }
+}
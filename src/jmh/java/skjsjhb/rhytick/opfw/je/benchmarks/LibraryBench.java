@@ -0,0 +1,71 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.dce.SourceCache;
+import skjsjhb.rhytick.opfw.je.dce.VMAPI;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.finder.IntegrityCache;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link VMAPI#library(String)} of a verified script, with cold and warm caches.
+ * <br/>
+ * Cold loads clear both {@link IntegrityCache} and {@link SourceCache}, so the script is read, hashed and parsed.
+ * Warm loads only read the script and its signature.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LibraryBench {
+    static final String FILE = "/opt/lib.js";
+
+    ScriptEnv se;
+
+    /**
+     * Number of functions defined by the script, about 60 bytes each.
+     */
+    @Param({"64", "16384"})
+    public int functions;
+
+    @Benchmark
+    public void cold() {
+        IntegrityCache.clear();
+        SourceCache.clear();
+        se.eval("VM.library('%s')".formatted(FILE));
+    }
+
+    @Setup
+    public void setup() throws IOException, NoSuchAlgorithmException {
+        Fixtures.configureTempRoot();
+        Modular.autoRegister();
+        StringBuilder sb = new StringBuilder("globalThis.lib = globalThis.lib || {};\n");
+        for (int i = 0; i < functions; i++) {
+            sb.append("lib.f").append(i).append(" = (a, b) => a * ").append(i).append(" + b;\n");
+        }
+        byte[] content = sb.toString().getBytes(StandardCharsets.UTF_8);
+        String sig = HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(content));
+        Finder.ensureDir(FILE);
+        Files.write(Paths.get(Finder.resolve(FILE)), content);
+        Files.writeString(Paths.get(Finder.resolve(FILE + ".sig")), sig);
+        se = new ScriptEnv();
+        se.initVMAPI();
+    }
+
+    @Benchmark
+    public void warm() {
+        se.eval("VM.library('%s')".formatted(FILE));
+    }
+}
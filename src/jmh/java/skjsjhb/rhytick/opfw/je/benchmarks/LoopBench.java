@@ -0,0 +1,125 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Tasks per second drained by {@link Loop} on its own thread, compared with the monitor-guarded hot path it
+ * replaced.
+ * <br/>
+ * See {@link ProducerBench} for the throughput with concurrent producers. {@code metrics} toggles the recording of
+ * task times (cfg {@code schedule.metrics}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoopBench {
+    static final int BATCH = 4096;
+
+    static final Runnable NOOP = () -> {
+    };
+
+    LegacyLoop legacy;
+
+    Loop loop;
+
+    @Param({"true", "false"})
+    boolean metrics;
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void drainLegacy() {
+        for (int i = 0; i < BATCH - 1; i++) {
+            legacy.push(NOOP);
+        }
+        legacy.push(legacy::requestStop);
+        legacy.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void drainLoop() {
+        for (int i = 0; i < BATCH - 1; i++) {
+            loop.push(NOOP);
+        }
+        loop.push(loop::requestStop);
+        loop.start();
+    }
+
+    /**
+     * Create the loops for each invocation, since a stopped {@link Loop} drops any task pushed to it.
+     */
+    @Setup(Level.Invocation)
+    public void newLoops() {
+        loop = new Loop(IdleStrategy.SPIN);
+        legacy = new LegacyLoop();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Cfg.load(new String[]{(metrics ? "+" : "-") + "schedule.metrics"});
+    }
+
+    /**
+     * The hot path of {@link Loop} before the lock-free state machine: a {@code synchronized} running flag
+     * read per iteration, and a queue wrapper checking an {@link AtomicBoolean} on each access.
+     */
+    static final class LegacyLoop {
+        private final AtomicBoolean locked = new AtomicBoolean(false);
+
+        private final Queue<Runnable> emptyQueue = new ConcurrentLinkedQueue<>();
+
+        private final Queue<Runnable> queue = new ConcurrentLinkedQueue<>();
+
+        private boolean running = false;
+
+        synchronized boolean isRunning() {
+            return running;
+        }
+
+        void push(Runnable r) {
+            tasks().add(r);
+        }
+
+        void requestStop() {
+            setRunning(false);
+        }
+
+        synchronized void setRunning(boolean r) {
+            running = r;
+        }
+
+        void start() {
+            synchronized (this) {
+                if (isRunning()) {
+                    throw new IllegalStateException("loop is already running");
+                }
+                setRunning(true);
+            }
+            while (isRunning()) {
+                Runnable t;
+                while ((t = tasks().poll()) != null) {
+                    t.run();
+                }
+            }
+        }
+
+        Queue<Runnable> tasks() {
+            if (locked.get()) {
+                emptyQueue.clear();
+                return emptyQueue;
+            }
+            return queue;
+        }
+    }
+}
@@ -0,0 +1,33 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * First {@link Modular#autoRegister()} in a fresh JVM, with the generated index and with class path scanning.
+ * <br/>
+ * Each measurement forks a new JVM, so class loading is included as it is at startup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class ModularBench {
+    @Param({"true", "false"})
+    public boolean index;
+
+    @Benchmark
+    public void autoRegister() {
+        Modular.autoRegister();
+    }
+
+    @Setup
+    public void setup() {
+        Cfg.load(new String[]{(index ? "+" : "-") + "emulation.module_index"});
+    }
+}
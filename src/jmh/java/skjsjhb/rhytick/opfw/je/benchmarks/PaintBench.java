@@ -0,0 +1,66 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.lwjgl.system.MemoryUtil;
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.cherry.*;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a frame of {@link Paint} on the headless backend, with {@code quads} sprites per frame.
+ * <br/>
+ * With {@code materials} of 4, sprites are taken from two atlas pages in both blend modes, switching material on
+ * each quad, which is the worst case of batching.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PaintBench {
+    @Param({"1", "4"})
+    int materials;
+
+    Paint paint;
+
+    @Param({"1000", "10000", "100000"})
+    int quads;
+
+    Sprite[] sprites;
+
+    HeadlessWindow window;
+
+    @Benchmark
+    public int frame() {
+        Paint p = paint;
+        Sprite[] s = sprites;
+        p.begin();
+        for (int i = 0; i < quads; i++) {
+            int m = i % materials;
+            p.setBlend(m < 2 ? Blend.ALPHA : Blend.ADD);
+            p.sprite(s[m & 1], i & 1023, i >> 10, 32, 32, 0xffffffff);
+        }
+        p.end();
+        window.flush();
+        return p.getDrawCalls();
+    }
+
+    @Setup
+    public void setup() {
+        Cfg.load(new String[]{"cherry.atlas_size 64", "cherry.headless_max_frames 0"});
+        window = new HeadlessWindow(1280, 720);
+        paint = new Paint(window);
+        ByteBuffer px = MemoryUtil.memCalloc(4 * 40 * 40);
+        sprites = new Sprite[]{paint.addSprite(40, 40, px), paint.addSprite(40, 40, px)}; // One page each
+        MemoryUtil.memFree(px);
+    }
+
+    @TearDown
+    public void tearDown() {
+        paint.close();
+        window.close();
+    }
+}
@@ -0,0 +1,91 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * {@link Loop#push(Runnable)} and poll throughput with 1 to N producer threads feeding one running loop.
+ * <br/>
+ * Each producer keeps at most {@link #WINDOW} tasks in flight, so the score counts tasks which are actually
+ * executed rather than tasks piling up in the queue.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProducerBench {
+    static final int WINDOW = 1 << 14;
+
+    @Param({"PARK", "SPIN"})
+    public IdleStrategy idleStrategy;
+
+    Loop loop;
+
+    Thread loopThread;
+
+    @Benchmark
+    @Threads(1)
+    public void push1(Producer p) {
+        p.push(loop);
+    }
+
+    @Benchmark
+    @Threads(2)
+    public void push2(Producer p) {
+        p.push(loop);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public void push4(Producer p) {
+        p.push(loop);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public void pushMax(Producer p) {
+        p.push(loop);
+    }
+
+    @Setup
+    @SuppressWarnings("StatementWithEmptyBody")
+    public void setup() {
+        loop = new Loop(idleStrategy);
+        loopThread = new Thread(() -> {
+            loop.makeCurrent(Thread.currentThread());
+            loop.start();
+        });
+        loopThread.start();
+        while (!loop.isRunning()) {
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        loop.stop();
+        loopThread.join();
+    }
+
+    @State(Scope.Thread)
+    public static class Producer {
+        final AtomicLong done = new AtomicLong();
+
+        final Runnable task = done::incrementAndGet;
+
+        long pushed = 0;
+
+        void push(Loop loop) {
+            while (pushed - done.get() >= WINDOW) {
+                Thread.onSpinWait();
+            }
+            loop.push(task);
+            pushed++;
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Latency of running a small script through {@link ScriptEnv#eval(String)} versus
+ * {@link ScriptEnv#pushScript(String)} and one loop turn.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ScriptEnvBench {
+    static final String SCRIPT = "globalThis.counter = (globalThis.counter || 0) + 1;";
+
+    ScriptEnv se;
+
+    @Benchmark
+    public void eval() {
+        se.eval(SCRIPT);
+    }
+
+    @Benchmark
+    public void pushScript() {
+        se.pushScript(SCRIPT);
+        se.getLoop().runOnce();
+    }
+
+    @Setup
+    public void setup() {
+        Modular.autoRegister();
+        se = new ScriptEnv();
+        se.initVMAPI();
+        se.getLoop().makeCurrent(Thread.currentThread());
+    }
+}
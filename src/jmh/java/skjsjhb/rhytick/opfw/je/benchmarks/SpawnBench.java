@@ -0,0 +1,89 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Spawn 1k concurrent jobs, each blocking for 10 ms like a small file read, and wait for all of them.
+ * <br/>
+ * The {@code io} mode runs the same jobs on the bounded I/O executor. It is not meant for this kind of fan-out, and
+ * is measured to show the cost of queuing. The resident memory growth at the time all jobs are spawned is reported
+ * as a secondary metric (Linux only).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 20)
+@Fork(1)
+public class SpawnBench {
+    static final int JOBS = 1000;
+
+    @Param({"virtual", "platform", "io"})
+    public String mode;
+
+    /**
+     * Read the resident set size of this process in KiB, or 0 if unavailable.
+     */
+    static long readRSS() {
+        try {
+            for (String l : Files.readAllLines(Path.of("/proc/self/status"))) {
+                if (l.startsWith("VmRSS:")) {
+                    return Long.parseLong(l.replaceAll("\\D", ""));
+                }
+            }
+        } catch (IOException | NumberFormatException ignored) {
+        }
+        return 0;
+    }
+
+    static void job(CountDownLatch done) {
+        try {
+            Thread.sleep(10);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        done.countDown();
+    }
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Cfg.load(new String[]{"schedule.thread_mode " + (mode.equals("platform") ? "platform" : "virtual")});
+    }
+
+    @Benchmark
+    public void spawn(Memory mem) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(JOBS);
+        long rss = readRSS();
+        for (int i = 0; i < JOBS; i++) {
+            if (mode.equals("io")) {
+                Scheduler.runIO(() -> {
+                    job(done);
+                    return null;
+                });
+            } else {
+                Scheduler.runJob(() -> job(done));
+            }
+        }
+        mem.rssGrowthKiB = readRSS() - rss;
+        done.await();
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Memory {
+        public long rssGrowthKiB;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            rssGrowthKiB = 0;
+        }
+    }
+}
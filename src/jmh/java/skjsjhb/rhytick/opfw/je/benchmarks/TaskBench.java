@@ -0,0 +1,74 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.schedule.AlwaysTask;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.ServiceTask;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one re-push of {@link AlwaysTask} and {@link ServiceTask}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TaskBench {
+    static final int REPEATS = 4096;
+
+    Loop loop;
+
+    @Benchmark
+    @OperationsPerInvocation(REPEATS)
+    public void alwaysTask() {
+        loop.push(new AlwaysTask() {
+            int count = 0;
+
+            @Override
+            public boolean always() {
+                if (++count == REPEATS) {
+                    loop.requestStop();
+                }
+                return true;
+            }
+        });
+        loop.start();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(REPEATS)
+    public void serviceTask() {
+        loop.push(new ServiceTask() {
+            int count = 0;
+
+            @Override
+            public boolean always() {
+                if (++count == REPEATS) {
+                    loop.requestStop();
+                }
+                return true;
+            }
+
+            @Override
+            public void initial() {
+            }
+
+            @Override
+            public void stop() {
+            }
+        });
+        loop.start();
+    }
+
+    /**
+     * Create the loop for each invocation, since a stopped loop drops any task pushed to it.
+     */
+    @Setup(Level.Invocation)
+    public void setup() {
+        loop = new Loop(IdleStrategy.SPIN);
+    }
+}
@@ -0,0 +1,56 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.TimerQueue;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of timers on {@link Loop} with many timers pending.
+ * <br/>
+ * {@code scheduleCancel} adds and cancels a timer, {@code fire} adds one and runs the loop until it fires.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TimerBench {
+    static final long FAR = 3600_000_000_000L;
+
+    Loop loop;
+
+    @Param({"0", "100000"})
+    int pending;
+
+    boolean fired;
+
+    final Runnable fire = () -> fired = true;
+
+    @Benchmark
+    public boolean fire() {
+        fired = false;
+        loop.schedule(fire, 0);
+        while (!fired) {
+            loop.runOnce();
+        }
+        return fired;
+    }
+
+    @Benchmark
+    public boolean scheduleCancel() {
+        TimerQueue.Entry e = loop.schedule(fire, FAR / 2);
+        return loop.cancel(e);
+    }
+
+    @Setup
+    public void setup() {
+        loop = new Loop(IdleStrategy.SPIN);
+        for (int i = 0; i < pending; i++) {
+            loop.schedule(fire, FAR + i);
+        }
+    }
+}
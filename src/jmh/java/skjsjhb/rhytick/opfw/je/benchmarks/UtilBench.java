@@ -0,0 +1,109 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Expose;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+
+import java.lang.reflect.Array;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Turning a host {@code byte[]} into a guest {@code Uint8Array}: the reflective {@code toArray} proxy used before,
+ * the specialized proxy, and the bulk copy into an {@code ArrayBuffer}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class UtilBench {
+    static final String BULK = """
+            {
+                const u = VM.require('util');
+                const ab = new ArrayBuffer(u.sizeOf(data));
+                u.copyToBuffer(data, ab, 0);
+                new Uint8Array(ab);
+            }
+            """;
+
+    static final String LEGACY = "new Uint8Array(legacy.toArray(data));";
+
+    static final String PROXY = "new Uint8Array(VM.require('util').toArray(data));";
+
+    @Param({"1048576", "67108864"})
+    public int size;
+
+    ScriptEnv env;
+
+    Source bulk;
+
+    Source legacy;
+
+    Source proxy;
+
+    @Benchmark
+    public void bulkCopy() {
+        env.eval(bulk);
+    }
+
+    @Benchmark
+    public void legacyProxy() {
+        env.eval(legacy);
+    }
+
+    @Setup
+    public void setup() {
+        byte[] data = new byte[size];
+        new Random(42).nextBytes(data);
+        Modular.autoRegister();
+        env = new ScriptEnv();
+        env.initVMAPI();
+        env.setGlobal("data", data, false);
+        env.setGlobal("legacy", LegacyUtil.class, true);
+        bulk = Source.create("js", BULK);
+        legacy = Source.create("js", LEGACY);
+        proxy = Source.create("js", PROXY);
+    }
+
+    @Benchmark
+    public void specializedProxy() {
+        env.eval(proxy);
+    }
+
+    /**
+     * Copy of the reflective {@code Util.toArray} before specialization.
+     */
+    public static final class LegacyUtil {
+        @Expose
+        public static ProxyArray toArray(Object array) {
+            return new ProxyArray() {
+                @Override
+                public Object get(long index) {
+                    if (index >= Array.getLength(array)) {
+                        return null;
+                    }
+                    return Array.get(array, (int) index);
+                }
+
+                @Override
+                public long getSize() {
+                    return Array.getLength(array);
+                }
+
+                @Override
+                public void set(long index, Value value) {
+                    if (index >= Array.getLength(array)) {
+                        return;
+                    }
+                    Array.set(array, (int) index, value.asHostObject());
+                }
+            };
+        }
+    }
+}
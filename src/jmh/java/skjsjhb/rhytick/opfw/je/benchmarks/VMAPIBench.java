@@ -0,0 +1,57 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.dce.Util;
+import skjsjhb.rhytick.opfw.je.dce.VMAPI;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Host-guest crossings through {@link VMAPI#require(String)} and {@link Util#toArray(Object)}, driven by
+ * guest loops.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class VMAPIBench {
+    static final int CALLS = 1024;
+
+    ScriptEnv se;
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void require() {
+        se.eval("benchRequire()");
+    }
+
+    @Setup
+    public void setup() {
+        Modular.autoRegister();
+        se = new ScriptEnv();
+        se.initVMAPI();
+        se.setGlobal("bytes", new byte[CALLS], false);
+        se.eval("""
+                const benchUtil = VM.require('util');
+                globalThis.benchRequire = () => {
+                    for (let i = 0; i < %1$d; i++) VM.require('util');
+                };
+                globalThis.benchToArray = () => {
+                    const a = benchUtil.toArray(bytes);
+                    let s = 0;
+                    for (let i = 0; i < %1$d; i++) s += a[i];
+                    return s;
+                };
+                """.formatted(CALLS));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CALLS)
+    public void toArray() {
+        se.eval("benchToArray()");
+    }
+}
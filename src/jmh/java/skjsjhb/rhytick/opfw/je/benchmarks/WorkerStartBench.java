@@ -0,0 +1,40 @@
+package skjsjhb.rhytick.opfw.je.benchmarks;
+
+import org.openjdk.jmh.annotations.*;
+import skjsjhb.rhytick.opfw.je.dce.Emulation;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Full lifecycle of a worker env (context creation, preload and a small script), with and without the shared
+ * engine.
+ * <br/>
+ * The first iterations show the cold start-up, later ones the steady state after warm-up.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 50)
+@Fork(3)
+public class WorkerStartBench {
+    static final String SCRIPT = "const a = []; for (let i = 0; i < 1000; i++) a.push(i * i); VM.stop();";
+
+    @Param({"true", "false"})
+    public boolean sharedEngine;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        Cfg.load(new String[]{(sharedEngine ? "+" : "-") + "emulation.shared_engine", "+reporter.no_gui"});
+        Modular.autoRegister();
+    }
+
+    @Benchmark
+    public void startWorker() {
+        Emulation emul = new Emulation();
+        emul.prepareRun();
+        emul.start(SCRIPT);
+    }
+}
@@ -0,0 +1,97 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.lwjgl.system.MemoryUtil;
+
+/**
+ * Packs sprites into square atlas textures, so sprites of the same atlas can be drawn in one draw call.
+ * <br/>
+ * Sprites are placed on shelves from top to bottom, with a transparent border of one pixel against bleeding. When a
+ * page is full, a new texture is created, and later sprites belong to a different material.
+ */
+public final class Atlas {
+    private static final int PADDING = 1;
+
+    private final PaintBackend backend;
+
+    private final int size;
+
+    private int page;
+
+    private int pages;
+
+    private int shelfHeight;
+
+    private int x, y;
+
+    /**
+     * Construct an atlas.
+     *
+     * @param backend Backend to create textures on.
+     * @param size    Width and height of each page in pixels.
+     */
+    public Atlas(PaintBackend backend, int size) {
+        this.backend = backend;
+        this.size = size;
+    }
+
+    /**
+     * Add a sprite.
+     *
+     * @param width  Width in pixels.
+     * @param height Height in pixels.
+     * @param pixels Address of RGBA pixels, row by row without padding.
+     * @return The region of the sprite.
+     * @throws IllegalArgumentException If the sprite does not fit in a page.
+     */
+    public Sprite add(int width, int height, long pixels) {
+        int w = width + 2 * PADDING;
+        int h = height + 2 * PADDING;
+        if (width <= 0 || height <= 0 || w > size || h > size) {
+            throw new IllegalArgumentException("sprite of " + width + "x" + height + " does not fit in the atlas");
+        }
+        if (x + w > size) {
+            x = 0; // Next shelf
+            y += shelfHeight;
+            shelfHeight = 0;
+        }
+        if (page == 0 || y + h > size) {
+            newPage();
+        }
+        backend.updateTexture(page, x + PADDING, y + PADDING, width, height, pixels);
+        float px = 1f / size;
+        Sprite s = new Sprite(page, (x + PADDING) * px, (y + PADDING) * px, (x + PADDING + width) * px,
+                (y + PADDING + height) * px, width, height);
+        x += w;
+        shelfHeight = Math.max(shelfHeight, h);
+        return s;
+    }
+
+    /**
+     * Gets the number of pages created.
+     */
+    public int getPages() {
+        return pages;
+    }
+
+    /**
+     * Gets the width and height of each page in pixels.
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Internal method for starting a page, which is cleared to transparent.
+     */
+    private void newPage() {
+        page = backend.createTexture(size, size);
+        pages++;
+        x = y = shelfHeight = 0;
+        long clear = MemoryUtil.nmemCalloc(size, 4L * size);
+        try {
+            backend.updateTexture(page, 0, 0, size, size, clear);
+        } finally {
+            MemoryUtil.nmemFree(clear);
+        }
+    }
+}
@@ -0,0 +1,17 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+/**
+ * Blend modes of {@link Paint}. Together with the atlas texture, the blend mode makes up a material, and quads of
+ * each material are drawn in a single draw call.
+ */
+public enum Blend {
+    /**
+     * Normal alpha blending.
+     */
+    ALPHA,
+
+    /**
+     * Additive blending, for glows and hit effects.
+     */
+    ADD
+}
@@ -1,5 +1,6 @@
 package skjsjhb.rhytick.opfw.je.cherry;
 
+import skjsjhb.rhytick.opfw.je.schedule.Lane;
 import skjsjhb.rhytick.opfw.je.schedule.ServiceTask;
 
 /**
@@ -11,6 +12,11 @@ public class Cherry extends ServiceTask {
      */
     protected boolean running;
 
+    /**
+     * Batcher drawing on the window.
+     */
+    protected Paint paint;
+
     /**
      * Host window instance.
      */
@@ -18,11 +24,16 @@ public class Cherry extends ServiceTask {
 
     /**
      * Constructs the Cherry instance, create a corresponding window, and load cfg.
+     * <br/>
+     * Frames are generated on the {@link Lane#RENDER} lane. Between frames, the service waits as a timer until the
+     * next deadline of the frame pacer, instead of polling each turn.
      */
     public Cherry() {
-        CherryGlobal.addInstance();
+        lane = Lane.RENDER;
         // Create window and mark running
-        window = new Window();
+        window = Window.create();
+        CherryGlobal.addInstance(window);
+        paint = new Paint(window);
         running = true;
     }
 
@@ -30,22 +41,40 @@ public class Cherry extends ServiceTask {
     public boolean always() {
         if (running) {
             if (window.shouldGenNewFrame()) {
-                // TODO main draw methods
+                paint.frame();
                 window.flush();
             }
             if (window.shouldClose()) {
-                running = false;
-                stop();
+                running = false; // Then stopped by the service
             }
         }
         return running;
     }
 
+    @Override
+    protected long getNextDelay() {
+        return window.getFrameDelay();
+    }
+
     @Override
     public void initial() {
 
     }
 
+    /**
+     * Gets the batcher of this instance.
+     */
+    public Paint getPaint() {
+        return paint;
+    }
+
+    /**
+     * Gets the window of this instance.
+     */
+    public Window getWindow() {
+        return window;
+    }
+
     /**
      * Check if this Cherry instance is running.
      *
@@ -60,8 +89,10 @@ public class Cherry extends ServiceTask {
      */
     @Override
     public void stop() {
-        CherryGlobal.subInstance();
+        CherryGlobal.subInstance(window);
         System.out.println("Stopping Cherry!");
+        System.out.println("Frame pacing: " + window.getPacer());
+        paint.close();
         window.close();
     }
 }
@@ -4,44 +4,86 @@ package skjsjhb.rhytick.opfw.je.cherry;
 import org.lwjgl.glfw.GLFW;
 import org.lwjgl.glfw.GLFWErrorCallback;
 import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Lane;
 import skjsjhb.rhytick.opfw.je.schedule.ServiceTask;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * Global support for Cherry service including event polling.
+ * <br/>
+ * Events are polled once the next frame of any window is due, so they are fresh when the frame is generated. Between
+ * frames, the service waits as a timer, following the frame pacers of the windows.
+ * <br/>
+ * GLFW is not used with the headless backend (see {@link Window}), so nothing is initialized or polled.
  */
 public class CherryGlobal extends ServiceTask {
 
+    /**
+     * Delay between two runs when there are no windows to poll events for, in nanoseconds.
+     */
+    protected static final long IDLE_DELAY = 100_000_000L;
+
+    /**
+     * Windows of the running Cherry instances.
+     */
+    protected static final List<Window> windows = new ArrayList<>();
+
     protected static boolean glfwInitialized = false;
 
-    protected static int instanceCount = 0;
+    protected static boolean headless = false;
 
     protected static int irqMax, pscInterval;
 
-    public static void addInstance() {
-        instanceCount++;
+    /**
+     * Construct the service. Events are polled on the {@link Lane#INPUT} lane.
+     */
+    public CherryGlobal() {
+        lane = Lane.INPUT;
+    }
+
+    public static void addInstance(Window w) {
+        windows.add(w);
     }
 
     public static void pollEvents() {
-        if (instanceCount > 0) {
+        if (!windows.isEmpty() && !headless) {
             GLFW.glfwPollEvents();
         }
     }
 
-    public static void subInstance() {
-        instanceCount--;
+    public static void subInstance(Window w) {
+        windows.remove(w);
     }
 
     @Override
     public boolean always() {
-        if (instanceCount > 0) {
-            pollEvents();
-        }
+        pollEvents();
         return true;
     }
 
+    /**
+     * Gets the time left until the next frame of any window is due.
+     */
+    @Override
+    protected long getNextDelay() {
+        if (headless || windows.isEmpty()) {
+            return IDLE_DELAY;
+        }
+        long d = IDLE_DELAY;
+        for (Window w : windows) {
+            d = Math.min(d, w.getFrameDelay());
+        }
+        return Math.max(d, 1); // Not in the same turn again, even if a frame is due
+    }
+
     @Override
     public void initial() {
-        if (glfwInitialized) {
+        irqMax = Cfg.getInt("cherry.irq_max", 2048);
+        pscInterval = Cfg.getInt("cherry.psc_interval", 30);
+        headless = Window.isHeadless();
+        if (glfwInitialized || headless) {
             return;
         }
         glfwInitialized = true;
@@ -50,9 +92,7 @@ public class CherryGlobal extends ServiceTask {
         if (!GLFW.glfwInit()) {
             throw new RuntimeException("failed to initialize GLFW");
         }
-        irqMax = Cfg.getInt("cherry.irq_max", 2048);
         System.out.println("IRQ limit set to " + irqMax);
-        pscInterval = Cfg.getInt("cherry.psc_interval", 30);
     }
 
     @Override
@@ -0,0 +1,153 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.lwjgl.glfw.GLFW;
+import org.lwjgl.glfw.GLFWVidMode;
+import org.lwjgl.opengl.GL;
+import org.lwjgl.opengl.GL33C;
+import org.lwjgl.opengl.GLCapabilities;
+import org.lwjgl.system.MemoryUtil;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.timing.FramePacer;
+
+/**
+ * Window on the primary monitor with an OpenGL 3.3 core context, created by GLFW.
+ */
+public class GLFWWindow implements Window {
+    /**
+     * Frame pacer for the FPS limit.
+     */
+    protected FramePacer pacer = new FramePacer();
+
+    /**
+     * Internal GLFW window instance.
+     */
+    protected long gWindow = MemoryUtil.NULL;
+
+    /**
+     * Internal {@link GLCapabilities} reference.
+     */
+    protected GLCapabilities glCapabilities = null;
+
+    /**
+     * Framebuffer size in pixels.
+     */
+    protected int width, height;
+
+    /**
+     * Construct a window and initialize OpenGL context.
+     */
+    public GLFWWindow() {
+        init();
+    }
+
+    @Override
+    public void close() {
+        GLFW.glfwDestroyWindow(gWindow);
+    }
+
+    @Override
+    public PaintBackend createPaintBackend() {
+        GLFW.glfwMakeContextCurrent(gWindow);
+        return new GLPaintBackend();
+    }
+
+    @Override
+    public void flush() {
+        GLFW.glfwSwapBuffers(gWindow);
+    }
+
+    /**
+     * Internal method for initializing.
+     */
+    protected void init() {
+        // Configure video mode
+        long monitor = GLFW.glfwGetPrimaryMonitor();
+        GLFWVidMode vmode = GLFW.glfwGetVideoMode(monitor);
+        if (vmode == null) {
+            // Happens without a display
+            throw new RuntimeException("could not get default video mode, try cfg cherry.backend headless");
+        }
+
+        int ww = vmode.width();
+        int wh = vmode.height();
+        System.out.printf("Video mode: %dx%d@%d\n", ww, wh, vmode.refreshRate());
+
+        // Request an OpenGL 3.3 Core profile
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MAJOR, 3);
+        GLFW.glfwWindowHint(GLFW.GLFW_CONTEXT_VERSION_MINOR, 3);
+        GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_PROFILE, GLFW.GLFW_OPENGL_CORE_PROFILE);
+        GLFW.glfwWindowHint(GLFW.GLFW_OPENGL_FORWARD_COMPAT, GLFW.GLFW_TRUE);
+
+        // Create window
+        boolean fullscreen = Cfg.getBoolean("cherry.fullscreen");
+        String title = Cfg.getValue("cherry.window_title", "OPKJE");
+        if (fullscreen) {
+            System.out.println("Entering fullscreen mode.");
+            gWindow = GLFW.glfwCreateWindow(ww, wh, title, monitor, MemoryUtil.NULL);
+        } else {
+            System.out.println("Entering windowed mode.");
+            double scale = Cfg.getDouble("cherry.window_scale", 0.8);
+            gWindow = GLFW.glfwCreateWindow((int) (scale * ww), (int) (scale * wh), title,
+                    MemoryUtil.NULL, MemoryUtil.NULL);
+        }
+        if (gWindow == MemoryUtil.NULL) {
+            throw new RuntimeException("failed to create window");
+        }
+
+        GLFW.glfwMakeContextCurrent(gWindow);
+        int[] fw = new int[1], fh = new int[1];
+        GLFW.glfwGetFramebufferSize(gWindow, fw, fh);
+        width = fw[0];
+        height = fh[0];
+
+        // Configure vsync & fps
+        boolean vsync = Cfg.getBoolean("cherry.vsync");
+        setVsync(vsync);
+
+        int fps = vsync ? vmode.refreshRate() : Cfg.getInt("cherry.fps_max", 330);
+        setFPSLimit(fps);
+
+        // Initialize OpenGL methods
+        glCapabilities = GL.createCapabilities();
+        String vendor = GL33C.glGetString(GL33C.GL_VENDOR);
+        String version = GL33C.glGetString(GL33C.GL_VERSION);
+        String glslVersion = GL33C.glGetString(GL33C.GL_SHADING_LANGUAGE_VERSION);
+        System.out.printf("OpenGL %s (%s) GLSL %s\n", version, vendor, glslVersion);
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public FramePacer getPacer() {
+        return pacer;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @apiNote GLFW can 'suggest' the system to disable / enable vsync. However, the final decision is made
+     * by drivers / system.
+     */
+    @Override
+    public void setVsync(boolean e) {
+        if (e) {
+            System.out.println("Enabling VSYNC.");
+        } else {
+            System.out.println("Disabling VSYNC.");
+        }
+        GLFW.glfwSwapInterval(e ? 1 : 0);
+    }
+
+    @Override
+    public boolean shouldClose() {
+        return GLFW.glfwWindowShouldClose(gWindow);
+    }
+}
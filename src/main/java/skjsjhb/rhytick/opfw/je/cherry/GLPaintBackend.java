@@ -0,0 +1,207 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.lwjgl.opengl.GL33C;
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link PaintBackend} on an OpenGL 3.3 core context, which must be current on the calling thread.
+ * <br/>
+ * All quads share a static index buffer, grown to the largest batch. Vertices are streamed into one vertex buffer,
+ * which is orphaned on each draw by uploading with {@code glBufferData}, so the driver hands out fresh storage instead
+ * of waiting for the GPU to finish reading the last batch.
+ */
+public class GLPaintBackend implements PaintBackend {
+    private static final String VERTEX_SHADER = """
+            #version 330 core
+            layout(location = 0) in vec2 aPos;
+            layout(location = 1) in vec2 aUV;
+            layout(location = 2) in vec4 aColor;
+            uniform vec2 uScale;
+            out vec2 vUV;
+            out vec4 vColor;
+            void main() {
+                vUV = aUV;
+                vColor = aColor;
+                gl_Position = vec4(aPos * uScale + vec2(-1.0, 1.0), 0.0, 1.0);
+            }
+            """;
+
+    private static final String FRAGMENT_SHADER = """
+            #version 330 core
+            uniform sampler2D uAtlas;
+            in vec2 vUV;
+            in vec4 vColor;
+            out vec4 fragColor;
+            void main() {
+                fragColor = texture(uAtlas, vUV) * vColor;
+            }
+            """;
+
+    protected final int ebo;
+
+    protected final int program;
+
+    protected final List<Integer> textures = new ArrayList<>();
+
+    protected final int uScale;
+
+    protected final int vao;
+
+    protected final int vbo;
+
+    protected int indexedQuads;
+
+    /**
+     * Construct the backend on the current context.
+     */
+    public GLPaintBackend() {
+        program = link(compile(GL33C.GL_VERTEX_SHADER, VERTEX_SHADER),
+                compile(GL33C.GL_FRAGMENT_SHADER, FRAGMENT_SHADER));
+        uScale = GL33C.glGetUniformLocation(program, "uScale");
+        GL33C.glUseProgram(program);
+        GL33C.glUniform1i(GL33C.glGetUniformLocation(program, "uAtlas"), 0);
+
+        vao = GL33C.glGenVertexArrays();
+        vbo = GL33C.glGenBuffers();
+        ebo = GL33C.glGenBuffers();
+        GL33C.glBindVertexArray(vao);
+        GL33C.glBindBuffer(GL33C.GL_ARRAY_BUFFER, vbo);
+        GL33C.glBindBuffer(GL33C.GL_ELEMENT_ARRAY_BUFFER, ebo);
+        GL33C.glEnableVertexAttribArray(0);
+        GL33C.glVertexAttribPointer(0, 2, GL33C.GL_FLOAT, false, Paint.VERTEX_SIZE, 0);
+        GL33C.glEnableVertexAttribArray(1);
+        GL33C.glVertexAttribPointer(1, 2, GL33C.GL_FLOAT, false, Paint.VERTEX_SIZE, 8);
+        GL33C.glEnableVertexAttribArray(2);
+        GL33C.glVertexAttribPointer(2, 4, GL33C.GL_UNSIGNED_BYTE, true, Paint.VERTEX_SIZE, 16);
+        GL33C.glBindVertexArray(0);
+    }
+
+    /**
+     * Internal method for compiling a shader.
+     */
+    private static int compile(int type, String src) {
+        int s = GL33C.glCreateShader(type);
+        GL33C.glShaderSource(s, src);
+        GL33C.glCompileShader(s);
+        if (GL33C.glGetShaderi(s, GL33C.GL_COMPILE_STATUS) == GL33C.GL_FALSE) {
+            String log = GL33C.glGetShaderInfoLog(s);
+            GL33C.glDeleteShader(s);
+            throw new IllegalStateException("could not compile shader: " + log);
+        }
+        return s;
+    }
+
+    /**
+     * Internal method for linking a program, deleting the shaders.
+     */
+    private static int link(int vs, int fs) {
+        int p = GL33C.glCreateProgram();
+        GL33C.glAttachShader(p, vs);
+        GL33C.glAttachShader(p, fs);
+        GL33C.glLinkProgram(p);
+        GL33C.glDeleteShader(vs);
+        GL33C.glDeleteShader(fs);
+        if (GL33C.glGetProgrami(p, GL33C.GL_LINK_STATUS) == GL33C.GL_FALSE) {
+            String log = GL33C.glGetProgramInfoLog(p);
+            GL33C.glDeleteProgram(p);
+            throw new IllegalStateException("could not link program: " + log);
+        }
+        return p;
+    }
+
+    @Override
+    public void begin(int width, int height) {
+        GL33C.glViewport(0, 0, width, height);
+        GL33C.glClearColor(0, 0, 0, 1);
+        GL33C.glClear(GL33C.GL_COLOR_BUFFER_BIT);
+        GL33C.glEnable(GL33C.GL_BLEND);
+        GL33C.glUseProgram(program);
+        GL33C.glUniform2f(uScale, 2f / width, -2f / height);
+        GL33C.glBindVertexArray(vao);
+        GL33C.glActiveTexture(GL33C.GL_TEXTURE0);
+    }
+
+    @Override
+    public void close() {
+        for (int t : textures) {
+            GL33C.glDeleteTextures(t);
+        }
+        textures.clear();
+        GL33C.glDeleteBuffers(vbo);
+        GL33C.glDeleteBuffers(ebo);
+        GL33C.glDeleteVertexArrays(vao);
+        GL33C.glDeleteProgram(program);
+    }
+
+    @Override
+    public int createTexture(int width, int height) {
+        int t = GL33C.glGenTextures();
+        GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, t);
+        GL33C.nglTexImage2D(GL33C.GL_TEXTURE_2D, 0, GL33C.GL_RGBA8, width, height, 0, GL33C.GL_RGBA,
+                GL33C.GL_UNSIGNED_BYTE, MemoryUtil.NULL);
+        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_MIN_FILTER, GL33C.GL_LINEAR);
+        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_MAG_FILTER, GL33C.GL_LINEAR);
+        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_WRAP_S, GL33C.GL_CLAMP_TO_EDGE);
+        GL33C.glTexParameteri(GL33C.GL_TEXTURE_2D, GL33C.GL_TEXTURE_WRAP_T, GL33C.GL_CLAMP_TO_EDGE);
+        textures.add(t);
+        return t;
+    }
+
+    @Override
+    public void draw(int texture, Blend blend, long vertices, int quads) {
+        ensureIndices(quads);
+        GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, texture);
+        switch (blend) {
+            case ALPHA -> GL33C.glBlendFunc(GL33C.GL_SRC_ALPHA, GL33C.GL_ONE_MINUS_SRC_ALPHA);
+            case ADD -> GL33C.glBlendFunc(GL33C.GL_SRC_ALPHA, GL33C.GL_ONE);
+        }
+        GL33C.glBindBuffer(GL33C.GL_ARRAY_BUFFER, vbo);
+        GL33C.nglBufferData(GL33C.GL_ARRAY_BUFFER, (long) quads * Paint.QUAD_SIZE, vertices, GL33C.GL_STREAM_DRAW);
+        GL33C.glDrawElements(GL33C.GL_TRIANGLES, quads * 6, GL33C.GL_UNSIGNED_INT, 0);
+    }
+
+    @Override
+    public void end() {
+        GL33C.glBindVertexArray(0);
+    }
+
+    /**
+     * Internal method for growing the index buffer to cover a number of quads.
+     */
+    protected void ensureIndices(int quads) {
+        if (quads <= indexedQuads) {
+            return;
+        }
+        int n = Math.max(quads, indexedQuads * 2);
+        long size = 6L * n * Integer.BYTES;
+        long p = MemoryUtil.nmemAllocChecked(size);
+        try {
+            for (int i = 0; i < n; i++) {
+                long q = p + 6L * i * Integer.BYTES;
+                int v = 4 * i;
+                MemoryUtil.memPutInt(q, v);
+                MemoryUtil.memPutInt(q + 4, v + 1);
+                MemoryUtil.memPutInt(q + 8, v + 2);
+                MemoryUtil.memPutInt(q + 12, v + 2);
+                MemoryUtil.memPutInt(q + 16, v + 3);
+                MemoryUtil.memPutInt(q + 20, v);
+            }
+            // The element buffer is part of the VAO, which is bound
+            GL33C.nglBufferData(GL33C.GL_ELEMENT_ARRAY_BUFFER, size, p, GL33C.GL_STATIC_DRAW);
+        } finally {
+            MemoryUtil.nmemFree(p);
+        }
+        indexedQuads = n;
+    }
+
+    @Override
+    public void updateTexture(int texture, int x, int y, int width, int height, long pixels) {
+        GL33C.glBindTexture(GL33C.GL_TEXTURE_2D, texture);
+        GL33C.glPixelStorei(GL33C.GL_UNPACK_ALIGNMENT, 4);
+        GL33C.nglTexSubImage2D(GL33C.GL_TEXTURE_2D, 0, x, y, width, height, GL33C.GL_RGBA, GL33C.GL_UNSIGNED_BYTE,
+                pixels);
+    }
+}
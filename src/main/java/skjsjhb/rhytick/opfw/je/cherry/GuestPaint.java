@@ -0,0 +1,98 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.graalvm.polyglot.Value;
+import skjsjhb.rhytick.opfw.je.dce.Expose;
+import skjsjhb.rhytick.opfw.je.dce.GuestModule;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.Objects;
+
+/**
+ * Drawing API of {@link Paint} for guest script, on the {@linkplain Paint#getActive() active} paint.
+ * <br/>
+ * Drawing is only allowed in frame callbacks. Colors are numbers of {@code 0xRRGGBBAA}. Frame callbacks are called on
+ * the loop of the window, which must be the loop of the env.
+ */
+@GuestModule(value = "paint", statik = true)
+@SuppressWarnings("unused")
+public final class GuestPaint {
+    /**
+     * Internal method for getting the active paint.
+     */
+    private static Paint paint() {
+        return Objects.requireNonNull(Paint.getActive(), "no paint is open");
+    }
+
+    /**
+     * Fill a rectangle with a color.
+     */
+    @Expose
+    public static void fill(double x, double y, double w, double h, long rgba) {
+        paint().fill((float) x, (float) y, (float) w, (float) h, (int) rgba);
+    }
+
+    /**
+     * Gets the height of the window in pixels.
+     */
+    @Expose
+    public static int getHeight() {
+        return paint().getWindow().getHeight();
+    }
+
+    /**
+     * Gets the width of the window in pixels.
+     */
+    @Expose
+    public static int getWidth() {
+        return paint().getWindow().getWidth();
+    }
+
+    /**
+     * Load an image file, like PNG, as a sprite.
+     *
+     * @param vpt File virtual path.
+     * @return The sprite, or {@code null} if an I/O error occurred.
+     */
+    @Expose
+    @Nullable
+    public static Sprite loadSprite(String vpt) {
+        try {
+            return paint().loadSprite(Finder.readFileBuffer(vpt));
+        } catch (IOException e) {
+            System.err.println("Could not read sprite " + vpt + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Add a callback to draw each frame.
+     */
+    @Expose
+    public static void onFrame(Value f) {
+        paint().onFrame(f::executeVoid);
+    }
+
+    /**
+     * Sets the blend mode of quads drawn from now on.
+     *
+     * @param mode {@code "alpha"} or {@code "add"}.
+     */
+    @Expose
+    public static void setBlend(String mode) {
+        paint().setBlend(switch (mode) {
+            case "alpha" -> Blend.ALPHA;
+            case "add" -> Blend.ADD;
+            default -> throw new IllegalArgumentException("unknown blend mode: " + mode);
+        });
+    }
+
+    /**
+     * Draw a sprite, multiplied with a color.
+     */
+    @Expose
+    public static void sprite(Sprite s, double x, double y, double w, double h, long rgba) {
+        paint().sprite(s, (float) x, (float) y, (float) w, (float) h, (int) rgba);
+    }
+}
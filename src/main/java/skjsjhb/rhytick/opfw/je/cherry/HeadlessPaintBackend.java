@@ -0,0 +1,99 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.lwjgl.system.MemoryUtil;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * {@link PaintBackend} of {@link HeadlessWindow}, which works like a driver without a GPU.
+ * <br/>
+ * Textures are kept in memory, and vertices of each draw are copied to a staging buffer as an upload would, but
+ * nothing is rasterized. This keeps the cost of the CPU side of a frame, for tests and benchmarks.
+ */
+public class HeadlessPaintBackend implements PaintBackend {
+    /**
+     * Textures, indexed by handle - 1.
+     */
+    protected final List<Texture> textures = new ArrayList<>();
+
+    protected boolean drawing;
+
+    protected long staging;
+
+    protected long stagingSize;
+
+    @Override
+    public void begin(int width, int height) {
+        drawing = true;
+    }
+
+    @Override
+    public void close() {
+        for (Texture t : textures) {
+            MemoryUtil.nmemFree(t.pixels);
+        }
+        textures.clear();
+        MemoryUtil.nmemFree(staging);
+        staging = MemoryUtil.NULL;
+        stagingSize = 0;
+    }
+
+    @Override
+    public int createTexture(int width, int height) {
+        textures.add(new Texture(MemoryUtil.nmemAllocChecked(4L * width * height), width, height));
+        return textures.size();
+    }
+
+    @Override
+    public void draw(int texture, Blend blend, long vertices, int quads) {
+        if (!drawing) {
+            throw new IllegalStateException("draw outside of a frame");
+        }
+        if (texture <= 0 || texture > textures.size()) {
+            throw new IllegalArgumentException("unknown texture " + texture);
+        }
+        long size = (long) quads * Paint.QUAD_SIZE;
+        if (size > stagingSize) {
+            stagingSize = Math.max(size, stagingSize * 2);
+            staging = MemoryUtil.nmemReallocChecked(staging, stagingSize);
+        }
+        MemoryUtil.memCopy(vertices, staging, size);
+    }
+
+    @Override
+    public void end() {
+        drawing = false;
+    }
+
+    /**
+     * Gets the address of the vertices of the last draw.
+     */
+    public long getStaging() {
+        return staging;
+    }
+
+    /**
+     * Read a pixel of a texture.
+     *
+     * @return Color as {@code 0xRRGGBBAA}.
+     */
+    public int getTexel(int texture, int x, int y) {
+        Texture t = textures.get(texture - 1);
+        return Integer.reverseBytes(MemoryUtil.memGetInt(t.pixels + 4L * ((long) y * t.width + x)));
+    }
+
+    @Override
+    public void updateTexture(int texture, int x, int y, int width, int height, long pixels) {
+        Texture t = textures.get(texture - 1);
+        if (x < 0 || y < 0 || x + width > t.width || y + height > t.height) {
+            throw new IllegalArgumentException("region out of texture bounds");
+        }
+        for (int r = 0; r < height; r++) {
+            MemoryUtil.memCopy(pixels + 4L * r * width, t.pixels + 4L * ((long) (y + r) * t.width + x), 4L * width);
+        }
+    }
+
+    protected record Texture(long pixels, int width, int height) {
+    }
+}
@@ -0,0 +1,138 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import org.lwjgl.system.MemoryUtil;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.timing.FramePacer;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Window without a display, which renders to RGBA framebuffers in memory.
+ * <br/>
+ * There are two framebuffers: drawing goes to the back buffer, and {@link #flush()} swaps it with the front buffer,
+ * like a double-buffered window does. No OpenGL context is created. The window asks to be closed after cfg
+ * {@code cherry.headless_max_frames} frames (0 for never), so a frame loop can run to the end by itself.
+ */
+public class HeadlessWindow implements Window {
+    /**
+     * Refresh rate emulated when vsync is enabled.
+     */
+    public static final int REFRESH_RATE = 60;
+
+    protected final int width, height;
+
+    protected final long maxFrames;
+
+    protected final FramePacer pacer = new FramePacer();
+
+    protected ByteBuffer back, front;
+
+    protected boolean closed;
+
+    protected long frames;
+
+    /**
+     * Construct a window with the size set in cfg.
+     */
+    public HeadlessWindow() {
+        this(Cfg.getInt("cherry.headless_width", 1280), Cfg.getInt("cherry.headless_height", 720));
+    }
+
+    /**
+     * Construct a window of a size.
+     */
+    public HeadlessWindow(int width, int height) {
+        if (width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("invalid framebuffer size " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+        maxFrames = Cfg.getInt("cherry.headless_max_frames", 0);
+        back = MemoryUtil.memCalloc(width * height * 4);
+        front = MemoryUtil.memCalloc(width * height * 4);
+        System.out.printf("Headless framebuffer: %dx%d\n", width, height);
+        setVsync(Cfg.getBoolean("cherry.vsync"));
+    }
+
+    @Override
+    public void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        MemoryUtil.memFree(back);
+        MemoryUtil.memFree(front);
+        back = front = null;
+    }
+
+    @Override
+    public PaintBackend createPaintBackend() {
+        return new HeadlessPaintBackend();
+    }
+
+    @Override
+    public void flush() {
+        if (closed) {
+            return;
+        }
+        ByteBuffer b = back;
+        back = front;
+        front = b;
+        frames++;
+    }
+
+    /**
+     * Gets the back buffer, which frames are drawn to.
+     * <br/>
+     * Pixels are RGBA with 8 bits per channel, from the top-left corner row by row. Contents are undefined after
+     * {@link #flush()}, as for a swap of a real window. The buffer is freed on {@link #close()}.
+     */
+    public ByteBuffer getBackBuffer() {
+        return back;
+    }
+
+    /**
+     * Gets the number of frames flushed.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Gets the front buffer, which holds the last flushed frame.
+     */
+    public ByteBuffer getFrontBuffer() {
+        return front;
+    }
+
+    @Override
+    public int getHeight() {
+        return height;
+    }
+
+    @Override
+    public FramePacer getPacer() {
+        return pacer;
+    }
+
+    @Override
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * @apiNote Vsync is emulated by pacing frames at {@value #REFRESH_RATE} FPS. Otherwise, frames are limited by cfg
+     * {@code cherry.fps_max}.
+     */
+    @Override
+    public void setVsync(boolean e) {
+        setFPSLimit(e ? REFRESH_RATE : Cfg.getInt("cherry.fps_max", 330));
+    }
+
+    @Override
+    public boolean shouldClose() {
+        return closed || (maxFrames > 0 && frames >= maxFrames);
+    }
+}
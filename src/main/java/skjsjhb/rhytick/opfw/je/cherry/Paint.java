@@ -1,5 +1,345 @@
 package skjsjhb.rhytick.opfw.je.cherry;
 
+import org.lwjgl.stb.STBImage;
+import org.lwjgl.system.MemoryStack;
+import org.lwjgl.system.MemoryUtil;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Sprite and quad batcher of Cherry.
+ * <br/>
+ * Quads drawn in a frame are written to an off-heap vertex buffer of their material, which is an atlas texture with
+ * a {@link Blend} mode. At {@link #end()}, each material is submitted to the {@link PaintBackend} in a single draw
+ * call, in the order the materials are first used in the frame. Quads of the same material keep their order, so
+ * overlapping sprites should share an atlas and a blend mode to be layered properly.
+ * <br/>
+ * Solid quads sample a white pixel of the first atlas page, so they batch with sprites of that page.
+ * <br/>
+ * A paint is used on the thread of its window.
+ */
 public class Paint {
+    /**
+     * Size of a vertex in bytes: position ({@code float x, y}), texture coordinate ({@code float u, v}) and color
+     * (RGBA, one byte each).
+     */
+    public static final int VERTEX_SIZE = 20;
+
+    /**
+     * Size of a quad in bytes.
+     */
+    public static final int QUAD_SIZE = 4 * VERTEX_SIZE;
+
+    private static final int INITIAL_QUADS = 256;
+
+    @Nullable
+    private static volatile Paint active;
+
+    protected final Atlas atlas;
+
+    protected final PaintBackend backend;
+
+    /**
+     * Batches of all materials used so far.
+     */
+    protected final List<Batch> batches = new ArrayList<>();
+
+    /**
+     * Batches with quads in the current frame, in the order of first use.
+     */
+    protected final List<Batch> frameBatches = new ArrayList<>();
+
+    protected final List<Runnable> frameListeners = new ArrayList<>();
+
+    protected final Window window;
+
+    protected final Sprite white;
+
+    protected Blend blend = Blend.ALPHA;
+
+    protected boolean drawing;
+
+    protected int drawCalls;
+
+    @Nullable
+    protected Batch last;
+
+    protected int quads;
+
+    /**
+     * Construct a paint on a window, which becomes the {@linkplain #getActive() active} one.
+     */
+    public Paint(Window w) {
+        window = w;
+        backend = w.createPaintBackend();
+        atlas = new Atlas(backend, Cfg.getInt("cherry.atlas_size", 2048));
+        try (MemoryStack st = MemoryStack.stackPush()) {
+            white = atlas.add(1, 1, MemoryUtil.memAddress(st.ints(-1)));
+        }
+        active = this;
+    }
+
+    /**
+     * Gets the paint created last and not closed yet, which is used by {@link GuestPaint}.
+     */
+    @Nullable
+    public static Paint getActive() {
+        return active;
+    }
+
+    /**
+     * Add a sprite to the atlas.
+     *
+     * @param pixels RGBA pixels, row by row without padding. Must be direct.
+     */
+    public Sprite addSprite(int width, int height, ByteBuffer pixels) {
+        if (pixels.remaining() < 4L * width * height) {
+            throw new IllegalArgumentException("not enough pixels for " + width + "x" + height);
+        }
+        return atlas.add(width, height, MemoryUtil.memAddress(pixels));
+    }
+
+    /**
+     * Internal method for getting the batch of a material.
+     */
+    protected Batch batchOf(int texture) {
+        Batch b = last;
+        if (b != null && b.texture == texture && b.blend == blend) {
+            return b;
+        }
+        b = null;
+        for (Batch e : batches) {
+            if (e.texture == texture && e.blend == blend) {
+                b = e;
+                break;
+            }
+        }
+        if (b == null) {
+            b = new Batch(texture, blend);
+            batches.add(b);
+        }
+        if (b.quads == 0) {
+            frameBatches.add(b);
+        }
+        last = b;
+        return b;
+    }
+
+    /**
+     * Begin a frame.
+     */
+    public void begin() {
+        if (drawing) {
+            throw new IllegalStateException("frame already begun");
+        }
+        drawing = true;
+        backend.begin(window.getWidth(), window.getHeight());
+    }
+
+    /**
+     * Free the batches and the backend.
+     */
+    public void close() {
+        for (Batch b : batches) {
+            MemoryUtil.nmemFree(b.address);
+        }
+        batches.clear();
+        frameBatches.clear();
+        last = null;
+        backend.close();
+        if (active == this) {
+            active = null;
+        }
+    }
+
+    /**
+     * Submit the quads of the frame, one draw call for each material, and end it.
+     */
+    public void end() {
+        if (!drawing) {
+            throw new IllegalStateException("no frame in progress");
+        }
+        drawing = false;
+        int n = 0;
+        int draws = 0;
+        for (Batch b : frameBatches) {
+            backend.draw(b.texture, b.blend, b.address, b.quads);
+            n += b.quads;
+            draws++;
+            b.quads = 0;
+        }
+        frameBatches.clear();
+        last = null;
+        backend.end();
+        quads = n;
+        drawCalls = draws;
+    }
+
+    /**
+     * Fill a rectangle with a color.
+     *
+     * @param rgba Color as {@code 0xRRGGBBAA}.
+     */
+    public void fill(float x, float y, float w, float h, int rgba) {
+        Sprite s = white;
+        float u = (s.u0() + s.u1()) / 2;
+        float v = (s.v0() + s.v1()) / 2;
+        put(s.texture(), x, y, x + w, y + h, u, v, u, v, rgba);
+    }
+
+    /**
+     * Draw a frame: {@link #begin()}, call the frame listeners, and {@link #end()}.
+     */
+    public void frame() {
+        begin();
+        try {
+            for (Runnable r : frameListeners) {
+                r.run();
+            }
+        } finally {
+            end();
+        }
+    }
+
+    /**
+     * Gets the atlas of sprites.
+     */
+    public Atlas getAtlas() {
+        return atlas;
+    }
+
+    /**
+     * Gets the backend of the window.
+     */
+    public PaintBackend getBackend() {
+        return backend;
+    }
+
+    /**
+     * Gets the number of draw calls of the last frame.
+     */
+    public int getDrawCalls() {
+        return drawCalls;
+    }
+
+    /**
+     * Gets the number of quads of the last frame.
+     */
+    public int getQuads() {
+        return quads;
+    }
+
+    /**
+     * Gets the window to paint on.
+     */
+    public Window getWindow() {
+        return window;
+    }
+
+    /**
+     * Decode an image file, like PNG, and add it to the atlas.
+     *
+     * @param encoded Content of the file. Must be direct.
+     * @throws IllegalArgumentException If the image cannot be decoded.
+     */
+    public Sprite loadSprite(ByteBuffer encoded) {
+        try (MemoryStack st = MemoryStack.stackPush()) {
+            IntBuffer w = st.mallocInt(1), h = st.mallocInt(1), c = st.mallocInt(1);
+            ByteBuffer pixels = STBImage.stbi_load_from_memory(encoded, w, h, c, 4);
+            if (pixels == null) {
+                throw new IllegalArgumentException("could not decode image: " + STBImage.stbi_failure_reason());
+            }
+            try {
+                return addSprite(w.get(0), h.get(0), pixels);
+            } finally {
+                STBImage.stbi_image_free(pixels);
+            }
+        }
+    }
+
+    /**
+     * Add a listener to be called in each {@link #frame()}, to draw the content.
+     */
+    public void onFrame(Runnable r) {
+        frameListeners.add(r);
+    }
+
+    /**
+     * Internal method for writing a quad.
+     */
+    protected void put(int texture, float x0, float y0, float x1, float y1, float u0, float v0, float u1, float v1,
+                       int rgba) {
+        if (!drawing) {
+            throw new IllegalStateException("no frame in progress");
+        }
+        Batch b = batchOf(texture);
+        if (b.quads == b.capacity) {
+            b.grow();
+        }
+        long p = b.address + (long) b.quads++ * QUAD_SIZE;
+        int c = Integer.reverseBytes(rgba); // Bytes in memory are R, G, B, A
+        vertex(p, x0, y0, u0, v0, c);
+        vertex(p + VERTEX_SIZE, x1, y0, u1, v0, c);
+        vertex(p + 2 * VERTEX_SIZE, x1, y1, u1, v1, c);
+        vertex(p + 3 * VERTEX_SIZE, x0, y1, u0, v1, c);
+    }
+
+    /**
+     * Sets the blend mode of quads drawn from now on.
+     */
+    public void setBlend(Blend b) {
+        blend = b;
+    }
+
+    /**
+     * Draw a sprite.
+     *
+     * @param rgba Color multiplied with the sprite, as {@code 0xRRGGBBAA}.
+     */
+    public void sprite(Sprite s, float x, float y, float w, float h, int rgba) {
+        put(s.texture(), x, y, x + w, y + h, s.u0(), s.v0(), s.u1(), s.v1(), rgba);
+    }
+
+    /**
+     * Internal method for writing a vertex.
+     */
+    private static void vertex(long p, float x, float y, float u, float v, int c) {
+        MemoryUtil.memPutFloat(p, x);
+        MemoryUtil.memPutFloat(p + 4, y);
+        MemoryUtil.memPutFloat(p + 8, u);
+        MemoryUtil.memPutFloat(p + 12, v);
+        MemoryUtil.memPutInt(p + 16, c);
+    }
+
+    /**
+     * Vertices of a material.
+     */
+    protected static final class Batch {
+        final Blend blend;
+
+        final int texture;
+
+        long address;
+
+        int capacity;
+
+        int quads;
+
+        Batch(int texture, Blend blend) {
+            this.texture = texture;
+            this.blend = blend;
+            capacity = INITIAL_QUADS;
+            address = MemoryUtil.nmemAllocChecked((long) capacity * QUAD_SIZE);
+        }
 
-}
\ No newline at end of file
+        void grow() {
+            capacity *= 2;
+            address = MemoryUtil.nmemReallocChecked(address, (long) capacity * QUAD_SIZE);
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+/**
+ * Draws the batches of {@link Paint} on a {@link Window}.
+ * <br/>
+ * Vertices are passed as addresses of off-heap memory, in the layout described by {@link Paint#VERTEX_SIZE}, four for
+ * each quad. Backends are created by {@link Window#createPaintBackend()} and used on the thread of the window.
+ */
+public interface PaintBackend {
+    /**
+     * Begin a frame.
+     *
+     * @param width  Width of the framebuffer in pixels.
+     * @param height Height of the framebuffer in pixels.
+     */
+    void begin(int width, int height);
+
+    /**
+     * Free all textures and buffers.
+     */
+    void close();
+
+    /**
+     * Create an RGBA texture with undefined content.
+     *
+     * @return Handle of the texture, which is never 0.
+     */
+    int createTexture(int width, int height);
+
+    /**
+     * Draw quads of one material in a single draw call.
+     *
+     * @param texture  Texture to sample.
+     * @param blend    Blend mode.
+     * @param vertices Address of the vertices.
+     * @param quads    Number of quads.
+     */
+    void draw(int texture, Blend blend, long vertices, int quads);
+
+    /**
+     * End a frame, before the window is flushed.
+     */
+    void end();
+
+    /**
+     * Replace a region of a texture.
+     *
+     * @param pixels Address of RGBA pixels, row by row without padding.
+     */
+    void updateTexture(int texture, int x, int y, int width, int height, long pixels);
+}
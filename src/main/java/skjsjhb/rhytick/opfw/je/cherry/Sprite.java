@@ -0,0 +1,36 @@
+package skjsjhb.rhytick.opfw.je.cherry;
+
+import skjsjhb.rhytick.opfw.je.dce.Expose;
+
+/**
+ * A region of an atlas texture, created by {@link Paint#addSprite(int, int, java.nio.ByteBuffer)}.
+ * <br/>
+ * Guest script can read the size of a sprite with {@code width()} and {@code height()}.
+ *
+ * @param texture Atlas texture of the {@link PaintBackend}.
+ * @param u0      Left texture coordinate.
+ * @param v0      Top texture coordinate.
+ * @param u1      Right texture coordinate.
+ * @param v1      Bottom texture coordinate.
+ * @param width   Width in pixels.
+ * @param height  Height in pixels.
+ */
+public record Sprite(int texture, float u0, float v0, float u1, float v1, int width, int height) {
+    /**
+     * Gets the height in pixels.
+     */
+    @Expose
+    @Override
+    public int height() {
+        return height;
+    }
+
+    /**
+     * Gets the width in pixels.
+     */
+    @Expose
+    @Override
+    public int width() {
+        return width;
+    }
+}
@@ -0,0 +1,142 @@
+package skjsjhb.rhytick.opfw.je.dce;
+
+import org.graalvm.polyglot.Value;
+
+import skjsjhb.rhytick.opfw.je.finder.MappedFiles;
+
+import javax.annotation.Nullable;
+import java.nio.ByteBuffer;
+
+/**
+ * Message channels between envs.
+ * <br/>
+ * Each env owns a {@link Mailbox}, and messages posted to an env ID are delivered on the loop of that env. Strings,
+ * numbers and booleans are passed as is, structured values as JSON. Byte buffers allocated by {@link #allocate(int)}
+ * are handed over by reference and never copied, while buffers owned by the guest are copied once, in bulk.
+ * <br/>
+ * The sender loses nothing but its own reference when a buffer is transferred. Both sides must not use the same
+ * buffer concurrently, or the behavior is undefined.
+ */
+@GuestModule(value = "channels", statik = true)
+public final class Channels {
+    /**
+     * Allocate a buffer which can be transferred without copying.
+     * <br/>
+     * The guest can view the buffer with {@code new Uint8Array(new ArrayBuffer(buf))}.
+     *
+     * @param size Size in bytes.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size);
+    }
+
+    /**
+     * Set the message handler of the calling env.
+     *
+     * @param f Function receiving {@code (payload, from, kind)}, where {@code kind} is the ordinal of
+     *          {@link Mailbox.Kind}. Passing a non-executable value removes the handler.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void onMessage(Value f) {
+        ScriptEnv.requireCurrent().getMailbox().setHandler(f.canExecute() ? f : null);
+    }
+
+    /**
+     * Gets the ID of the env which created the calling env as a worker.
+     *
+     * @return Parent env ID, or -1 if not a worker.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static int parent() {
+        return ScriptEnv.requireCurrent().getParentID();
+    }
+
+    /**
+     * Post a message to the specified env.
+     * <br/>
+     * Host {@link ByteBuffer} and {@code byte[]} are transferred by reference. Guest {@code ArrayBuffer} and mapped
+     * files are copied, since the latter are released with the env which mapped them.
+     *
+     * @param target Target env ID.
+     * @param v      Message content.
+     * @return {@code false} if the target does not exist or its inbox is full.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static boolean post(int target, Value v) {
+        Mailbox.Message m;
+        int from = ScriptEnv.requireCurrent().getID();
+        if (v.isNull()) {
+            m = new Mailbox.Message(from, null, Mailbox.Kind.VALUE);
+        } else if (v.isString()) {
+            m = new Mailbox.Message(from, v.asString(), Mailbox.Kind.VALUE);
+        } else if (v.isBoolean()) {
+            m = new Mailbox.Message(from, v.asBoolean(), Mailbox.Kind.VALUE);
+        } else if (v.isNumber()) {
+            m = new Mailbox.Message(from, v.fitsInInt() ? (Object) v.asInt() : v.asDouble(), Mailbox.Kind.VALUE);
+        } else if (v.isHostObject() && v.asHostObject() instanceof ByteBuffer bb) {
+            // Mappings are owned by the env
+            m = new Mailbox.Message(from, MappedFiles.isMapped(bb) ? Util.copyBuffer(bb.duplicate().clear()) : bb,
+                    Mailbox.Kind.BYTES);
+        } else if (v.isHostObject() && v.asHostObject() instanceof byte[] ba) {
+            m = new Mailbox.Message(from, ByteBuffer.wrap(ba), Mailbox.Kind.BYTES);
+        } else if (v.hasBufferElements()) {
+            m = new Mailbox.Message(from, Util.copyBuffer(v, 0, v.getBufferSize()), Mailbox.Kind.BYTES);
+        } else {
+            throw new IllegalArgumentException("unsupported message type, use postJSON for structured values");
+        }
+        return send(target, m);
+    }
+
+    /**
+     * Post a part of a guest buffer to the specified env. The range is copied once.
+     *
+     * @param target Target env ID.
+     * @param buf    Guest {@code ArrayBuffer}.
+     * @param offset Offset in bytes.
+     * @param length Length in bytes.
+     * @return {@code false} if the target does not exist or its inbox is full.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static boolean postBuffer(int target, Value buf, long offset, long length) {
+        int from = ScriptEnv.requireCurrent().getID();
+        return send(target, new Mailbox.Message(from, Util.copyBuffer(buf, offset, length), Mailbox.Kind.BYTES));
+    }
+
+    /**
+     * Post a structured value encoded as JSON to the specified env.
+     *
+     * @return {@code false} if the target does not exist or its inbox is full.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static boolean postJSON(int target, String json) {
+        return send(target, new Mailbox.Message(ScriptEnv.requireCurrent().getID(), json, Mailbox.Kind.JSON));
+    }
+
+    /**
+     * Gets the ID of the calling env.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static int self() {
+        return ScriptEnv.requireCurrent().getID();
+    }
+
+    /**
+     * Deliver a message to the specified env.
+     * <br/>
+     * This method can be called from any thread, including host code.
+     *
+     * @return {@code false} if the target does not exist or its inbox is full.
+     */
+    public static boolean send(int target, Mailbox.Message m) {
+        @Nullable ScriptEnv e = ScriptEnv.get(target);
+        return e != null && e.getMailbox().offer(m);
+    }
+}
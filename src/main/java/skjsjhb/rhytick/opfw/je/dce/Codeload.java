@@ -1,14 +1,33 @@
 package skjsjhb.rhytick.opfw.je.dce;
 
+import org.graalvm.polyglot.Source;
 import skjsjhb.rhytick.opfw.je.finder.Finder;
 import skjsjhb.rhytick.opfw.je.launcher.Cfg;
 
 import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.Map;
 
 /**
  * Util class for script code loading.
  */
 public final class Codeload {
+    /**
+     * Reads a script and gets its {@link Source}.
+     * <br/>
+     * The file is read and verified as {@link #readScriptSource(String)} does. If the content is unchanged, the
+     * cached {@link Source} is returned, so the script is not parsed again by envs sharing the engine.
+     *
+     * @param name Script virtual path.
+     * @return The source of the script.
+     * @throws IOException If I/O errors occurred.
+     */
+    public static Source loadScript(String name) throws IOException {
+        return SourceCache.get(name, readScriptSource(name));
+    }
+
     /**
      * Reads a script source from file.
      * <br/>
@@ -32,4 +51,40 @@ public final class Codeload {
         }
         return new String(buf);
     }
+
+    /**
+     * Verifies all scripts listed in a manifest in parallel, so they load without hashing later.
+     * <br/>
+     * The manifest lists one script path per line. Blank lines and lines starting with {@code #} are ignored.
+     * A missing manifest is not an error. Scripts failing the verification are reported, and will fail again
+     * when loaded.
+     *
+     * @param manifest Manifest virtual path.
+     * @return The number of scripts verified.
+     */
+    public static int verifyManifest(String manifest) {
+        if (Cfg.getBoolean("emulation.no_script_verify", false)) {
+            return 0;
+        }
+        List<String> names;
+        try {
+            Finder.checkPathBounds(manifest);
+            if (!Files.isRegularFile(Paths.get(Finder.resolve(manifest)))) {
+                return 0;
+            }
+            names = Files.readAllLines(Paths.get(Finder.resolve(manifest))).stream()
+                    .map(String::trim)
+                    .filter(l -> !l.isEmpty() && !l.startsWith("#"))
+                    .toList();
+        } catch (IOException | IllegalArgumentException e) {
+            System.err.println("Could not read script manifest: " + e);
+            return 0;
+        }
+        long start = System.nanoTime();
+        Map<String, IOException> failed = Finder.verifyAll(names);
+        failed.forEach((name, e) -> System.err.printf("Script '%s' failed verification: %s\n", name, e));
+        int verified = names.size() - failed.size();
+        System.out.printf("Verified %d scripts in manifest. (%.1f ms)\n", verified, (System.nanoTime() - start) / 1e6);
+        return verified;
+    }
 }
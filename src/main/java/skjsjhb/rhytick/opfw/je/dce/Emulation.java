@@ -1,7 +1,12 @@
 package skjsjhb.rhytick.opfw.je.dce;
 
+import org.graalvm.polyglot.Source;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
+
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.util.Arrays;
 
 /**
  * Refers to the Opticia main script.
@@ -9,7 +14,7 @@ import java.io.IOException;
  * The Emulation contains information for monitoring a running script env and syncing states.
  */
 public class Emulation {
-    protected Thread hostThread;
+    protected volatile Thread hostThread;
 
     protected ScriptEnv jsEnv;
 
@@ -33,11 +38,27 @@ public class Emulation {
         return hostThread;
     }
 
+    /**
+     * Internal method for naming the thread of async emulations.
+     */
+    protected String getThreadName() {
+        return "ScriptEnv-#" + jsEnv.getID();
+    }
+
     /**
      * Prepare for the run of the code.
+     * <br/>
+     * Modules listed in cfg {@code emulation.eager_modules} (comma separated, or {@code *} for all) are bound here,
+     * instead of on their first {@code VM.require}.
      */
     public void prepareRun() {
         jsEnv.initVMAPI();
+        String eager = Cfg.getValue("emulation.eager_modules").trim();
+        if (eager.equals("*")) {
+            jsEnv.bindModules(Modular.getModules().keySet());
+        } else if (!eager.isEmpty()) {
+            jsEnv.bindModules(Arrays.stream(eager.split(",")).map(String::trim).filter(n -> !n.isEmpty()).toList());
+        }
         try {
             jsEnv.loadBundledScript();
         } catch (IOException e) {
@@ -52,20 +73,43 @@ public class Emulation {
      * This method blocks and return when requested or the VM stops.
      */
     public void start(String src) {
-        hostThread = Thread.currentThread();
+        start(SourceCache.get(ScriptEnv.PUSHED_SCRIPT_NAME, src));
+    }
+
+    /**
+     * {@link Source} overload of {@link #start(String)}.
+     */
+    public void start(Source src) {
         jsEnv.pushScript(src);
+        start();
+    }
+
+    /**
+     * Start the emulation process on this thread without any script.
+     * <br/>
+     * Scripts pushed to the env later are evaluated on this thread. This method blocks and return when requested
+     * or the VM stops.
+     */
+    public void start() {
+        hostThread = Thread.currentThread();
         jsEnv.start();
     }
 
     /**
      * Start the emulation process on a new thread with specified source.
      * <br/>
-     * This method returns immediately.
+     * The thread is a dedicated platform thread, as the context stays bound to it. This method returns immediately.
      */
     public void startAsync(String src) {
-        Thread t = new Thread(() -> {
-            start(src);
-        });
-        t.start();
+        hostThread = Scheduler.startPinned(getThreadName(), () -> start(src));
+    }
+
+    /**
+     * Start the emulation process on a new thread without any script.
+     * <br/>
+     * The thread is a dedicated platform thread, as the context stays bound to it. This method returns immediately.
+     */
+    public void startAsync() {
+        hostThread = Scheduler.startPinned(getThreadName(), this::start);
     }
 }
@@ -6,8 +6,8 @@ import java.lang.annotation.RetentionPolicy;
 import java.lang.annotation.Target;
 
 /**
- * {@link Modular#autoRegister()} will scan all classes annotated with this symbol and register them automatically
- * for the intepreter.
+ * {@link Modular#autoRegister()} will register all classes annotated with this symbol automatically for the
+ * intepreter. The annotated classes are indexed at compile time.
  * <br/>
  * The class annotated must be public and contains at least one public constructor without any parameters. Otherwise
  * the registration will fail.
@@ -0,0 +1,181 @@
+package skjsjhb.rhytick.opfw.je.dce;
+
+import org.graalvm.polyglot.Value;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Task;
+
+import javax.annotation.Nullable;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded multi-producer, single-consumer inbox of a {@link ScriptEnv}.
+ * <br/>
+ * Messages can be offered from any thread and are delivered to the handler on the loop of the owning env.
+ * Delivery happens in batches: a single drain task is scheduled when the inbox becomes non-empty, and each
+ * turn of it delivers at most {@code channels.batch} messages before yielding to other tasks.
+ * <br/>
+ * The inbox holds at most {@code channels.capacity} messages. Offering to a full inbox fails, so the sender
+ * can back off rather than growing the queue without limit.
+ */
+public class Mailbox {
+    /**
+     * Maximum number of queued messages.
+     */
+    protected final int capacity = Math.max(1, Cfg.getInt("channels.capacity", 4096));
+
+    /**
+     * Maximum number of messages delivered per loop turn.
+     */
+    protected final int batch = Math.max(1, Cfg.getInt("channels.batch", 256));
+
+    /**
+     * The owning env.
+     */
+    protected final ScriptEnv env;
+
+    /**
+     * Pending messages.
+     */
+    protected final Queue<Message> queue = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Whether a drain task is queued in the loop.
+     */
+    protected final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+    /**
+     * Number of pending messages.
+     */
+    protected final AtomicInteger size = new AtomicInteger(0);
+
+    /**
+     * Task delivering a batch of messages.
+     */
+    protected final Task drainTask = new Task() {
+        @Override
+        public void execute() {
+            drain();
+        }
+    };
+
+    /**
+     * Guest message handler. Only accessed on the home thread of the loop.
+     */
+    @Nullable
+    protected Value handler;
+
+    public Mailbox(ScriptEnv e) {
+        env = e;
+    }
+
+    /**
+     * Deliver pending messages to the handler, no more than one batch.
+     * <br/>
+     * An error thrown by the handler is reported and only drops the message being handled, so the inbox keeps
+     * delivering.
+     */
+    protected void drain() {
+        Value h = handler;
+        if (h == null) {
+            scheduled.set(false); // Keep the messages until a handler is set
+            return;
+        }
+        int n = 0;
+        Message m;
+        while (n < batch && (m = queue.poll()) != null) {
+            size.decrementAndGet();
+            n++;
+            try {
+                env.call(h, m.payload(), m.from(), m.kind().ordinal());
+            } catch (RuntimeException e) {
+                System.err.println("Message handler failed: " + e);
+            }
+        }
+        if (!queue.isEmpty()) {
+            env.getLoop().push(drainTask); // More to go in the next turn
+            return;
+        }
+        scheduled.set(false);
+        if (!queue.isEmpty()) {
+            schedule(); // Raced with a sender
+        }
+    }
+
+    /**
+     * Gets the number of pending messages.
+     */
+    public int getSize() {
+        return size.get();
+    }
+
+    /**
+     * Offer a message to the inbox.
+     * <br/>
+     * This method can be called from any thread.
+     *
+     * @return {@code false} if the inbox is full.
+     */
+    public boolean offer(Message m) {
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            return false;
+        }
+        queue.add(m);
+        schedule();
+        return true;
+    }
+
+    /**
+     * Schedule a drain task, unless one is already queued.
+     */
+    protected void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            env.getLoop().push(drainTask);
+        }
+    }
+
+    /**
+     * Sets the handler receiving {@code (payload, from, kind)} for each message.
+     * <br/>
+     * This method must be called on the home thread of the loop.
+     */
+    public void setHandler(@Nullable Value h) {
+        handler = h;
+        if (h != null && !queue.isEmpty()) {
+            schedule();
+        }
+    }
+
+    /**
+     * Kinds of message payload.
+     */
+    public enum Kind {
+        /**
+         * A string, number, boolean or {@code null}.
+         */
+        VALUE,
+
+        /**
+         * A structured value encoded as JSON.
+         */
+        JSON,
+
+        /**
+         * A {@link java.nio.ByteBuffer}, handed over without copying.
+         */
+        BYTES,
+    }
+
+    /**
+     * A message in transit. The payload must not be bound to any context.
+     *
+     * @param from    ID of the sender env, or -1 if sent by the host.
+     * @param payload Message content.
+     * @param kind    Content kind.
+     */
+    public record Message(int from, @Nullable Object payload, Kind kind) {
+    }
+}
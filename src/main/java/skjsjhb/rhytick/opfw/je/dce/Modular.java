@@ -1,22 +1,35 @@
 package skjsjhb.rhytick.opfw.je.dce;
 
 import com.google.common.reflect.ClassPath;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
 
 import javax.annotation.Nullable;
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.lang.reflect.InvocationTargetException;
-import java.util.Hashtable;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Map;
 
 /**
  * Module manager for guest scripts.
+ * <br/>
+ * The registry is an immutable map, replaced as a whole on registration. Lookups never lock, and each
+ * {@link ScriptEnv} can tell whether its bound modules are still current by comparing the snapshot.
  */
 public final class Modular {
+    /**
+     * Location of the module index generated at compile time.
+     */
+    private static final String INDEX_LOCATION = "META-INF/opkje/modules";
 
     /**
-     * Internal field to cache all registered modules.
+     * Current snapshot of all registered modules.
      */
-    private static final Map<String, ModuleEntry> MODULE_MAP = new Hashtable<>();
+    private static volatile Map<String, ModuleEntry> modules = Map.of();
 
     /**
      * Registers a module with indexed key.
@@ -31,44 +44,102 @@ public final class Modular {
      * @param ctx  Module implementation object.
      */
     public static void addModule(String name, Object ctx, boolean statik) {
-        MODULE_MAP.put(name, new ModuleEntry(ctx, statik));
+        publish(Map.of(name, new ModuleEntry(ctx, statik)));
     }
 
     /**
-     * Register native interfaces using reflection.
+     * Register native interfaces.
      * <br/>
      * All public classes annotated with {@link GuestModule} will be registered as a module / global in this emulation
-     * session.
+     * session. The classes are listed in an index generated at compile time (see the {@code processor} project), so
+     * no other class is loaded. If the index is missing, or disabled by cfg {@code emulation.module_index}, the class
+     * path is scanned instead.
      * <br/>
      * Corresponding type definitions are in {@code src/main/types/OPKJE.d.ts}.
      */
     public static void autoRegister() {
         System.out.println("Enabling native bindings.");
+        long start = System.nanoTime();
+        ClassLoader cl = Thread.currentThread().getContextClassLoader();
+        Map<String, ModuleEntry> found = new HashMap<>();
+        boolean indexed = Cfg.getBoolean("emulation.module_index", true) && readIndex(cl, found);
+        if (!indexed) {
+            scanClassPath(cl, found);
+        }
+        publish(found);
+        System.out.printf("Registered %d modules from %s. (%.1f ms)\n", found.size(),
+                indexed ? "index" : "class path", (System.nanoTime() - start) / 1e6);
+    }
+
+    /**
+     * Internal method for registering a module class, as {@link GuestModule} describes.
+     */
+    private static void bind(Class<?> clazz, Map<String, ModuleEntry> found) {
+        GuestModule m = clazz.getAnnotation(GuestModule.class);
+        if (m == null) {
+            System.err.println("Indexed class is not a guest module: " + clazz.getName());
+            return;
+        }
+        try {
+            var cons = clazz.getConstructor();
+            Object inst;
+            if (m.statik()) {
+                inst = clazz; // Register a static one
+            } else {
+                inst = cons.newInstance();
+            }
+            found.put(m.value(), new ModuleEntry(inst, m.statik()));
+            System.out.println("Binding: " + clazz.getName() + (m.statik() ? " [STATIC]" : " [INSTANCE]"));
+        } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
+                 InvocationTargetException e) {
+            System.err.println("Could not instantiate " + clazz.getName() + ": " + e);
+        }
+    }
+
+    /**
+     * Internal method for registering modules listed in the generated index.
+     *
+     * @return {@code true} if any index is found.
+     */
+    private static boolean readIndex(ClassLoader cl, Map<String, ModuleEntry> found) {
+        boolean any = false;
         try {
-            var classInfos = ClassPath
-                    .from(Thread.currentThread().getContextClassLoader())
-                    .getTopLevelClassesRecursive("skjsjhb.rhytick.opfw.je");
+            Enumeration<URL> indexes = cl.getResources(INDEX_LOCATION);
+            while (indexes.hasMoreElements()) {
+                any = true;
+                try (BufferedReader r = new BufferedReader(
+                        new InputStreamReader(indexes.nextElement().openStream(), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = r.readLine()) != null) {
+                        String[] cols = line.split("\t");
+                        if (cols.length < 2) {
+                            continue; // Invalid line
+                        }
+                        try {
+                            bind(Class.forName(cols[1], false, cl), found);
+                        } catch (ClassNotFoundException e) {
+                            System.err.println("Could not load indexed module " + cols[1] + ": " + e);
+                        }
+                    }
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read module index: " + e);
+            return false;
+        }
+        return any;
+    }
 
+    /**
+     * Internal method for registering modules found by loading all classes in the class path.
+     */
+    private static void scanClassPath(ClassLoader cl, Map<String, ModuleEntry> found) {
+        try {
+            var classInfos = ClassPath.from(cl).getTopLevelClassesRecursive("skjsjhb.rhytick.opfw.je");
             for (var cls : classInfos) {
                 var clazz = cls.load();
-                if (!clazz.isAnnotationPresent(GuestModule.class)) {
-                    continue; // Not the desired class
-                }
-                try {
-                    var cons = clazz.getConstructor();
-                    GuestModule m = clazz.getAnnotation(GuestModule.class);
-                    String name = m.value();
-                    Object inst;
-                    if (m.statik()) {
-                        inst = clazz; // Register a static one
-                    } else {
-                        inst = cons.newInstance();
-                    }
-                    addModule(name, inst, m.statik());
-                    System.out.println("Binding: " + cls.getName() + (m.statik() ? " [STATIC]" : " [INSTANCE]"));
-                } catch (NoSuchMethodException | InstantiationException | IllegalAccessException |
-                         InvocationTargetException e) {
-                    System.err.println("Could not instantiate " + cls.getName() + ": " + e);
+                if (clazz.isAnnotationPresent(GuestModule.class)) {
+                    bind(clazz, found);
                 }
             }
         } catch (IOException e) {
@@ -84,13 +155,31 @@ public final class Modular {
      */
     @Nullable
     public static ModuleEntry getModule(String name) {
-        return MODULE_MAP.get(name);
+        return modules.get(name);
+    }
+
+    /**
+     * Gets the current snapshot of registered modules.
+     * <br/>
+     * The snapshot never changes. A new one is published when modules are registered.
+     */
+    public static Map<String, ModuleEntry> getModules() {
+        return modules;
+    }
+
+    /**
+     * Internal method for publishing a new snapshot with added modules.
+     */
+    private static synchronized void publish(Map<String, ModuleEntry> added) {
+        Map<String, ModuleEntry> m = new HashMap<>(modules);
+        m.putAll(added);
+        modules = Map.copyOf(m);
     }
 
     public static class ModuleEntry {
-        Object instance; // Module unique instance
+        final Object instance; // Module unique instance
 
-        boolean isStatic;
+        final boolean isStatic;
 
         ModuleEntry(Object aInst, boolean aStatic) {
             instance = aInst;
@@ -1,14 +1,26 @@
 package skjsjhb.rhytick.opfw.je.dce;
 
 import org.graalvm.polyglot.Context;
+import org.graalvm.polyglot.Engine;
 import org.graalvm.polyglot.HostAccess;
 import org.graalvm.polyglot.Source;
+import org.graalvm.polyglot.SourceSection;
 import org.graalvm.polyglot.Value;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
 import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.Task;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
 
 /**
  * JavaScript environment with optionally OPFW bindings based on GraalVM.
@@ -23,15 +35,36 @@ public class ScriptEnv {
      */
     protected static final String BUNDLED_SCRIPT_NAME = "preload.js";
 
+    /**
+     * Name of sources pushed as plain strings.
+     */
+    protected static final String PUSHED_SCRIPT_NAME = "script.js";
+
     /**
      * Static field identifier.
      */
     protected static final String STATIC_FIELD_ID = "static";
 
+    /**
+     * The env whose context is entered on the current thread.
+     */
+    protected static final ThreadLocal<ScriptEnv> CURRENT = new ThreadLocal<>();
+
+    /**
+     * Envs which have been created and not yet stopped or closed, by ID.
+     */
+    protected static final Map<Integer, ScriptEnv> LIVE_ENVS = new ConcurrentHashMap<>();
+
     /**
      * Internal method for naming different envs.
      */
-    protected static int pid = 0;
+    protected static final AtomicInteger pid = new AtomicInteger(0);
+
+    /**
+     * Engine shared by all contexts, if enabled.
+     */
+    @Nullable
+    protected static Engine sharedEngine;
 
 
     /**
@@ -46,6 +79,36 @@ public class ScriptEnv {
 
     protected Loop vmLoop = new Loop();
 
+    /**
+     * Inbox of messages posted to this env.
+     */
+    protected final Mailbox mailbox = new Mailbox(this);
+
+    /**
+     * The ID of the env which created this env as a worker, or -1.
+     */
+    protected volatile int parentID = -1;
+
+    /**
+     * Per-env state of host modules, by type. Closed after the context is closed.
+     */
+    protected final Map<Class<?>, AutoCloseable> attachments = new ConcurrentHashMap<>();
+
+    /**
+     * Guest values of modules required in this env, by name. Only accessed on the thread owning the context.
+     */
+    protected final Map<String, Object> boundModules = new HashMap<>();
+
+    /**
+     * The {@link Modular} snapshot {@link #boundModules} is built from.
+     */
+    protected Map<String, Modular.ModuleEntry> boundSnapshot = Map.of();
+
+    /**
+     * Whether the context and attachments have been closed.
+     */
+    protected boolean closed = false;
+
     /**
      * Create a new JavaScript evaluation environment.
      *
@@ -57,28 +120,178 @@ public class ScriptEnv {
      */
     public ScriptEnv() {
         vm = createContext();
-        id = pid++;
+        id = pid.getAndIncrement();
+        LIVE_ENVS.put(id, this);
+    }
+
+    /**
+     * Close the shared engine, if created.
+     * <br/>
+     * Contexts still using the engine are cancelled.
+     */
+    public static synchronized void closeSharedEngine() {
+        if (sharedEngine != null) {
+            try {
+                sharedEngine.close(true);
+            } catch (IllegalStateException e) {
+                System.err.println("Could not close shared engine: " + e);
+            }
+            sharedEngine = null;
+        }
+    }
+
+    /**
+     * Gets the env running on the current thread.
+     *
+     * @return The env, or {@code null} if the current thread is not running any env.
+     */
+    @Nullable
+    public static ScriptEnv current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Gets a live env by its ID.
+     *
+     * @return The env, or {@code null} if it does not exist or has stopped.
+     */
+    @Nullable
+    public static ScriptEnv get(int id) {
+        return LIVE_ENVS.get(id);
+    }
+
+    /**
+     * Gets the env running on the current thread, failing if there is none.
+     * <br/>
+     * Guest modules use this to find the env of the calling script.
+     *
+     * @throws IllegalStateException If the current thread is not running any env.
+     */
+    public static ScriptEnv requireCurrent() {
+        ScriptEnv e = CURRENT.get();
+        if (e == null) {
+            throw new IllegalStateException("not calling from a script env");
+        }
+        return e;
     }
 
     /**
      * Internal method for creating a context.
+     * <br/>
+     * Unless cfg {@code emulation.shared_engine} is turned off, all contexts are bound to one process-wide
+     * {@link Engine}, so that parsed sources and compiled code are shared between envs.
      */
     protected static Context createContext() {
         var hab = HostAccess.newBuilder();
         hab.allowAccessAnnotatedBy(Expose.class);
-        return Context.newBuilder("js")
+        hab.allowBufferAccess(true); // Lets the guest view host byte buffers without copying
+        var cb = Context.newBuilder("js")
                 .allowHostAccess(hab.build())
                 .allowValueSharing(false)
                 .out(System.out)
-                .err(System.err)
-                .build();
+                .err(System.err);
+        if (Cfg.getBoolean("emulation.shared_engine", true)) {
+            cb.engine(getSharedEngine());
+        }
+        return cb.build();
+    }
+
+    /**
+     * Get the shared engine, creating it on demand.
+     */
+    protected static synchronized Engine getSharedEngine() {
+        if (sharedEngine == null) {
+            sharedEngine = Engine.newBuilder("js")
+                    .out(System.out)
+                    .err(System.err)
+                    .build();
+        }
+        return sharedEngine;
     }
 
     /**
      * Forward of {@link Context#eval(Source)} without return value.
      */
     public void eval(String src) {
-        vm.eval("js", src);
+        ScriptEnv prev = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            vm.eval("js", src);
+        } finally {
+            CURRENT.set(prev);
+        }
+    }
+
+    /**
+     * Forward of {@link Context#eval(Source)} without return value.
+     * <br/>
+     * Sources from {@link SourceCache} are parsed only once per engine.
+     */
+    public void eval(Source src) {
+        ScriptEnv prev = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            vm.eval(src);
+        } finally {
+            CURRENT.set(prev);
+        }
+    }
+
+    /**
+     * Bind modules in advance, so they are ready before the first {@link VMAPI#require(String)}.
+     *
+     * @param names Module names. Unknown names are ignored.
+     */
+    public void bindModules(Collection<String> names) {
+        for (String n : names) {
+            if (getModule(n) == null) {
+                System.err.println("Could not bind unknown module: " + n);
+            }
+        }
+    }
+
+    /**
+     * Gets the guest value of a module, binding it on first access.
+     * <br/>
+     * Static modules are converted using {@link #makeStatic(Object)} once, and the result is reused until modules
+     * are registered again.
+     *
+     * @param name Module name.
+     * @return The module value, or {@code null} if not found.
+     */
+    @Nullable
+    public Object getModule(String name) {
+        Map<String, Modular.ModuleEntry> snapshot = Modular.getModules();
+        if (snapshot != boundSnapshot) {
+            boundModules.clear(); // Registry changed
+            boundSnapshot = snapshot;
+        }
+        Object v = boundModules.get(name);
+        if (v != null) {
+            return v;
+        }
+        Modular.ModuleEntry e = snapshot.get(name);
+        if (e == null) {
+            return null;
+        }
+        v = e.isStatic ? makeStatic(e.instance) : e.instance;
+        if (v != null) {
+            boundModules.put(name, v);
+        }
+        return v;
+    }
+
+    /**
+     * Gets the state a host module attaches to this env, creating it on demand.
+     * <br/>
+     * Attachments are closed after the env stops and its context is closed, so no guest code can reach them
+     * anymore at that time.
+     *
+     * @param type    Type of the attachment, used as the key.
+     * @param factory Supplier for creating the attachment.
+     */
+    public <T extends AutoCloseable> T getAttachment(Class<T> type, Supplier<T> factory) {
+        return type.cast(attachments.computeIfAbsent(type, k -> factory.get()));
     }
 
     /**
@@ -98,6 +311,29 @@ public class ScriptEnv {
         return id;
     }
 
+    /**
+     * Gets the inbox of this env.
+     */
+    public Mailbox getMailbox() {
+        return mailbox;
+    }
+
+    /**
+     * Gets the ID of the env which created this env as a worker.
+     *
+     * @return Parent env ID, or -1 if not a worker.
+     */
+    public int getParentID() {
+        return parentID;
+    }
+
+    /**
+     * Sets the ID of the env which created this env as a worker.
+     */
+    public void setParentID(int p) {
+        parentID = p;
+    }
+
     /**
      * Gets the internal loop object.
      */
@@ -126,13 +362,78 @@ public class ScriptEnv {
                 if (source.length == 0) {
                     throw new IOException("empty script source");
                 }
-                pushScript(new String(source));
+                pushScript(SourceCache.get(BUNDLED_SCRIPT_NAME, new String(source)));
             } else {
                 throw new IOException("null resource stream");
             }
         }
     }
 
+    /**
+     * Call a guest function with this env set as the current env.
+     * <br/>
+     * Host callbacks into guest code should use this method, so that guest modules called by the function can find
+     * the env with {@link #current()}.
+     *
+     * @param f    Guest function.
+     * @param args Arguments.
+     */
+    public void call(Value f, Object... args) {
+        ScriptEnv prev = CURRENT.get();
+        CURRENT.set(this);
+        try {
+            f.executeVoid(args);
+        } finally {
+            CURRENT.set(prev);
+        }
+    }
+
+    /**
+     * Create a task which calls a guest function with {@link #call(Value, Object...)}.
+     * <br/>
+     * The source of the task is the name and location of the function, which shows up in loop metrics.
+     *
+     * @param f    Guest function.
+     * @param args Arguments.
+     */
+    public Task callTask(Value f, Object... args) {
+        return new Task() {
+            @Override
+            public void execute() {
+                call(f, args);
+            }
+
+            @Override
+            public String getSource() {
+                Value n = f.getMember("name");
+                String name = n != null && n.isString() && !n.asString().isEmpty() ? n.asString() : "<anonymous>";
+                SourceSection s = f.getSourceLocation();
+                return s == null ? "guest function " + name
+                        : String.format("guest function %s (%s:%d)", name, s.getSource().getName(), s.getStartLine());
+            }
+        };
+    }
+
+    /**
+     * Deliver the result of a host job to a guest callback on the loop of this env.
+     * <br/>
+     * The callback is called with {@code (result, error)}, where {@code error} is a message string, or {@code null}
+     * if the job succeeded. This method can be called from any thread. If the env stops before the job completes,
+     * the callback is dropped.
+     *
+     * @param f  Job to wait for.
+     * @param cb Guest callback. Ignored if not executable.
+     */
+    public <T> void completeOnLoop(CompletableFuture<T> f, Value cb) {
+        if (!cb.canExecute()) {
+            return;
+        }
+        f.whenComplete((r, e) -> {
+            Throwable cause = e instanceof CompletionException && e.getCause() != null ? e.getCause() : e;
+            vmLoop.push(() -> call(cb, r, cause == null ? null : cause.toString()));
+        });
+    }
+
     /**
      * Convert and extract the static field of the specified object.
      *
@@ -142,7 +443,7 @@ public class ScriptEnv {
     @Nullable
     protected Value makeStatic(Object o) {
         Value val = vm.asValue(o);
-        if (!val.getMemberKeys().contains(STATIC_FIELD_ID)) {
+        if (!val.hasMember(STATIC_FIELD_ID)) {
             System.err.println("Attempting to expose a non-static interface as static.");
             return null;
         }
@@ -160,11 +461,17 @@ public class ScriptEnv {
      * See {@link ScriptEnv#ScriptEnv()} for details.
      */
     public void pushScript(String src) {
+        pushScript(SourceCache.get(PUSHED_SCRIPT_NAME, src));
+    }
+
+    /**
+     * {@link Source} overload of {@link #pushScript(String)}.
+     */
+    public void pushScript(Source src) {
         if (vmLoop == null) {
             throw new IllegalStateException("pushing script before vm loop starts");
         }
-        Source s = Source.create("js", src);
-        vmLoop.push(() -> vm.eval(s));
+        vmLoop.push(() -> eval(src));
     }
 
     /**
@@ -180,6 +487,29 @@ public class ScriptEnv {
         vm.getBindings("js").putMember(name, statik ? makeStatic(ctx) : ctx);
     }
 
+    /**
+     * Close the context and the attachments of this env, and remove it from the live envs.
+     * <br/>
+     * This is done by {@link #start()} once the VM exits. Envs which are never started, like ones only used with
+     * {@link #eval(String)}, should be closed with this method. Closing an env twice has no effect.
+     */
+    public synchronized void close() {
+        LIVE_ENVS.remove(id);
+        if (closed) {
+            return;
+        }
+        closed = true;
+        vm.close();
+        for (AutoCloseable a : attachments.values()) {
+            try {
+                a.close();
+            } catch (Exception e) {
+                System.err.println("Could not close env attachment: " + e);
+            }
+        }
+        attachments.clear();
+    }
+
     /**
      * Start the engine on current thread.
      * <br/>
@@ -187,11 +517,17 @@ public class ScriptEnv {
      */
     public void start() {
         vm.enter();
+        CURRENT.set(this);
         System.out.printf("[ScriptEnv #%d Started]\n", id);
         vmLoop.makeCurrent(Thread.currentThread());
-        vmLoop.start();
+        try {
+            vmLoop.start();
+        } finally {
+            LIVE_ENVS.remove(id);
+            CURRENT.remove();
+        }
         System.out.printf("[ScriptEnv #%d Stopped]\n", id);
         vm.leave();
-        vm.close();
+        close();
     }
 }
@@ -0,0 +1,73 @@
+package skjsjhb.rhytick.opfw.je.dce;
+
+import org.graalvm.polyglot.Source;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of parsed script sources.
+ * <br/>
+ * GraalVM caches the parsed and compiled code per {@link Source} within an engine. By handing out the same
+ * {@link Source} object for the same script, envs sharing the engine (see {@link ScriptEnv}) skip parsing and
+ * reuse the warmed-up code of each other.
+ * <br/>
+ * Sources are keyed by name and content. The cache is enabled by cfg {@code emulation.source_cache} and holds
+ * at most {@code emulation.source_cache_size} entries, with the least recently used one evicted first.
+ */
+public final class SourceCache {
+    private static final int MAX_ENTRIES = Math.max(1, Cfg.getInt("emulation.source_cache_size", 256));
+
+    private static final Map<Key, Source> SOURCES = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Source> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    /**
+     * Internal method for building a source.
+     */
+    private static Source build(String name, String content) {
+        return Source.newBuilder("js", content, name).cached(true).buildLiteral();
+    }
+
+    /**
+     * Drop all cached sources.
+     */
+    public static synchronized void clear() {
+        SOURCES.clear();
+    }
+
+    /**
+     * Get the source of specified name and content, creating one on demand.
+     *
+     * @param name    Source name, usually the virtual path of the script.
+     * @param content Source code.
+     * @return A cached {@link Source} if any, otherwise a newly created one.
+     */
+    public static Source get(String name, String content) {
+        if (!Cfg.getBoolean("emulation.source_cache", true)) {
+            return build(name, content);
+        }
+        Key k = new Key(name, content.length(), content.hashCode());
+        synchronized (SourceCache.class) {
+            Source s = SOURCES.get(k);
+            if (s != null && content.contentEquals(s.getCharacters())) {
+                return s;
+            }
+        }
+        Source s = build(name, content); // Build outside the lock, a duplicate is harmless
+        synchronized (SourceCache.class) {
+            SOURCES.put(k, s);
+        }
+        return s;
+    }
+
+    /**
+     * Cache key. The hash only narrows down the candidates, contents are always compared on hit.
+     */
+    private record Key(String name, int length, int hash) {
+    }
+}
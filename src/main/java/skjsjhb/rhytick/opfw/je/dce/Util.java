@@ -2,8 +2,11 @@ package skjsjhb.rhytick.opfw.je.dce;
 
 import org.graalvm.polyglot.Value;
 import org.graalvm.polyglot.proxy.ProxyArray;
+import skjsjhb.rhytick.opfw.je.finder.MappedFiles;
 
 import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
 
 /**
@@ -12,6 +15,104 @@ import java.nio.charset.StandardCharsets;
 @GuestModule(value = "util", statik = true)
 @SuppressWarnings("unused")
 public final class Util {
+    /**
+     * Copy a range of a guest buffer into a new direct {@link ByteBuffer}.
+     * <br/>
+     * The content is read 8 bytes at a time, which is much faster than reading it byte by byte. This must be called
+     * on the thread which owns the guest value.
+     *
+     * @param v      A guest value with buffer elements, e.g. an {@code ArrayBuffer}.
+     * @param offset Offset in bytes.
+     * @param length Length in bytes.
+     * @return The copied content, positioned at 0.
+     */
+    public static ByteBuffer copyBuffer(Value v, long offset, long length) {
+        if (length < 0 || length > Integer.MAX_VALUE || offset < 0 || offset + length > v.getBufferSize()) {
+            throw new IllegalArgumentException("buffer range out of bounds");
+        }
+        int n = (int) length;
+        ByteBuffer bb = ByteBuffer.allocateDirect(n).order(ByteOrder.LITTLE_ENDIAN);
+        int i = 0;
+        for (; i + Long.BYTES <= n; i += Long.BYTES) {
+            bb.putLong(i, v.readBufferLong(ByteOrder.LITTLE_ENDIAN, offset + i));
+        }
+        for (; i < n; i++) {
+            bb.put(i, v.readBufferByte(offset + i));
+        }
+        return bb.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    /**
+     * Copy the remaining content of a host buffer into a new direct buffer.
+     *
+     * @param bb Buffer to copy. Its position is not changed.
+     * @return The copied content, positioned at 0.
+     */
+    public static ByteBuffer copyBuffer(ByteBuffer bb) {
+        return ByteBuffer.allocateDirect(bb.remaining()).put(bb.duplicate()).flip();
+    }
+
+    /**
+     * Get the bytes of a guest or host value without keeping any reference to the guest.
+     * <br/>
+     * Strings are encoded in UTF-8. Host {@link ByteBuffer} and {@code byte[]} are wrapped without copying, except
+     * for mapped files, which are released with their env. Guest {@code ArrayBuffer} and typed arrays are copied
+     * using {@link #copyBuffer(Value, long, long)}.
+     *
+     * @param v Value to convert.
+     * @return The content, positioned at 0.
+     * @throws IllegalArgumentException If the value is not of a supported type.
+     */
+    public static ByteBuffer copyBytes(Value v) {
+        if (v.isString()) {
+            return ByteBuffer.wrap(encodeString(v.asString()));
+        }
+        if (v.isHostObject() && v.asHostObject() instanceof ByteBuffer bb) {
+            return MappedFiles.isMapped(bb) ? copyBuffer(bb.duplicate().clear()) : bb.duplicate().clear();
+        }
+        if (v.isHostObject() && v.asHostObject() instanceof byte[] ba) {
+            return ByteBuffer.wrap(ba);
+        }
+        if (v.hasBufferElements()) {
+            return copyBuffer(v, 0, v.getBufferSize());
+        }
+        if (v.hasMember("buffer") && v.getMember("buffer").hasBufferElements()) {
+            // Typed array view
+            return copyBuffer(v.getMember("buffer"), v.getMember("byteOffset").asLong(),
+                    v.getMember("byteLength").asLong());
+        }
+        throw new IllegalArgumentException("value is not a string or binary data");
+    }
+
+    /**
+     * Copy the content of a primitive array into a guest buffer, in one call.
+     * <br/>
+     * Elements are written in little-endian order, which is the order of typed arrays on all supported platforms.
+     * The guest can create the target with {@code new ArrayBuffer(util.sizeOf(array))}.
+     *
+     * @param array  A {@code byte[]}, {@code int[]}, {@code long[]}, {@code float[]} or {@code double[]}.
+     * @param buf    A guest value with buffer elements, e.g. an {@code ArrayBuffer}.
+     * @param offset Offset in the target buffer, in bytes.
+     * @return The number of bytes written.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static long copyToBuffer(Object array, Value buf, long offset) {
+        ByteBuffer src = littleEndianBytes(array);
+        int n = src.remaining();
+        if (offset < 0 || offset + n > buf.getBufferSize()) {
+            throw new IllegalArgumentException("buffer range out of bounds");
+        }
+        int i = 0;
+        for (; i + Long.BYTES <= n; i += Long.BYTES) {
+            buf.writeBufferLong(ByteOrder.LITTLE_ENDIAN, offset + i, src.getLong(i));
+        }
+        for (; i < n; i++) {
+            buf.writeBufferByte(offset + i, src.get(i));
+        }
+        return n;
+    }
+
     /**
      * Decode {@code byte[]} to {@link String}.
      * <br/>
@@ -34,6 +135,56 @@ public final class Util {
         return a.getBytes(StandardCharsets.UTF_8); // Generate bytes
     }
 
+    /**
+     * Internal method for viewing a primitive array as little-endian bytes.
+     * <br/>
+     * {@code byte[]} is wrapped, other arrays are copied once in bulk.
+     */
+    private static ByteBuffer littleEndianBytes(Object array) {
+        return switch (array) {
+            case byte[] a -> ByteBuffer.wrap(a).order(ByteOrder.LITTLE_ENDIAN);
+            case int[] a -> {
+                ByteBuffer bb = ByteBuffer.allocate(a.length * Integer.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                bb.asIntBuffer().put(a);
+                yield bb;
+            }
+            case long[] a -> {
+                ByteBuffer bb = ByteBuffer.allocate(a.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                bb.asLongBuffer().put(a);
+                yield bb;
+            }
+            case float[] a -> {
+                ByteBuffer bb = ByteBuffer.allocate(a.length * Float.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                bb.asFloatBuffer().put(a);
+                yield bb;
+            }
+            case double[] a -> {
+                ByteBuffer bb = ByteBuffer.allocate(a.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                bb.asDoubleBuffer().put(a);
+                yield bb;
+            }
+            default -> throw new IllegalArgumentException("not a primitive numeric array: " + array.getClass());
+        };
+    }
+
+    /**
+     * Gets the size of a primitive array in bytes.
+     *
+     * @param array A {@code byte[]}, {@code int[]}, {@code long[]}, {@code float[]} or {@code double[]}.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static long sizeOf(Object array) {
+        return switch (array) {
+            case byte[] a -> a.length;
+            case int[] a -> (long) a.length * Integer.BYTES;
+            case long[] a -> (long) a.length * Long.BYTES;
+            case float[] a -> (long) a.length * Float.BYTES;
+            case double[] a -> (long) a.length * Double.BYTES;
+            default -> throw new IllegalArgumentException("not a primitive numeric array: " + array.getClass());
+        };
+    }
+
     /**
      * Sleep current thread.
      * <br/>
@@ -56,6 +207,9 @@ public final class Util {
      * The param is claimed to be of type {@link Object}, to be compatible with GraalVM types. However, the
      * object must be of type {@code T[]} during its call and a dynamic cast will happen.
      * <br/>
+     * Arrays of {@code byte}, {@code int}, {@code long}, {@code float} and {@code double} are accessed directly.
+     * Other arrays fall back to reflection.
+     * <br/>
      * The param {@code array} should never be shared since {@code T[]} is not thread-safe. Multiple generated
      * {@link ProxyArray} have access to the array simultaneously regardless of it's caller. This will bring
      * undefined behavior.
@@ -63,46 +217,149 @@ public final class Util {
     @Expose
     @SuppressWarnings("unused")
     public static ProxyArray toArray(Object array) {
-        if (!array.getClass().isArray()) {
-            // Create no-op array
-            return new ProxyArray() {
-                @Override
-                public Object get(long index) {
-                    return null;
-                }
-
-                @Override
-                public long getSize() {
-                    return 0;
-                }
-
-                @Override
-                public void set(long index, Value value) {
-                }
-            };
-        }
-        // Impl an array
-        return new ProxyArray() {
-            @Override
-            public Object get(long index) {
-                if (index >= Array.getLength(array)) {
-                    return null; // No value is returned
-                }
-                return Array.get(array, (int) index);
+        return switch (array) {
+            case byte[] a -> new ByteArrayProxy(a);
+            case int[] a -> new IntArrayProxy(a);
+            case long[] a -> new LongArrayProxy(a);
+            case float[] a -> new FloatArrayProxy(a);
+            case double[] a -> new DoubleArrayProxy(a);
+            default -> array.getClass().isArray() ? new ReflectArrayProxy(array) : new ReflectArrayProxy(new Object[0]);
+        };
+    }
+
+    /**
+     * Proxy of {@code byte[]}.
+     */
+    private record ByteArrayProxy(byte[] a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            return index < a.length ? a[(int) index] : null;
+        }
+
+        @Override
+        public long getSize() {
+            return a.length;
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            if (index < a.length) {
+                a[(int) index] = (byte) value.asInt(); // Typed arrays wrap around as well
             }
+        }
+    }
 
-            @Override
-            public long getSize() {
-                return Array.getLength(array);
+    /**
+     * Proxy of {@code double[]}.
+     */
+    private record DoubleArrayProxy(double[] a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            return index < a.length ? a[(int) index] : null;
+        }
+
+        @Override
+        public long getSize() {
+            return a.length;
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            if (index < a.length) {
+                a[(int) index] = value.asDouble();
             }
+        }
+    }
+
+    /**
+     * Proxy of {@code float[]}.
+     */
+    private record FloatArrayProxy(float[] a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            return index < a.length ? a[(int) index] : null;
+        }
+
+        @Override
+        public long getSize() {
+            return a.length;
+        }
 
-            @Override
-            public void set(long index, Value value) {
-                if (index >= Array.getLength(array)) {
-                    return; // Fail silently
-                }
-                Array.set(array, (int) index, value.asHostObject());
+        @Override
+        public void set(long index, Value value) {
+            if (index < a.length) {
+                a[(int) index] = (float) value.asDouble();
             }
-        };
+        }
+    }
+
+    /**
+     * Proxy of {@code int[]}.
+     */
+    private record IntArrayProxy(int[] a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            return index < a.length ? a[(int) index] : null;
+        }
+
+        @Override
+        public long getSize() {
+            return a.length;
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            if (index < a.length) {
+                a[(int) index] = value.asInt();
+            }
+        }
+    }
+
+    /**
+     * Proxy of {@code long[]}.
+     */
+    private record LongArrayProxy(long[] a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            return index < a.length ? a[(int) index] : null;
+        }
+
+        @Override
+        public long getSize() {
+            return a.length;
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            if (index < a.length) {
+                a[(int) index] = value.asLong();
+            }
+        }
+    }
+
+    /**
+     * Proxy of any other array, using reflection.
+     */
+    private record ReflectArrayProxy(Object a) implements ProxyArray {
+        @Override
+        public Object get(long index) {
+            if (index >= Array.getLength(a)) {
+                return null; // No value is returned
+            }
+            return Array.get(a, (int) index);
+        }
+
+        @Override
+        public long getSize() {
+            return Array.getLength(a);
+        }
+
+        @Override
+        public void set(long index, Value value) {
+            if (index >= Array.getLength(a)) {
+                return; // Fail silently
+            }
+            Array.set(a, (int) index, value.as(a.getClass().getComponentType()));
+        }
     }
 }
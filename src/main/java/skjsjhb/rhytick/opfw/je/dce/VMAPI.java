@@ -2,6 +2,9 @@ package skjsjhb.rhytick.opfw.je.dce;
 
 import org.graalvm.polyglot.Value;
 import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.schedule.Lane;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
+import skjsjhb.rhytick.opfw.je.schedule.TimerQueue;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
@@ -44,12 +47,42 @@ public class VMAPI {
     public void library(String name) {
         try {
             System.out.println("Guest requesting library: " + name);
-            env.eval(Codeload.readScriptSource(name));
+            env.eval(Codeload.loadScript(name));
         } catch (IOException e) {
             System.err.printf("Failed to load library '%s': %s\n", name, e);
         }
     }
 
+    /**
+     * Load a library like {@link #library(String)}, but read and verify it without blocking the loop.
+     * <br/>
+     * The library is executed on the loop once loaded, then the callback is called with {@code (null, error)}.
+     *
+     * @param name Path to the library file.
+     * @param cb   Callback after the library is executed, or failed to load.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public void libraryAsync(String name, Value cb) {
+        System.out.println("Guest requesting library: " + name);
+        Scheduler.runIO(() -> Codeload.loadScript(name)).whenComplete((src, e) -> env.getLoop().push(() -> {
+            Throwable err = e;
+            if (err == null) {
+                try {
+                    env.eval(src);
+                } catch (RuntimeException ex) {
+                    err = ex; // Guest errors too, so the callback is always called
+                }
+            }
+            if (err != null) {
+                System.err.printf("Failed to load library '%s': %s\n", name, err);
+            }
+            if (cb.canExecute()) {
+                env.call(cb, null, err == null ? null : err.toString());
+            }
+        }));
+    }
+
     /**
      * Request a function to be called on the next 'tick'.
      * <br/>
@@ -60,27 +93,97 @@ public class VMAPI {
     @SuppressWarnings("unused")
     public void requestLoop(Value f) {
         if (f.canExecute()) {
-            env.getLoop().push(f::execute);
+            env.getLoop().push(env.callTask(f));
         }
     }
 
     /**
-     * Require a defined module.
+     * Request a function to be called in the background lane of the loop.
+     * <br/>
+     * Such callbacks only run with the turn budget left by ordinary tasks, so bulk work does not delay frames.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public void requestIdle(Value f) {
+        if (f.canExecute()) {
+            env.getLoop().push(Lane.BACKGROUND, env.callTask(f));
+        }
+    }
+
+    /**
+     * Call a function once after a delay.
+     * <br/>
+     * Timers are kept on the loop of the env, which sleeps until the next one is due when idle.
      *
-     * @param name Module name.
+     * @param f  Function to call.
+     * @param ms Delay in milliseconds. Negative and non-number values are treated as 0.
+     * @return An opaque handle for {@link #clearTimeout(Value)}, or {@code null} if {@code f} is not a function.
      */
     @Expose
     @SuppressWarnings("unused")
     @Nullable
-    public Object require(String name) {
-        var sme = Modular.getModule(name);
-        if (sme == null) {
+    public Object setTimeout(Value f, double ms) {
+        if (!f.canExecute()) {
+            return null;
+        }
+        return env.getLoop().schedule(env.callTask(f), toNanos(ms));
+    }
+
+    /**
+     * Call a function repeatedly until cleared.
+     *
+     * @param f  Function to call.
+     * @param ms Period in milliseconds, at least 1 ms.
+     * @return An opaque handle for {@link #clearTimeout(Value)}, or {@code null} if {@code f} is not a function.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    @Nullable
+    public Object setInterval(Value f, double ms) {
+        if (!f.canExecute()) {
             return null;
         }
-        if (sme.isStatic) {
-            return env.makeStatic(sme.instance);
+        long period = Math.max(toNanos(ms), 1_000_000);
+        return env.getLoop().scheduleRepeating(env.callTask(f), period, period);
+    }
+
+    /**
+     * Cancel a timer created by {@link #setTimeout(Value, double)} or {@link #setInterval(Value, double)}.
+     * <br/>
+     * Invalid handles and timers which have already run are ignored.
+     *
+     * @param h Timer handle.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public void clearTimeout(Value h) {
+        if (h != null && h.isHostObject() && h.asHostObject() instanceof TimerQueue.Entry e) {
+            env.getLoop().cancel(e);
+        }
+    }
+
+    /**
+     * Internal method for converting a guest delay to nanoseconds.
+     */
+    private static long toNanos(double ms) {
+        if (!(ms > 0)) {
+            return 0; // Also NaN
         }
-        return sme.instance;
+        return (long) Math.min(ms * 1e6, Long.MAX_VALUE / 4.0);
+    }
+
+    /**
+     * Require a defined module.
+     * <br/>
+     * Each module is bound once per env, so repeated calls are cheap.
+     *
+     * @param name Module name.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    @Nullable
+    public Object require(String name) {
+        return env.getModule(name);
     }
 
     /**
@@ -1,5 +1,7 @@
 package skjsjhb.rhytick.opfw.je.dce;
 
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+
 import javax.annotation.Nullable;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
@@ -8,7 +10,7 @@ import java.util.concurrent.ConcurrentHashMap;
  * Guest script worker implementation.
  * <br/>
  * Workers have dedicated loop, with modules shared with the main entry.
- * i.e. A new {@link Emulation} instance will be created.
+ * i.e. A new {@link Emulation} instance will be created, or taken from the {@link WorkerPool}.
  */
 @GuestModule(value = "workers", statik = true)
 public final class WorkerFactory {
@@ -29,18 +31,18 @@ public final class WorkerFactory {
     public static int createWorker(String src) {
         // Cleanup - this won't take long
         for (var e : WORKERS_RECORD.entrySet()) {
-            if (!e.getValue().getEnv().getLoop().isRunning()) {
+            if (e.getValue().getEnv().getLoop().getState() == Loop.State.STOPPED) {
                 WORKERS_RECORD.remove(e.getKey());
             }
         }
 
-        // Create new worker
-        Emulation emul = new Emulation();
+        // Hand the source to a warm env
+        Emulation emul = WorkerPool.acquire();
         int id = emul.getEnv().getID();
-        emul.prepareRun();
-
+        ScriptEnv parent = ScriptEnv.current();
+        emul.getEnv().setParentID(parent == null ? -1 : parent.getID());
         WORKERS_RECORD.put(id, emul);
-        emul.startAsync(src);
+        emul.getEnv().pushScript(src);
         return id;
     }
 
@@ -62,6 +64,7 @@ public final class WorkerFactory {
      * This should only be called from the main thread.
      */
     public static void stopAll() {
+        WorkerPool.shutdown();
         int c = 0;
         for (Emulation e : WORKERS_RECORD.values()) {
             if (e.getEnv().getLoop().isRunning()) {
@@ -84,6 +87,8 @@ public final class WorkerFactory {
      * Note that when a worker is running, it usually know when to stop (calling its {@link VMAPI#stop()}), either
      * by a timing control or a message. This method can be used to stop the worker, and no warnings will be displayed,
      * but is still considered a bad manner.
+     * <br/>
+     * The env of a stopped worker is discarded rather than returned to the {@link WorkerPool}.
      *
      * @param id Worker ID.
      */
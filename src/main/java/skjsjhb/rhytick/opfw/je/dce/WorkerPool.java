@@ -0,0 +1,338 @@
+package skjsjhb.rhytick.opfw.je.dce;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
+
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Pool of pre-warmed worker envs for {@link WorkerFactory}.
+ * <br/>
+ * A warm env has its context created, the preload script evaluated and its loop running idle on a dedicated
+ * thread. Creating a worker then only needs to push the source to a warm env, rather than building everything
+ * on the caller's thread.
+ * <br/>
+ * The pool keeps at least {@code workers.pool_min} warm envs. Each miss raises the target by one, up to
+ * {@code workers.pool_max}. Envs idle for longer than {@code workers.pool_idle_timeout} seconds are evicted
+ * until the pool shrinks back to the minimum, on each refill and on a timer set by {@link #install(Loop)}. The pool
+ * is disabled when the minimum is 0, which is the default, so no env is warmed up at launch unless asked for.
+ * <br/>
+ * Envs are never returned to the pool. Guest code can leave arbitrary state in its context, which cannot be
+ * reset safely, thus a stopped worker is always discarded and the pool refills with fresh envs.
+ */
+public final class WorkerPool {
+    private static final Deque<WarmEnv> IDLE = new ConcurrentLinkedDeque<>();
+
+    private static final AtomicInteger idleCount = new AtomicInteger();
+
+    private static final AtomicBoolean refilling = new AtomicBoolean(false);
+
+    private static final Stats stats = new Stats();
+
+    private static final AtomicInteger target = new AtomicInteger(0);
+
+    /**
+     * Time to wait for each idle env to close on shutdown.
+     */
+    private static final long STOP_TIMEOUT_MILLIS = 1000;
+
+    private static volatile boolean closed = false;
+
+    /**
+     * Gets a warm env, or creates one if the pool is empty.
+     * <br/>
+     * The returned env is started, with its loop waiting for tasks. This may be called from any thread.
+     *
+     * @return A started worker env.
+     */
+    public static Emulation acquire() {
+        WarmEnv w;
+        while ((w = IDLE.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            Loop.State s = w.emul.getEnv().getLoop().getState();
+            if (s == Loop.State.INITIAL || s == Loop.State.RUNNING) {
+                stats.hits.incrementAndGet();
+                refill();
+                return w.emul;
+            }
+            stats.discarded.incrementAndGet(); // Stopped while idle
+        }
+        stats.misses.incrementAndGet();
+        if (isEnabled()) {
+            target.updateAndGet(t -> Math.min(getMaxSize(), Math.max(t, getMinSize()) + 1));
+        }
+        Emulation e = createWarm();
+        refill();
+        return e;
+    }
+
+    /**
+     * Internal method for creating and starting a warm env.
+     */
+    private static Emulation createWarm() {
+        long st = System.nanoTime();
+        Emulation emul = new Emulation();
+        Loop loop = emul.getEnv().getLoop();
+        loop.setIdleStrategy(IdleStrategy.fromCfg("schedule.worker_idle_strategy", loop.getIdleStrategy()));
+        emul.prepareRun();
+        emul.startAsync();
+        stats.recordCreation(System.nanoTime() - st);
+        return emul;
+    }
+
+    /**
+     * Evict envs idle for too long, as long as the pool is above its minimum size.
+     * <br/>
+     * This may be called from any thread.
+     */
+    public static void evict() {
+        long timeout = getIdleTimeout();
+        long now = System.nanoTime();
+        Iterator<WarmEnv> it = IDLE.descendingIterator(); // Oldest last
+        while (it.hasNext() && idleCount.get() > getMinSize()) {
+            WarmEnv w = it.next();
+            if (now - w.since < timeout) {
+                continue;
+            }
+            if (IDLE.removeLastOccurrence(w)) {
+                idleCount.decrementAndGet();
+                stopIdle(w.emul);
+                stats.evicted.incrementAndGet();
+                target.updateAndGet(t -> Math.max(getMinSize(), t - 1));
+            }
+        }
+    }
+
+    /**
+     * Gets the time after which an idle env can be evicted, in ns.
+     */
+    public static long getIdleTimeout() {
+        return (long) (Math.max(0, Cfg.getDouble("workers.pool_idle_timeout", 30)) * 1e9);
+    }
+
+    /**
+     * Start evicting idle envs periodically with a timer on a loop, so envs are evicted even if no more workers are
+     * created.
+     * <br/>
+     * This method must be called on the home thread of the loop.
+     *
+     * @param l Loop to run the timer.
+     */
+    public static void install(Loop l) {
+        if (!isEnabled()) {
+            return;
+        }
+        long period = Math.max(1_000_000_000L, getIdleTimeout() / 2); // Evicted at most half a timeout late
+        l.scheduleRepeating(WorkerPool::evict, period, period);
+    }
+
+    /**
+     * Gets the maximum number of warm envs.
+     */
+    public static int getMaxSize() {
+        return Math.max(getMinSize(), Cfg.getInt("workers.pool_max", 8));
+    }
+
+    /**
+     * Gets the minimum number of warm envs.
+     */
+    public static int getMinSize() {
+        return Math.max(0, Cfg.getInt("workers.pool_min", 0));
+    }
+
+    /**
+     * Gets the number of warm envs waiting in the pool.
+     */
+    public static int getIdleCount() {
+        return idleCount.get();
+    }
+
+    /**
+     * Gets the pool statistics.
+     */
+    public static Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Check if the pool is enabled.
+     */
+    public static boolean isEnabled() {
+        return !closed && getMinSize() > 0;
+    }
+
+    /**
+     * Fill the pool in background until it reaches the target size, and evict expired envs.
+     * <br/>
+     * Only one refill runs at a time. This may be called from any thread.
+     */
+    public static void refill() {
+        if (!isEnabled() || !refilling.compareAndSet(false, true)) {
+            return;
+        }
+        // Contexts cannot be used on virtual threads, and preload evaluates the script
+        Scheduler.startPinned("WorkerPool-Refill", () -> {
+            try {
+                evict();
+                while (!closed && idleCount.get() < Math.max(target.get(), getMinSize())) {
+                    Emulation e = createWarm();
+                    if (closed) {
+                        stopIdle(e); // Shut down meanwhile
+                        awaitStopped(e);
+                        break;
+                    }
+                    IDLE.addFirst(new WarmEnv(e, System.nanoTime()));
+                    idleCount.incrementAndGet();
+                }
+            } finally {
+                refilling.set(false);
+            }
+        });
+    }
+
+    /**
+     * Stop all idle envs and disable the pool.
+     * <br/>
+     * This should only be called when the application exits. It returns after the envs have closed their contexts,
+     * so the shared engine can be closed safely.
+     */
+    public static void shutdown() {
+        closed = true;
+        while (refilling.get()) {
+            LockSupport.parkNanos(1_000_000); // Let the refill see the flag and stop what it's creating
+        }
+        List<Emulation> stopped = new ArrayList<>();
+        WarmEnv w;
+        while ((w = IDLE.pollFirst()) != null) {
+            idleCount.decrementAndGet();
+            stopIdle(w.emul);
+            stopped.add(w.emul);
+        }
+        stopped.forEach(WorkerPool::awaitStopped);
+        if (getMinSize() > 0) {
+            System.out.println("Worker pool: " + stats);
+        }
+    }
+
+    /**
+     * Internal method for waiting until a stopped env has closed its context.
+     */
+    private static void awaitStopped(Emulation e) {
+        Thread t = e.getThread();
+        if (t == null) {
+            return;
+        }
+        try {
+            t.join(STOP_TIMEOUT_MILLIS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Internal method for stopping an idle env, including one whose loop has not started yet.
+     */
+    private static void stopIdle(Emulation e) {
+        Loop loop = e.getEnv().getLoop();
+        loop.push(loop::requestStop); // Run once the loop starts
+        loop.stop();
+    }
+
+    /**
+     * Pool statistics. All counters can be read from any thread.
+     */
+    public static final class Stats {
+        final AtomicLong created = new AtomicLong();
+
+        final AtomicLong creationMaxNanos = new AtomicLong();
+
+        final AtomicLong creationNanos = new AtomicLong();
+
+        final AtomicLong discarded = new AtomicLong();
+
+        final AtomicLong evicted = new AtomicLong();
+
+        final AtomicLong hits = new AtomicLong();
+
+        final AtomicLong misses = new AtomicLong();
+
+        /**
+         * Gets the average time to create a warm env in ns.
+         */
+        public double getAvgCreationNanos() {
+            long c = created.get();
+            return c == 0 ? 0 : (double) creationNanos.get() / c;
+        }
+
+        /**
+         * Gets the number of envs created, including those created on misses.
+         */
+        public long getCreated() {
+            return created.get();
+        }
+
+        /**
+         * Gets the longest time to create a warm env in ns.
+         */
+        public long getMaxCreationNanos() {
+            return creationMaxNanos.get();
+        }
+
+        /**
+         * Gets the number of idle envs found stopped and dropped.
+         */
+        public long getDiscarded() {
+            return discarded.get();
+        }
+
+        /**
+         * Gets the number of idle envs evicted by timeout.
+         */
+        public long getEvicted() {
+            return evicted.get();
+        }
+
+        /**
+         * Gets the number of workers served by a warm env.
+         */
+        public long getHits() {
+            return hits.get();
+        }
+
+        /**
+         * Gets the number of workers created on the caller's thread as the pool was empty.
+         */
+        public long getMisses() {
+            return misses.get();
+        }
+
+        void recordCreation(long nanos) {
+            created.incrementAndGet();
+            creationNanos.addAndGet(nanos);
+            creationMaxNanos.accumulateAndGet(nanos, Math::max);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d hit(s), %d miss(es), %d created (avg %.2f ms, max %.2f ms), %d evicted, " +
+                            "%d discarded", getHits(), getMisses(), getCreated(), getAvgCreationNanos() / 1e6,
+                    getMaxCreationNanos() / 1e6, getEvicted(), getDiscarded());
+        }
+    }
+
+    /**
+     * An idle env and the time it entered the pool.
+     */
+    private record WarmEnv(Emulation emul, long since) {
+    }
+}
@@ -1,11 +1,26 @@
 package skjsjhb.rhytick.opfw.je.finder;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
 
 /**
  * Storage path provider.
@@ -16,18 +31,39 @@ public final class Finder {
     private static final String SIG_EXT = ".sig";
 
     /**
-     * OPFW base path
+     * Size of chunks hashed while reading.
      */
-    private static String root = "";
+    private static final int DIGEST_CHUNK = 64 * 1024;
+
+    /**
+     * Handle for releasing mappings before they are collected, or {@code null} if unavailable.
+     */
+    private static final Method INVOKE_CLEANER;
+
+    /**
+     * Receiver of {@link #INVOKE_CLEANER}.
+     */
+    private static final Object UNSAFE;
 
     /**
-     * Internal method for encoding byte to hex.
+     * OPFW base path
      */
-    private static String byteToHex(byte num) {
-        char[] hexDigits = new char[2];
-        hexDigits[0] = Character.forDigit((num >> 4) & 0xF, 16);
-        hexDigits[1] = Character.forDigit((num & 0xF), 16);
-        return new String(hexDigits);
+    private static String root = "";
+
+    static {
+        Method m = null;
+        Object u = null;
+        try {
+            Class<?> c = Class.forName("sun.misc.Unsafe");
+            Field f = c.getDeclaredField("theUnsafe");
+            f.setAccessible(true);
+            u = f.get(null);
+            m = c.getMethod("invokeCleaner", ByteBuffer.class);
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            System.err.println("Mapped files will be released by GC only: " + e);
+        }
+        INVOKE_CLEANER = m;
+        UNSAFE = u;
     }
 
     /**
@@ -96,17 +132,6 @@ public final class Finder {
         System.out.println("Successfully configured root path.");
     }
 
-    /**
-     * Internal method for encoding byte to hex.
-     */
-    private static String encodeHexString(byte[] byteArray) {
-        StringBuilder hexStringBuffer = new StringBuilder();
-        for (byte b : byteArray) {
-            hexStringBuffer.append(byteToHex(b));
-        }
-        return hexStringBuffer.toString();
-    }
-
     /**
      * Create specified directory on demand.
      *
@@ -123,6 +148,66 @@ public final class Finder {
         Files.createDirectories(target);
     }
 
+    /**
+     * Map a file into memory for reading.
+     * <br/>
+     * Pages are loaded by the OS on access, and the content is never copied onto the heap. The mapping stays valid
+     * after this method returns, until it's released with {@link #unmap(MappedByteBuffer)} or collected.
+     *
+     * @param pt Relative path of the file.
+     * @return A read-only buffer of the whole file.
+     * @throws IOException If the file cannot be mapped, or is larger than 2 GiB.
+     */
+    public static MappedByteBuffer mapFile(String pt) throws IOException {
+        try (FileChannel ch = openRead(pt)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + size);
+            }
+            return ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+        }
+    }
+
+    /**
+     * Open a file for reading.
+     * <br/>
+     * The specified path is checked before the file is opened.
+     *
+     * @param pt Relative path of the file.
+     * @return An open channel. The caller is responsible for closing it.
+     * @throws IOException If the file cannot be opened.
+     */
+    public static FileChannel openRead(String pt) throws IOException {
+        checkPathBounds(pt);
+        return FileChannel.open(Paths.get(resolve(pt)), StandardOpenOption.READ);
+    }
+
+    /**
+     * Read all bytes of a file into a direct buffer.
+     * <br/>
+     * Unlike {@link #readFileBytes(String)}, the content is not copied onto the heap, and can be handed to guest
+     * scripts without copying.
+     *
+     * @param pt Relative path of the file.
+     * @return The content of the file, positioned at 0.
+     * @throws IOException If the file cannot be read, or is larger than 2 GiB.
+     */
+    public static ByteBuffer readFileBuffer(String pt) throws IOException {
+        try (FileChannel ch = openRead(pt)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file too large: " + size);
+            }
+            ByteBuffer bb = ByteBuffer.allocateDirect((int) size);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb) < 0) {
+                    break; // Truncated meanwhile
+                }
+            }
+            return bb.flip();
+        }
+    }
+
     /**
      * Overload of {@link #readFileBytes(String, boolean)} without validation.
      */
@@ -133,7 +218,8 @@ public final class Finder {
     /**
      * Read all bytes of a file. Optinally verify its integrity.
      * <br/>
-     * The specified path is checked before the file is read.
+     * The specified path is checked before the file is read. When verifying, the content is hashed in chunks as it's
+     * read, and the digest is kept in {@link IntegrityCache}, so an unchanged file is not hashed again.
      *
      * @param pt Relative path of the file.
      * @return The content of the file.
@@ -142,24 +228,100 @@ public final class Finder {
      * @apiNote The file must be encoded using UTF-8.
      */
     public static byte[] readFileBytes(String pt, boolean validate) throws IOException {
-        String apt = resolve(pt);
         checkPathBounds(pt);
-        byte[] content = Files.readAllBytes(Paths.get(apt));
-        if (validate) {
-            String sig = apt + SIG_EXT;
-            boolean verified;
-            try {
-                verified = verifyIntegrity(content, Files.readString(Paths.get(sig)).trim());
-            } catch (IOException e) {
-                throw new IOException("could not read integrity file", e);
-            }
-            if (!verified) {
-                throw new IOException("integrity check failed");
+        Path p = Paths.get(resolve(pt));
+        if (!validate) {
+            return Files.readAllBytes(p);
+        }
+        String sig = readSignature(p);
+        IntegrityCache.Stamp stamp = IntegrityCache.stamp(p);
+        String digest = IntegrityCache.get(p, stamp);
+        byte[] content;
+        if (digest != null) {
+            content = Files.readAllBytes(p);
+            if (!stamp.equals(IntegrityCache.stamp(p))) {
+                digest = HexFormat.of().formatHex(newDigest().digest(content)); // Changed while reading
             }
+        } else {
+            MessageDigest md = newDigest();
+            content = readDigesting(p, md);
+            digest = HexFormat.of().formatHex(md.digest());
+            IntegrityCache.put(p, stamp, digest);
+        }
+        if (!digest.equalsIgnoreCase(sig)) {
+            throw new IOException("integrity check failed");
         }
         return content;
     }
 
+    /**
+     * Internal method for reading a file and hashing it on the fly.
+     * <br/>
+     * Each chunk is hashed right after it's read, while it's still in CPU cache, instead of in a second pass over
+     * the whole content.
+     */
+    private static byte[] readDigesting(Path p, MessageDigest md) throws IOException {
+        try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+            long size = ch.size();
+            if (size > Integer.MAX_VALUE - 8) {
+                throw new IOException("file too large: " + size);
+            }
+            byte[] b = new byte[(int) size];
+            ByteBuffer bb = ByteBuffer.wrap(b);
+            while (bb.hasRemaining()) {
+                int off = bb.position();
+                int n = ch.read(bb.limit(Math.min(b.length, off + DIGEST_CHUNK)));
+                if (n < 0) {
+                    return Arrays.copyOf(b, off); // Truncated meanwhile
+                }
+                md.update(b, off, n);
+                bb.limit(b.length);
+            }
+            return b;
+        }
+    }
+
+    /**
+     * Internal method for reading the signature of a file.
+     */
+    private static String readSignature(Path p) throws IOException {
+        try {
+            return Files.readString(Paths.get(p + SIG_EXT)).trim();
+        } catch (IOException e) {
+            throw new IOException("could not read integrity file", e);
+        }
+    }
+
+    /**
+     * Internal method for creating a digest of {@link #SIG_ALGO}.
+     */
+    private static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance(SIG_ALGO);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("could not verify file using " + SIG_ALGO, e);
+        }
+    }
+
+    /**
+     * Write the remaining content of a buffer to a file, replacing the file if it exists.
+     * <br/>
+     * The specified path is checked, and its parent directory is created on demand.
+     *
+     * @param pt  Relative path of the file.
+     * @param buf Content to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public static void writeFileBuffer(String pt, ByteBuffer buf) throws IOException {
+        ensureDir(pt);
+        try (FileChannel ch = FileChannel.open(Paths.get(resolve(pt)), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buf.hasRemaining()) {
+                ch.write(buf);
+            }
+        }
+    }
+
     /**
      * Resolve relative path based on the root path.
      *
@@ -173,6 +335,74 @@ public final class Finder {
         return Paths.get(root, rel).normalize().toString();
     }
 
+    /**
+     * Release a mapping immediately, without waiting for GC.
+     * <br/>
+     * Any access to the buffer or its views after this call crashes the JVM. The caller must make sure that no
+     * reference is reachable anymore, from host or guest code.
+     *
+     * @param buf Buffer returned by {@link #mapFile(String)}, not a slice or duplicate of it.
+     */
+    public static void unmap(MappedByteBuffer buf) {
+        if (INVOKE_CLEANER == null) {
+            return; // Left to GC
+        }
+        try {
+            INVOKE_CLEANER.invoke(UNSAFE, buf);
+        } catch (ReflectiveOperationException e) {
+            System.err.println("Could not release mapped file: " + e);
+        }
+    }
+
+    /**
+     * Verify the integrity of a file without keeping its content.
+     * <br/>
+     * This is {@link #readFileBytes(String, boolean)} with validation, except that the file is not read at all if
+     * its digest is cached.
+     *
+     * @param pt Relative path of the file.
+     * @throws IOException If the file cannot be read, or the integrity check failed.
+     */
+    public static void verifyFile(String pt) throws IOException {
+        checkPathBounds(pt);
+        Path p = Paths.get(resolve(pt));
+        String sig = readSignature(p);
+        IntegrityCache.Stamp stamp = IntegrityCache.stamp(p);
+        String digest = IntegrityCache.get(p, stamp);
+        if (digest == null) {
+            MessageDigest md = newDigest();
+            try (InputStream in = new DigestInputStream(Files.newInputStream(p), md)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            digest = HexFormat.of().formatHex(md.digest());
+            IntegrityCache.put(p, stamp, digest);
+        }
+        if (!digest.equalsIgnoreCase(sig)) {
+            throw new IOException("integrity check failed");
+        }
+    }
+
+    /**
+     * Verify the integrity of several files in parallel.
+     * <br/>
+     * Files are hashed by a parallel stream on the common {@link ForkJoinPool}, with the calling thread helping. Verified digests are
+     * cached, so loading these files later skips hashing.
+     *
+     * @param paths Relative paths of the files.
+     * @return Paths which failed the verification, mapped to the cause. Empty if all files are verified.
+     */
+    public static Map<String, IOException> verifyAll(Collection<String> paths) {
+        Map<String, IOException> failed = new ConcurrentHashMap<>();
+        paths.parallelStream().forEach(pt -> {
+            try {
+                verifyFile(pt);
+            } catch (IOException | RuntimeException e) {
+                failed.put(pt, e instanceof IOException ie ? ie : new IOException(e));
+            }
+        });
+        return failed;
+    }
+
     /**
      * Validate the integrity of the spcified file against provided hash.
      *
@@ -180,9 +410,8 @@ public final class Finder {
      */
     public static boolean verifyIntegrity(byte[] source, String hash) {
         try {
-            byte[] hashSource = MessageDigest.getInstance(SIG_ALGO).digest(source);
-            return encodeHexString(hashSource).equalsIgnoreCase(hash);
-        } catch (NoSuchAlgorithmException e) {
+            return HexFormat.of().formatHex(newDigest().digest(source)).equalsIgnoreCase(hash);
+        } catch (IOException e) {
             System.err.printf("Could not verify file using %s, algorithm is missing.\n", SIG_ALGO);
             return false;
         }
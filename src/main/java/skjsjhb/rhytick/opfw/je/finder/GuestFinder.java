@@ -1,14 +1,27 @@
 package skjsjhb.rhytick.opfw.je.finder;
 
+import org.graalvm.polyglot.Value;
 import skjsjhb.rhytick.opfw.je.dce.Expose;
 import skjsjhb.rhytick.opfw.je.dce.GuestModule;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.dce.Util;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
 
+import javax.annotation.Nullable;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The finder for guest script. With extra limitation and checks.
+ * <br/>
+ * Async methods run the I/O on the I/O executor of {@link Scheduler}, and call back on the loop of the calling env.
+ * Callbacks receive {@code (result, error)}, where {@code error} is {@code null} on success.
  */
 @GuestModule(value = "finder", statik = true)
 @SuppressWarnings("unused")
@@ -31,6 +44,76 @@ public final class GuestFinder {
         }
     }
 
+    /**
+     * Maps the given file into memory, read-only.
+     * <br/>
+     * The guest can view the returned buffer with {@code new Uint8Array(new ArrayBuffer(buf))}, which indexes the
+     * mapping directly, without copying the file. Mapping the same file again reuses the mapping. Mappings are released
+     * when the env stops.
+     *
+     * @param vpt File virtual path.
+     * @return A read-only buffer of the file, or {@code null} if an I/O error occurred.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    @Nullable
+    public static ByteBuffer mapFile(String vpt) {
+        try {
+            return MappedFiles.of(ScriptEnv.requireCurrent()).map(vpt);
+        } catch (IOException e) {
+            System.err.println("Could not map file " + vpt + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Reads the content of given file path without blocking the loop.
+     *
+     * @param vpt File virtual path.
+     * @param cb  Callback receiving a {@link ByteBuffer}, which can be viewed as an {@code ArrayBuffer} without copying.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void readFileAsync(String vpt, Value cb) {
+        ScriptEnv.requireCurrent().completeOnLoop(Scheduler.runIO(() -> Finder.readFileBuffer(vpt)), cb);
+    }
+
+    /**
+     * Reads a file in chunks without blocking the loop.
+     * <br/>
+     * Only one chunk is read ahead. The next chunk is requested after the previous one has been handled, so a slow
+     * consumer never causes the file to pile up in memory.
+     *
+     * @param vpt       File virtual path.
+     * @param chunkSize Maximum size of each chunk in bytes.
+     * @param onChunk   Callback receiving {@code (buffer, offset)} for each chunk.
+     * @param onDone    Callback receiving {@code (null, error)} once the file ends or an error occurs.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void readFileChunked(String vpt, int chunkSize, Value onChunk, Value onDone) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("invalid chunk size: " + chunkSize);
+        }
+        ScriptEnv env = ScriptEnv.requireCurrent();
+        ChunkedRead r = new ChunkedRead(env, vpt, chunkSize, onChunk, onDone);
+        ChunkedReads.of(env).add(r);
+        r.next();
+    }
+
+    /**
+     * Reads the content of given file path as a UTF-8 string without blocking the loop.
+     *
+     * @param vpt File virtual path.
+     * @param cb  Callback receiving the string.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void readStringAsync(String vpt, Value cb) {
+        ScriptEnv.requireCurrent().completeOnLoop(Scheduler.runIO(
+                () -> new String(Finder.readFileBytes(vpt), StandardCharsets.UTF_8)), cb);
+    }
+
     @Expose
     @SuppressWarnings("unused")
     public static void writeFile(String vpt, String content) {
@@ -48,4 +131,153 @@ public final class GuestFinder {
             System.err.println("Could not write file " + vpt + ": " + e);
         }
     }
+
+    /**
+     * Writes content to given file path without blocking the loop.
+     * <br/>
+     * Guest buffers are copied before this method returns, so they can be modified right after the call.
+     *
+     * @param vpt  File virtual path.
+     * @param data A string, a buffer or a typed array.
+     * @param cb   Callback receiving {@code (null, error)} once written.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void writeFileAsync(String vpt, Value data, Value cb) {
+        ByteBuffer buf = Util.copyBytes(data);
+        ScriptEnv.requireCurrent().completeOnLoop(Scheduler.runIO(() -> {
+            Finder.writeFileBuffer(vpt, buf);
+            return null;
+        }), cb);
+    }
+
+    /**
+     * State of a chunked read. Reads happen on the I/O executor, callbacks on the loop of the env.
+     */
+    private static final class ChunkedRead {
+        private final int chunkSize;
+
+        private final ScriptEnv env;
+
+        private final Value onChunk;
+
+        private final Value onDone;
+
+        private final String vpt;
+
+        private FileChannel channel;
+
+        private boolean closed = false;
+
+        private long offset = 0;
+
+        ChunkedRead(ScriptEnv env, String vpt, int chunkSize, Value onChunk, Value onDone) {
+            this.env = env;
+            this.vpt = vpt;
+            this.chunkSize = chunkSize;
+            this.onChunk = onChunk;
+            this.onDone = onDone;
+        }
+
+        /**
+         * Close the channel quietly. A read in progress fails, and no more reads can be made.
+         * <br/>
+         * This may be called from any thread.
+         */
+        synchronized void close() {
+            closed = true;
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+                channel = null;
+            }
+        }
+
+        /**
+         * Finish the read and call back with an error, if any.
+         */
+        private void finish(@Nullable Throwable e) {
+            close();
+            ChunkedReads.of(env).remove(this);
+            env.call(onDone, null, e == null ? null : e.toString());
+        }
+
+        /**
+         * Read the next chunk on the I/O executor.
+         */
+        void next() {
+            Scheduler.runIO(this::read).whenComplete((bb, e) -> env.getLoop().push(() -> {
+                if (e != null || bb == null) {
+                    finish(e);
+                    return;
+                }
+                long pos = offset;
+                offset += bb.remaining();
+                try {
+                    env.call(onChunk, bb, pos);
+                } catch (RuntimeException ex) {
+                    finish(ex);
+                    return;
+                }
+                next();
+            }));
+        }
+
+        /**
+         * Internal method for getting the channel, opening it on first use.
+         */
+        private synchronized FileChannel open() throws IOException {
+            if (closed) {
+                throw new IOException("read has been closed");
+            }
+            if (channel == null) {
+                channel = Finder.openRead(vpt);
+            }
+            return channel;
+        }
+
+        /**
+         * Read a chunk from the current offset.
+         *
+         * @return The chunk, or {@code null} if the file ends.
+         */
+        private ByteBuffer read() throws IOException {
+            FileChannel ch = open();
+            ByteBuffer bb = ByteBuffer.allocateDirect(chunkSize);
+            while (bb.hasRemaining()) {
+                if (ch.read(bb, offset + bb.position()) < 0) {
+                    break;
+                }
+            }
+            return bb.position() == 0 ? null : bb.flip();
+        }
+    }
+
+    /**
+     * Chunked reads in progress in one env. Their channels are closed once the env stops, as the callback which
+     * would close them is dropped with the loop.
+     */
+    private static final class ChunkedReads implements AutoCloseable {
+        private final Set<ChunkedRead> reads = ConcurrentHashMap.newKeySet();
+
+        static ChunkedReads of(ScriptEnv env) {
+            return env.getAttachment(ChunkedReads.class, ChunkedReads::new);
+        }
+
+        void add(ChunkedRead r) {
+            reads.add(r);
+        }
+
+        @Override
+        public void close() {
+            reads.forEach(ChunkedRead::close);
+            reads.clear();
+        }
+
+        void remove(ChunkedRead r) {
+            reads.remove(r);
+        }
+    }
 }
@@ -0,0 +1,96 @@
+package skjsjhb.rhytick.opfw.je.finder;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Process-wide cache of file digests.
+ * <br/>
+ * Hashing a script on every load is wasted work if it has not changed. Each digest is stored with a {@link Stamp} of
+ * the file, and is only reused while the file has the same size, modification time and file key (e.g. inode).
+ * The signature file is always read again, so a changed signature is never missed.
+ * <br/>
+ * The cache is enabled by cfg {@code emulation.integrity_cache}.
+ *
+ * @apiNote A file rewritten in place with its size and modification time restored is not detected. Doing that
+ * requires write access to the root, which defeats the verification anyway.
+ */
+public final class IntegrityCache {
+    private static final Map<Path, Entry> DIGESTS = new ConcurrentHashMap<>();
+
+    /**
+     * Drop all cached digests.
+     */
+    public static void clear() {
+        DIGESTS.clear();
+    }
+
+    /**
+     * Get the cached digest of a file.
+     *
+     * @param p     Absolute path of the file.
+     * @param stamp Current stamp of the file.
+     * @return The digest in hex, or {@code null} if not cached, or the file has changed since.
+     */
+    @Nullable
+    static String get(Path p, Stamp stamp) {
+        if (!Cfg.getBoolean("emulation.integrity_cache", true)) {
+            return null;
+        }
+        Entry e = DIGESTS.get(p);
+        return e != null && e.stamp.equals(stamp) ? e.digest : null;
+    }
+
+    /**
+     * Store the digest of a file.
+     *
+     * @param p      Absolute path of the file.
+     * @param stamp  Stamp of the file taken before it was read.
+     * @param digest The digest in hex.
+     */
+    static void put(Path p, Stamp stamp, String digest) {
+        if (Cfg.getBoolean("emulation.integrity_cache", true)) {
+            DIGESTS.put(p, new Entry(stamp, digest));
+        }
+    }
+
+    /**
+     * Gets the number of cached digests.
+     */
+    public static int size() {
+        return DIGESTS.size();
+    }
+
+    /**
+     * Take the stamp of a file.
+     *
+     * @param p Absolute path of the file.
+     * @throws IOException If the attributes cannot be read.
+     */
+    static Stamp stamp(Path p) throws IOException {
+        BasicFileAttributes a = Files.readAttributes(p, BasicFileAttributes.class);
+        return new Stamp(a.size(), a.lastModifiedTime().to(TimeUnit.NANOSECONDS), a.fileKey());
+    }
+
+    /**
+     * A cached digest.
+     */
+    private record Entry(Stamp stamp, String digest) {
+    }
+
+    /**
+     * Attributes identifying a version of a file.
+     *
+     * @param fileKey Key of the file, or {@code null} if the file system does not provide one.
+     */
+    record Stamp(long size, long modified, @Nullable Object fileKey) {
+    }
+}
@@ -1,27 +1,84 @@
 package skjsjhb.rhytick.opfw.je.finder;
 
+import org.graalvm.polyglot.Value;
+import org.graalvm.polyglot.proxy.ProxyArray;
+import org.graalvm.polyglot.proxy.ProxyObject;
 import skjsjhb.rhytick.opfw.je.dce.Expose;
 import skjsjhb.rhytick.opfw.je.dce.GuestModule;
+import skjsjhb.rhytick.opfw.je.dce.Util;
 
 import javax.annotation.Nullable;
 import java.io.*;
-import java.util.Hashtable;
-import java.util.Map;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
 
 /**
  * Key-value storage for guest script.
+ * <br/>
+ * Changes are kept in memory and appended to a {@link KVLog} in background, which makes them durable without
+ * rewriting the whole store. Use {@link #save()} to wait until all changes are on disk.
+ * <br/>
+ * KV is shared by all envs. Reads never block (see {@link KVIndex}), and keys with a common prefix (e.g. a save slot)
+ * can be fetched together. Changes are ordered by the log.
+ * <br/>
+ * Besides strings, values can be numbers, bytes or structured values packed by the guest. These are stored in binary,
+ * so hot game state does not need to go through JSON. Typed getters return {@code null} for values of other types.
  */
 @GuestModule(value = "kv", statik = true)
 public final class KV {
     /**
-     * The location of KV data file.
+     * The location of KV log file.
      */
-    private static final String KV_FILE_LOCATION = "/osr/kv";
+    private static final String KV_LOG_LOCATION = "/osr/kv.log";
 
     /**
-     * A map which stores key to binary stream of the stored object.
+     * The location of KV data file written by Java serialization, before the log is used.
      */
-    private static Map<String, String> kv = new Hashtable<>(); // The table itself is thread-safe
+    private static final String KV_LEGACY_LOCATION = "/osr/kv";
+
+    /**
+     * An index which stores key to the stored value.
+     */
+    private static final KVIndex kv = new KVIndex();
+
+    /**
+     * Backing log, or {@code null} if not loaded. Without a log, changes are kept in memory only.
+     */
+    @Nullable
+    private static volatile KVLog log;
+
+    /**
+     * Flush and close the log, and clear the store.
+     * <br/>
+     * This should only be called when the application exits.
+     */
+    public static synchronized void close() {
+        KVLog l = log;
+        if (l != null) {
+            save();
+            l.close();
+            log = null;
+        }
+        kv.clear();
+    }
+
+    /**
+     * Compact the log now.
+     */
+    public static void compact() {
+        KVLog l = log;
+        if (l != null) {
+            try {
+                l.compact();
+            } catch (IOException e) {
+                System.err.println("Could not compact KV log: " + e);
+            }
+        }
+    }
 
     /**
      * Get the object stored in KV.
@@ -32,48 +89,173 @@ public final class KV {
     @Expose
     @SuppressWarnings("unused")
     public static String get(String k) {
-        return kv.get(k);
+        return kv.get(k) instanceof String s ? s : null;
     }
 
     /**
-     * Load kv file.
+     * Get the bytes stored in KV.
+     * <br/>
+     * The guest can copy the bytes into an {@code ArrayBuffer} with {@link Util#copyToBuffer(Object, Value, long)},
+     * which is much faster than reading a host buffer byte by byte.
+     *
+     * @return The bytes, which must not be modified, or {@code null} if the value is not bytes.
      */
-    @SuppressWarnings("unchecked")
-    public static void load() {
+    @Nullable
+    @Expose
+    @SuppressWarnings("unused")
+    public static byte[] getBytes(String k) {
+        return kv.get(k) instanceof KVIndex.Blob b && !b.packed() ? b.data() : null;
+    }
+
+    /**
+     * Get the values of several keys in one call.
+     *
+     * @param keys A guest array of keys.
+     * @return An array of values in the same order, with {@code null} for keys not set. Binary values are returned as
+     * {@code byte[]}, and packed values as an object with the bytes in {@code packed}.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static ProxyArray getMany(Value keys) {
+        Object[] out = new Object[(int) keys.getArraySize()];
+        for (int i = 0; i < out.length; i++) {
+            out[i] = toGuest(kv.get(keys.getArrayElement(i).asString()));
+        }
+        return ProxyArray.fromArray(out);
+    }
+
+    /**
+     * Get the number stored in KV.
+     *
+     * @return The number, or {@code null} if the value is not a number.
+     */
+    @Nullable
+    @Expose
+    @SuppressWarnings("unused")
+    public static Double getNumber(String k) {
+        return kv.get(k) instanceof Double d ? d : null;
+    }
+
+    /**
+     * Get the packed structured value stored in KV.
+     *
+     * @return The packed value, which must not be modified, or {@code null} if the value is not packed.
+     * @see #getBytes(String)
+     */
+    @Nullable
+    @Expose
+    @SuppressWarnings("unused")
+    public static byte[] getPacked(String k) {
+        return kv.get(k) instanceof KVIndex.Blob b && b.packed() ? b.data() : null;
+    }
+
+    /**
+     * Gets the backing log.
+     *
+     * @return The log, or {@code null} if not loaded.
+     */
+    @Nullable
+    static KVLog getLog() {
+        return log;
+    }
+
+    /**
+     * Gets the statistics of the log.
+     *
+     * @return Log statistics, or {@code null} if not loaded.
+     */
+    @Nullable
+    public static KVLog.Stats getStats() {
+        KVLog l = log;
+        return l == null ? null : l.getStats();
+    }
+
+    /**
+     * Load KV data from the log, migrating the legacy data file if there is no log yet.
+     * <br/>
+     * Entries set before loading are kept, unless overwritten by the log.
+     */
+    public static synchronized void load() {
+        if (log != null) {
+            return;
+        }
+        Path logFile = Paths.get(Finder.resolve(KV_LOG_LOCATION));
+        Path legacy = Paths.get(Finder.resolve(KV_LEGACY_LOCATION));
+        boolean migrate = !Files.exists(logFile) && Files.isRegularFile(legacy);
+        KVLog l = new KVLog(logFile, kv);
         try {
-            File f = new File(Finder.resolve(KV_FILE_LOCATION));
-            FileInputStream fis = new FileInputStream(f);
-            ObjectInputStream ois = new ObjectInputStream(fis);
-            kv = (Map<String, String>) ois.readObject();
-            ois.close();
-            System.out.printf("KV data loaded. (%d entries)\n", kv.size());
-        } catch (FileNotFoundException ignored) {
-            // This is not considered an error
-            System.out.println("KV file does not exist. Skipped loading.");
+            l.open();
         } catch (IOException e) {
-            System.err.println("Could not load KV from file: " + e);
-        } catch (ClassNotFoundException e) {
-            System.err.println("Could not parse KV data: " + e);
+            System.err.println("Could not load KV from log, changes will not be saved: " + e);
+            return;
         }
+        log = l;
+        if (migrate) {
+            migrateLegacy(legacy);
+        }
+        System.out.printf("KV data loaded. (%d entries, %.1f ms)\n", kv.size(), l.getStats().loadNanos / 1e6);
     }
 
     /**
-     * Save kv file.
+     * Import the legacy data file into the log, and keep it as a backup.
+     */
+    @SuppressWarnings("unchecked")
+    private static void migrateLegacy(Path legacy) {
+        try (ObjectInputStream ois = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(legacy)))) {
+            Map<String, String> m = (Map<String, String>) ois.readObject();
+            m.forEach(KV::set);
+            Objects.requireNonNull(log).compact();
+            Files.move(legacy, legacy.resolveSibling(legacy.getFileName() + ".migrated"),
+                    StandardCopyOption.REPLACE_EXISTING);
+            System.out.printf("KV data migrated from legacy file. (%d entries)\n", m.size());
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            System.err.println("Could not migrate legacy KV data: " + e);
+        }
+    }
+
+    /**
+     * Wait until all changes are written to disk.
      */
     public static void save() {
+        KVLog l = log;
+        if (l == null) {
+            return;
+        }
         try {
-            Finder.ensureDir(KV_FILE_LOCATION);
-            File f = new File(Finder.resolve(KV_FILE_LOCATION));
-            FileOutputStream fos = new FileOutputStream(f);
-            ObjectOutputStream oos = new ObjectOutputStream(fos);
-            oos.writeObject(kv);
-            oos.close();
-            System.out.printf("KV data saved. (%d entries)\n", kv.size());
+            l.flush();
+            System.out.printf("KV data saved. (%d entries) %s\n", kv.size(), l.getStats());
         } catch (IOException e) {
             System.err.println("Could not save KV: " + e);
         }
     }
 
+    /**
+     * Get entries whose keys start with the prefix, in key order.
+     * <br/>
+     * The result is a snapshot. Changes made during the scan may or may not be included.
+     *
+     * @param prefix Key prefix. An empty prefix matches all keys.
+     * @param limit  Maximum number of entries, or 0 for no limit.
+     * @return A map of matched keys to values, see {@link KVIndex} for the types.
+     */
+    public static SortedMap<String, Object> scan(String prefix, int limit) {
+        return kv.scan(prefix, limit);
+    }
+
+    /**
+     * Guest version of {@link #scan(String, int)}.
+     *
+     * @return An object of matched keys to values. Binary and packed values are returned as in
+     * {@link #getMany(Value)}.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static ProxyObject scanPrefix(String prefix, int limit) {
+        Map<String, Object> m = new LinkedHashMap<>();
+        scan(prefix, limit).forEach((k, v) -> m.put(k, toGuest(v)));
+        return ProxyObject.fromMap(m);
+    }
+
     /**
      * Set an object in this KV.
      *
@@ -82,10 +264,136 @@ public final class KV {
     @Expose
     @SuppressWarnings("unused")
     public static void set(String k, @Nullable String v) {
-        if (v == null) {
+        store(k, v);
+    }
+
+    /**
+     * Set bytes in this KV.
+     *
+     * @param data A buffer or a typed array, which is copied.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void setBytes(String k, Value data) {
+        store(k, new KVIndex.Blob(toByteArray(Util.copyBytes(data)), false));
+    }
+
+    /**
+     * Host version of {@link #setBytes(String, Value)}.
+     *
+     * @param data Bytes, which are copied.
+     */
+    public static void setBytes(String k, byte[] data) {
+        store(k, new KVIndex.Blob(data.clone(), false));
+    }
+
+    /**
+     * Set a number in this KV.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void setNumber(String k, double v) {
+        store(k, v);
+    }
+
+    /**
+     * Set a packed structured value in this KV.
+     * <br/>
+     * The value is packed and unpacked by the guest (see {@code Pack} in the preload script). It's stored as bytes,
+     * but kept apart from plain bytes, so the guest knows to unpack it.
+     *
+     * @param data A buffer or a typed array, which is copied.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void setPacked(String k, Value data) {
+        store(k, new KVIndex.Blob(toByteArray(Util.copyBytes(data)), true));
+    }
+
+    /**
+     * Set several keys in one call.
+     * <br/>
+     * The changes are applied and logged together, and no other change is ordered between them.
+     *
+     * @param entries A guest object of keys to values. A {@code null} or {@code undefined} value clears the key.
+     *                Strings and numbers are stored as is, other values as bytes.
+     */
+    @Expose
+    @SuppressWarnings("unused")
+    public static void setMany(Value entries) {
+        Map<String, Object> changes = new LinkedHashMap<>();
+        for (String k : entries.getMemberKeys()) {
+            Value v = entries.getMember(k);
+            if (v == null || v.isNull()) {
+                changes.put(k, null);
+            } else if (v.isString()) {
+                changes.put(k, v.asString());
+            } else if (v.isNumber()) {
+                changes.put(k, v.asDouble());
+            } else {
+                changes.put(k, new KVIndex.Blob(toByteArray(Util.copyBytes(v)), false));
+            }
+        }
+        setMany(changes);
+    }
+
+    /**
+     * Host version of {@link #setMany(Value)}.
+     *
+     * @param changes Keys to values, see {@link KVIndex} for the types. A {@code null} value clears the key.
+     */
+    public static void setMany(Map<String, ?> changes) {
+        KVLog l = log;
+        if (l != null) {
+            l.putAll(changes);
+            return;
+        }
+        changes.forEach((k, v) -> {
+            if (v == null) {
+                kv.remove(k);
+            } else {
+                kv.put(k, v);
+            }
+        });
+    }
+
+    /**
+     * Internal method for setting or clearing a key.
+     */
+    private static void store(String k, @Nullable Object v) {
+        KVLog l = log;
+        if (l != null) {
+            if (v == null) {
+                l.remove(k);
+            } else {
+                l.put(k, v);
+            }
+        } else if (v == null) {
             kv.remove(k);
         } else {
             kv.put(k, v);
         }
     }
+
+    /**
+     * Internal method for copying the remaining content of a buffer.
+     */
+    private static byte[] toByteArray(ByteBuffer bb) {
+        byte[] b = new byte[bb.remaining()];
+        bb.duplicate().get(b);
+        return b;
+    }
+
+    /**
+     * Internal method for converting a stored value for the guest.
+     * <br/>
+     * Packed values are wrapped, so the guest can tell them from plain bytes and unpack them.
+     */
+    @Nullable
+    private static Object toGuest(@Nullable Object v) {
+        if (v instanceof KVIndex.Blob b) {
+            return b.packed() ? ProxyObject.fromMap(Map.of("packed", b.data())) : b.data();
+        }
+        return v;
+    }
 }
@@ -0,0 +1,122 @@
+package skjsjhb.rhytick.opfw.je.finder;
+
+import javax.annotation.Nullable;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * In-memory index of the {@link KV} store.
+ * <br/>
+ * Values are kept in a {@link ConcurrentHashMap}, so point reads never block and scale with the number of threads.
+ * Keys are additionally kept sorted for prefix scans. The sorted set changes only when a key is added or removed,
+ * not when its value is updated.
+ * <br/>
+ * Reads are lock-free. Changes lock the index, so that both structures are changed together.
+ * <br/>
+ * A value is a {@link String}, a {@link Double} or a {@link Blob}.
+ */
+public final class KVIndex {
+    private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<>();
+
+    private final Map<String, Object> values = new ConcurrentHashMap<>();
+
+    /**
+     * Remove all entries.
+     */
+    public synchronized void clear() {
+        values.clear();
+        keys.clear();
+    }
+
+    /**
+     * Gets a view of all entries, in no particular order.
+     * <br/>
+     * The view is weakly consistent. Callers which need a snapshot should stop changes meanwhile.
+     */
+    public Set<Map.Entry<String, Object>> entrySet() {
+        return values.entrySet();
+    }
+
+    /**
+     * Get the value of a key.
+     *
+     * @return The value, or {@code null} if not set.
+     */
+    @Nullable
+    public Object get(String k) {
+        return values.get(k);
+    }
+
+    /**
+     * Set a key.
+     *
+     * @return The previous value, or {@code null} if not set.
+     */
+    @Nullable
+    public synchronized Object put(String k, Object v) {
+        Object prev = values.put(k, v);
+        if (prev == null) {
+            keys.add(k);
+        }
+        return prev;
+    }
+
+    /**
+     * Remove a key.
+     *
+     * @return The previous value, or {@code null} if not set.
+     */
+    @Nullable
+    public synchronized Object remove(String k) {
+        Object prev = values.remove(k);
+        if (prev != null) {
+            keys.remove(k);
+        }
+        return prev;
+    }
+
+    /**
+     * Get entries whose keys start with the prefix, in key order.
+     * <br/>
+     * The result is a snapshot. Changes made during the scan may or may not be included.
+     *
+     * @param prefix Key prefix. An empty prefix matches all keys.
+     * @param limit  Maximum number of entries, or 0 for no limit.
+     * @return A map of matched keys to values.
+     */
+    public SortedMap<String, Object> scan(String prefix, int limit) {
+        SortedMap<String, Object> out = new TreeMap<>();
+        for (String k : keys.tailSet(prefix)) {
+            if (!k.startsWith(prefix) || (limit > 0 && out.size() >= limit)) {
+                break;
+            }
+            Object v = values.get(k);
+            if (v != null) { // Removed during the scan
+                out.put(k, v);
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Gets the number of entries.
+     */
+    public int size() {
+        return values.size();
+    }
+
+    /**
+     * Binary value.
+     * <br/>
+     * The data is owned by the index and must not be modified.
+     *
+     * @param data   Content.
+     * @param packed Whether the content is a structured value packed by the guest, rather than plain bytes.
+     */
+    public record Blob(byte[] data, boolean packed) {
+    }
+}
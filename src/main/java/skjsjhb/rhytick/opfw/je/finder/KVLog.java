@@ -0,0 +1,881 @@
+package skjsjhb.rhytick.opfw.je.finder;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * Append-only log backing the {@link KV} store.
+ * <br/>
+ * Every change is appended as a checksummed record. The log is replayed into the in-memory index on open, and a
+ * torn or corrupted tail (e.g. after a crash) is cut off at the last valid record.
+ * <br/>
+ * Records are written by a dedicated writer thread. Changes queued while the writer is busy are written and synced
+ * together (group commit), so the cost of {@code fsync} is shared by all of them. Once the log grows much larger than
+ * the live data, it's compacted by writing a snapshot of the index to a new file and renaming it over the log.
+ * <br/>
+ * In coalescing mode (see {@link #setCoalescing(boolean)}), changes only mark their keys as dirty. Dirty keys are
+ * written with their latest values when a flush is requested, so a key changed many times between two flushes is
+ * written once.
+ * <br/>
+ * If the writer fails, the error is logged once and reported by {@link #flush()}. Later changes still go to the index
+ * but are no longer queued, so the store keeps working in memory only, like a store whose log could not be opened.
+ * <br/>
+ * The index passed to the log is owned by it. Callers may read it directly, but changes must go through
+ * {@link #put(String, Object)} and {@link #remove(String)}, so that the log and the index stay in the same order.
+ */
+public final class KVLog {
+    /**
+     * File header magic, {@code OPKV}.
+     */
+    static final int MAGIC = 0x4F504B56;
+
+    /**
+     * Format version.
+     */
+    static final int VERSION = 2;
+
+    /**
+     * Format version which stores strings only, without a type tag.
+     */
+    static final int VERSION_STRINGS = 1;
+
+    /**
+     * Size of the file header.
+     */
+    static final int FILE_HEADER_SIZE = 8;
+
+    /**
+     * Size of the record header (checksum and length).
+     */
+    static final int RECORD_HEADER_SIZE = 8;
+
+    static final byte OP_PUT = 1;
+
+    static final byte OP_REMOVE = 2;
+
+    static final byte TAG_STRING = 0;
+
+    static final byte TAG_NUMBER = 1;
+
+    static final byte TAG_BYTES = 2;
+
+    static final byte TAG_PACKED = 3;
+
+    private final Path file;
+
+    private final KVIndex index;
+
+    private final boolean sync;
+
+    private final long compactMinSize;
+
+    private final double compactRatio;
+
+    private final int maxPending;
+
+    private final Stats stats = new Stats();
+
+    /**
+     * Records not yet handed to the writer. Guarded by {@code this}, which also orders index changes.
+     */
+    private List<ByteBuffer> pending = new ArrayList<>();
+
+    /**
+     * Sequence number of the last queued record. Guarded by {@code this}.
+     */
+    private long queuedSeq = 0;
+
+    /**
+     * Sequence number of the last record written (and synced, if enabled). Guarded by {@code this}.
+     */
+    private long durableSeq = 0;
+
+    /**
+     * Estimated size of the log if it were compacted now. Guarded by {@code this}.
+     */
+    private long liveBytes = FILE_HEADER_SIZE;
+
+    private boolean closing = false;
+
+    /**
+     * Whether changes are coalesced by key rather than queued. Guarded by {@code this}.
+     */
+    private boolean coalesce = false;
+
+    /**
+     * Keys changed since the last flush in coalescing mode. Guarded by {@code this}.
+     */
+    private Set<String> dirty = new LinkedHashSet<>();
+
+    /**
+     * Number of queued records and dirty keys not yet handed to the writer.
+     */
+    private volatile int dirtyCount = 0;
+
+    private boolean flushRequested = false;
+
+    @Nullable
+    private volatile Consumer<Flush> flushHook;
+
+    /**
+     * Hook called when {@link #dirtyCount} reaches {@link #dirtyThreshold}. Guarded by {@code this}.
+     */
+    @Nullable
+    private Runnable dirtyHook;
+
+    private int dirtyThreshold = 0;
+
+    /**
+     * Format version of the file being replayed.
+     */
+    private int version = VERSION;
+
+    private boolean compactRequested = false;
+
+    @Nullable
+    private IOException failure;
+
+    private FileChannel channel;
+
+    private Thread writer;
+
+    /**
+     * Create a log on the specified file. Nothing is read until {@link #open()}.
+     *
+     * @param file  Log file.
+     * @param index Index to rebuild into.
+     */
+    public KVLog(Path file, KVIndex index) {
+        this.file = file;
+        this.index = index;
+        sync = Cfg.getBoolean("kv.sync", true);
+        compactMinSize = Math.max(0, Cfg.getInt("kv.compact_min_size", 1 << 20));
+        double r = Cfg.getDouble("kv.compact_ratio", 2);
+        compactRatio = r > 1 ? r : 2;
+        maxPending = Math.max(1, Cfg.getInt("kv.max_pending", 65536));
+    }
+
+    /**
+     * Internal method for encoding a record.
+     * <br/>
+     * The payload is {@code op | klen key | [tag vlen value]}, with lengths as 32-bit integers. Strings are in UTF-8
+     * and numbers are 8-byte doubles.
+     */
+    private static ByteBuffer encode(byte op, String k, @Nullable Object v) {
+        byte[] kb = k.getBytes(StandardCharsets.UTF_8);
+        byte[] vb = switch (v) {
+            case null -> null;
+            case String str -> str.getBytes(StandardCharsets.UTF_8);
+            case Double d -> ByteBuffer.allocate(Double.BYTES).putDouble(d).array();
+            case KVIndex.Blob b -> b.data();
+            default -> throw new IllegalArgumentException("unsupported value type: " + v.getClass());
+        };
+        int len = 1 + 4 + kb.length + (vb == null ? 0 : 1 + 4 + vb.length);
+        ByteBuffer bb = ByteBuffer.allocate(RECORD_HEADER_SIZE + len);
+        bb.position(RECORD_HEADER_SIZE);
+        bb.put(op).putInt(kb.length).put(kb);
+        if (vb != null) {
+            bb.put(tagOf(v)).putInt(vb.length).put(vb);
+        }
+        CRC32C crc = new CRC32C();
+        crc.update(bb.array(), RECORD_HEADER_SIZE, len);
+        bb.putInt(0, (int) crc.getValue()).putInt(4, len);
+        return bb.flip();
+    }
+
+    /**
+     * Internal method for estimating the size of a record.
+     */
+    private static long recordSize(String k, Object v) {
+        long vs = switch (v) {
+            case String str -> utf8Length(str);
+            case KVIndex.Blob b -> b.data().length;
+            default -> Double.BYTES;
+        };
+        return RECORD_HEADER_SIZE + 10 + utf8Length(k) + vs;
+    }
+
+    /**
+     * Internal method for getting the type tag of a value.
+     */
+    private static byte tagOf(Object v) {
+        return switch (v) {
+            case String ignored -> TAG_STRING;
+            case Double ignored -> TAG_NUMBER;
+            case KVIndex.Blob b -> b.packed() ? TAG_PACKED : TAG_BYTES;
+            default -> throw new IllegalArgumentException("unsupported value type: " + v.getClass());
+        };
+    }
+
+    /**
+     * Internal method for counting UTF-8 bytes without encoding.
+     */
+    private static int utf8Length(String s) {
+        int n = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                n += 1;
+            } else if (c < 0x800) {
+                n += 2;
+            } else if (Character.isHighSurrogate(c)) {
+                n += 4;
+                i++;
+            } else {
+                n += 3;
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Stop the writer after all queued records are written, and close the file.
+     */
+    public void close() {
+        synchronized (this) {
+            if (closing) {
+                return;
+            }
+            closing = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        try {
+            channel.close();
+        } catch (IOException e) {
+            System.err.println("Could not close KV log: " + e);
+        }
+    }
+
+    /**
+     * Compact the log now, regardless of its size, and wait for it to finish.
+     * <br/>
+     * Compaction runs on the writer thread. Changes can still be made meanwhile.
+     *
+     * @throws IOException If the writer has failed.
+     */
+    public void compact() throws IOException {
+        synchronized (this) {
+            long c = stats.compactions;
+            compactRequested = true;
+            notifyAll();
+            while (stats.compactions == c && failure == null && writer.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while compacting", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Write a snapshot of the index and replace the log with it. Called on the writer thread only.
+     *
+     * @throws IOException If the snapshot could not be written or renamed.
+     */
+    private void doCompact() throws IOException {
+        List<Map.Entry<String, Object>> snapshot;
+        long seq;
+        synchronized (this) {
+            snapshot = new ArrayList<>(index.size());
+            for (var e : index.entrySet()) {
+                snapshot.add(Map.entry(e.getKey(), e.getValue())); // Changes wait for the lock meanwhile
+            }
+            seq = queuedSeq;
+            pending.clear(); // Contained in the snapshot
+            dirty.clear();
+            dirtyCount = 0;
+            notifyAll();
+        }
+        long start = System.nanoTime();
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        long size;
+        try (FileChannel ch = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            writeHeader(ch);
+            ByteBuffer[] batch = new ByteBuffer[Math.min(1024, Math.max(1, snapshot.size()))];
+            int n = 0;
+            for (var e : snapshot) {
+                batch[n++] = encode(OP_PUT, e.getKey(), e.getValue());
+                if (n == batch.length) {
+                    writeFully(ch, batch, n);
+                    n = 0;
+                }
+            }
+            writeFully(ch, batch, n);
+            ch.force(true);
+            size = ch.size();
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        FileChannel old = channel;
+        channel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.READ);
+        channel.position(channel.size());
+        old.close();
+        stats.lastCompactionNanos = System.nanoTime() - start;
+        stats.logBytes = size;
+        synchronized (this) {
+            durableSeq = Math.max(durableSeq, seq);
+            liveBytes = size;
+            stats.compactions++;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait until all changes made before this call are written to the log, and synced if {@code kv.sync} is set.
+     *
+     * @throws IOException If the writer has failed.
+     */
+    public void flush() throws IOException {
+        synchronized (this) {
+            long target = queuedSeq;
+            flushRequested = true;
+            notifyAll();
+            while (durableSeq < target && failure == null && writer.isAlive()) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("interrupted while flushing", e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Gets the number of queued records and dirty keys not yet handed to the writer.
+     * <br/>
+     * This method can be called from any thread, and does not lock.
+     */
+    public int getDirtyCount() {
+        return dirtyCount;
+    }
+
+    /**
+     * Gets the statistics of this log.
+     */
+    public Stats getStats() {
+        return stats;
+    }
+
+    /**
+     * Open the log, replay it into the index, and start the writer.
+     * <br/>
+     * A log which does not exist yet is created.
+     *
+     * @throws IOException If the log could not be read or created, or is not a KV log.
+     */
+    public void open() throws IOException {
+        long start = System.nanoTime();
+        Files.createDirectories(file.getParent());
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            long size = channel.size();
+            if (size < FILE_HEADER_SIZE) {
+                channel.truncate(0);
+                writeHeader(channel);
+                channel.force(true);
+            } else {
+                long end = replay();
+                if (end < size) {
+                    System.err.printf("KV log has a damaged tail, dropping %d bytes.\n", size - end);
+                    channel.truncate(end);
+                    channel.force(true);
+                }
+                if (version != VERSION) {
+                    System.out.printf("Upgrading KV log from version %d.\n", version);
+                    doCompact(); // Records are appended in the new format only
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+        channel.position(channel.size());
+        stats.logBytes = channel.size();
+        stats.loadNanos = System.nanoTime() - start;
+        writer = Thread.ofPlatform().name("KV-Writer").daemon(true).start(this::writeLoop);
+    }
+
+    /**
+     * Ask the writer to write all dirty keys now, without waiting for it.
+     */
+    public synchronized void requestFlush() {
+        flushRequested = true;
+        notifyAll();
+    }
+
+    /**
+     * Switch coalescing mode.
+     * <br/>
+     * In coalescing mode, changes are written only when {@link #requestFlush()} or {@link #flush()} is called.
+     * Switching it off requests a flush of the remaining dirty keys.
+     */
+    public synchronized void setCoalescing(boolean c) {
+        coalesce = c;
+        if (!c && !dirty.isEmpty()) {
+            flushRequested = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Set the hook called by the writer thread after each write.
+     *
+     * @param h Hook, or {@code null} to remove.
+     */
+    public void setFlushHook(@Nullable Consumer<Flush> h) {
+        flushHook = h;
+    }
+
+    /**
+     * Set the hook called when the number of dirty keys and queued records reaches a threshold.
+     * <br/>
+     * The hook is called once each time the count crosses the threshold, on the thread making the change and with the
+     * log locked, so it must not block or change the log.
+     *
+     * @param threshold Count calling the hook.
+     * @param h         Hook, or {@code null} to remove.
+     */
+    public synchronized void setDirtyHook(int threshold, @Nullable Runnable h) {
+        dirtyThreshold = threshold;
+        dirtyHook = h;
+    }
+
+    /**
+     * Set a key and queue the change.
+     *
+     * @param v A {@link String}, a {@link Double} or a {@link KVIndex.Blob}.
+     */
+    public void put(String k, Object v) {
+        ByteBuffer rec = coalesce ? null : encode(OP_PUT, k, v);
+        synchronized (this) {
+            awaitRoom();
+            Object prev = index.put(k, v);
+            liveBytes += recordSize(k, v) - (prev == null ? 0 : recordSize(k, prev));
+            if (coalesce) {
+                markDirty(k);
+            } else {
+                queue(rec == null ? encode(OP_PUT, k, v) : rec);
+            }
+        }
+    }
+
+    /**
+     * Apply a batch of changes and queue them, without letting other changes interleave.
+     *
+     * @param changes Keys to values. A {@code null} value removes the key. Must not be modified meanwhile.
+     */
+    public void putAll(Map<String, ?> changes) {
+        List<ByteBuffer> recs = new ArrayList<>(changes.size());
+        for (var e : changes.entrySet()) {
+            recs.add(e.getValue() == null || coalesce ? null : encode(OP_PUT, e.getKey(), e.getValue()));
+        }
+        synchronized (this) {
+            awaitRoom(); // Once, the queue may go over the limit by one batch
+            int i = 0;
+            for (var e : changes.entrySet()) {
+                ByteBuffer rec = recs.get(i++);
+                String k = e.getKey();
+                if (rec == null && e.getValue() != null && !coalesce) {
+                    rec = encode(OP_PUT, k, e.getValue()); // Mode changed meanwhile
+                }
+                if (e.getValue() == null) {
+                    Object prev = index.remove(k);
+                    if (prev != null) {
+                        liveBytes -= recordSize(k, prev);
+                        if (coalesce) {
+                            markDirty(k);
+                        } else {
+                            queue(encode(OP_REMOVE, k, null));
+                        }
+                    }
+                } else {
+                    Object prev = index.put(k, e.getValue());
+                    liveBytes += recordSize(k, e.getValue()) - (prev == null ? 0 : recordSize(k, prev));
+                    if (coalesce) {
+                        markDirty(k);
+                    } else {
+                        queue(rec);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Wait until there is room for a record in the queue. Must hold the lock.
+     * <br/>
+     * This keeps the memory bounded when changes are made faster than the disk can take.
+     */
+    private void awaitRoom() {
+        while (pending.size() >= maxPending && !closing && failure == null && writer != null && writer.isAlive()) {
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Internal method for queueing a record. Must hold the lock.
+     * <br/>
+     * Once the writer has failed, records are no longer queued, and changes are only kept in the index.
+     */
+    private void queue(ByteBuffer rec) {
+        if (failure != null) {
+            return;
+        }
+        pending.add(rec);
+        queuedSeq++;
+        countDirty();
+        if (pending.size() == 1) {
+            notifyAll(); // Wake up the writer
+        }
+    }
+
+    /**
+     * Internal method for counting a dirty key or a queued record. Must hold the lock.
+     */
+    private void countDirty() {
+        if (++dirtyCount == dirtyThreshold && dirtyHook != null) {
+            dirtyHook.run();
+        }
+    }
+
+    /**
+     * Internal method for marking a key as dirty in coalescing mode. Must hold the lock.
+     */
+    private void markDirty(String k) {
+        if (failure != null) {
+            return;
+        }
+        if (dirty.add(k)) {
+            countDirty();
+        }
+        queuedSeq++;
+    }
+
+    /**
+     * Remove a key and queue the change.
+     */
+    public void remove(String k) {
+        ByteBuffer rec = encode(OP_REMOVE, k, null);
+        synchronized (this) {
+            awaitRoom();
+            Object prev = index.remove(k);
+            if (prev == null) {
+                return; // Nothing to log
+            }
+            liveBytes -= recordSize(k, prev);
+            if (coalesce) {
+                markDirty(k);
+            } else {
+                queue(rec);
+            }
+        }
+    }
+
+    /**
+     * Read all records into the index.
+     *
+     * @return Position after the last valid record.
+     */
+    private long replay() throws IOException {
+        MappedByteBuffer m = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        try {
+            return replay(m);
+        } finally {
+            Finder.unmap(m); // A mapped file cannot be truncated or replaced on Windows
+        }
+    }
+
+    /**
+     * Internal method for replaying the mapped content of the log. No reference to the buffer is kept.
+     */
+    private long replay(ByteBuffer bb) throws IOException {
+        if (bb.getInt() != MAGIC) {
+            throw new IOException("not a KV log: " + file);
+        }
+        int ver = bb.getInt();
+        if (ver != VERSION && ver != VERSION_STRINGS) {
+            throw new IOException("unsupported KV log version: " + ver);
+        }
+        version = ver;
+        CRC32C crc = new CRC32C();
+        long live = FILE_HEADER_SIZE;
+        while (bb.remaining() >= RECORD_HEADER_SIZE) {
+            int pos = bb.position();
+            int sum = bb.getInt();
+            int len = bb.getInt();
+            if (len < 5 || len > bb.remaining()) {
+                bb.position(pos);
+                break; // Torn
+            }
+            crc.reset();
+            crc.update(bb.slice(bb.position(), len));
+            if ((int) crc.getValue() != sum) {
+                bb.position(pos);
+                break; // Corrupted
+            }
+            byte op = bb.get();
+            String k = readString(bb);
+            if (op == OP_PUT) {
+                Object v = ver == VERSION_STRINGS ? readString(bb) : readValue(bb);
+                Object prev = index.put(k, v);
+                live += recordSize(k, v) - (prev == null ? 0 : recordSize(k, prev));
+            } else {
+                Object prev = index.remove(k);
+                live -= prev == null ? 0 : recordSize(k, prev);
+            }
+            stats.replayed++;
+        }
+        liveBytes = live;
+        return bb.position();
+    }
+
+    /**
+     * Internal method for reading a tagged value.
+     */
+    private static Object readValue(ByteBuffer bb) throws IOException {
+        byte tag = bb.get();
+        int n = bb.getInt();
+        return switch (tag) {
+            case TAG_STRING -> {
+                byte[] b = new byte[n];
+                bb.get(b);
+                yield new String(b, StandardCharsets.UTF_8);
+            }
+            case TAG_NUMBER -> bb.getDouble();
+            case TAG_BYTES, TAG_PACKED -> {
+                byte[] b = new byte[n];
+                bb.get(b);
+                yield new KVIndex.Blob(b, tag == TAG_PACKED);
+            }
+            default -> throw new IOException("unknown KV value type: " + tag);
+        };
+    }
+
+    /**
+     * Internal method for reading a length-prefixed UTF-8 string.
+     */
+    private static String readString(ByteBuffer bb) {
+        int n = bb.getInt();
+        byte[] b = new byte[n];
+        bb.get(b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Check if the log is large enough to be compacted.
+     */
+    private synchronized boolean shouldCompact() {
+        return stats.logBytes > compactMinSize && stats.logBytes > liveBytes * compactRatio;
+    }
+
+    /**
+     * Internal method for writing buffers completely.
+     */
+    private static void writeFully(FileChannel ch, ByteBuffer[] bufs, int n) throws IOException {
+        int i = 0;
+        while (i < n) {
+            ch.write(bufs, i, n - i);
+            while (i < n && !bufs[i].hasRemaining()) {
+                i++;
+            }
+        }
+    }
+
+    /**
+     * Internal method for writing the file header.
+     */
+    private static void writeHeader(FileChannel ch) throws IOException {
+        ByteBuffer h = ByteBuffer.allocate(FILE_HEADER_SIZE).putInt(MAGIC).putInt(VERSION).flip();
+        while (h.hasRemaining()) {
+            ch.write(h);
+        }
+    }
+
+    /**
+     * Writer thread body.
+     */
+    private void writeLoop() {
+        while (true) {
+            List<ByteBuffer> batch;
+            Set<String> keys = null;
+            Object[] values = null;
+            long seq;
+            boolean compact;
+            synchronized (this) {
+                while (pending.isEmpty() && !shouldDrainDirty() && !closing && !compactRequested) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ignored) {
+                    }
+                }
+                boolean drain = !dirty.isEmpty() && (shouldDrainDirty() || closing);
+                if (pending.isEmpty() && !drain && !compactRequested) {
+                    return; // Closing and nothing left
+                }
+                batch = pending;
+                pending = new ArrayList<>(batch.size());
+                if (drain) {
+                    // Swap in a new set, and take the latest values as a snapshot
+                    keys = dirty;
+                    dirty = new LinkedHashSet<>();
+                    values = new Object[keys.size()];
+                    int i = 0;
+                    for (String k : keys) {
+                        values[i++] = index.get(k);
+                    }
+                }
+                flushRequested = false;
+                dirtyCount = 0;
+                seq = queuedSeq;
+                compact = compactRequested;
+                compactRequested = false;
+                notifyAll(); // Room for writers waiting in awaitRoom
+            }
+            try {
+                long start = System.nanoTime();
+                if (keys != null) {
+                    int i = 0;
+                    for (String k : keys) {
+                        Object v = values[i++];
+                        batch.add(v == null ? encode(OP_REMOVE, k, null) : encode(OP_PUT, k, v));
+                    }
+                }
+                long bytes = 0;
+                for (ByteBuffer b : batch) {
+                    bytes += b.remaining();
+                }
+                if (!batch.isEmpty()) {
+                    writeFully(channel, batch.toArray(new ByteBuffer[0]), batch.size());
+                    if (sync) {
+                        channel.force(false);
+                    }
+                    stats.commits++;
+                    stats.records += batch.size();
+                    stats.logBytes += bytes;
+                }
+                Consumer<Flush> h = flushHook;
+                if (h != null && !batch.isEmpty()) {
+                    // Before waking up flush(), so its callers see the hook called
+                    h.accept(new Flush(batch.size(), bytes, System.nanoTime() - start));
+                }
+                synchronized (this) {
+                    durableSeq = Math.max(durableSeq, seq);
+                    notifyAll();
+                }
+                if (compact || shouldCompact()) {
+                    doCompact();
+                }
+            } catch (IOException e) {
+                System.err.println("Could not write KV log, changes will not be saved: " + e);
+                synchronized (this) {
+                    failure = e;
+                    pending = new ArrayList<>(); // Never written, and no more will be queued
+                    dirty = new LinkedHashSet<>();
+                    dirtyCount = 0;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Check if dirty keys should be written now. Must hold the lock.
+     */
+    private boolean shouldDrainDirty() {
+        return !dirty.isEmpty() && (flushRequested || !coalesce);
+    }
+
+    /**
+     * Result of one write, passed to the flush hook.
+     *
+     * @param records Number of records written.
+     * @param bytes   Number of bytes written.
+     * @param nanos   Time taken to encode, write and sync.
+     */
+    public record Flush(int records, long bytes, long nanos) {
+    }
+
+    /**
+     * Statistics of a log.
+     * <br/>
+     * Fields are updated by the writer thread and read without synchronization, thus only approximate.
+     */
+    public static final class Stats {
+        /**
+         * Number of group commits.
+         */
+        public volatile long commits;
+
+        /**
+         * Number of compactions.
+         */
+        public volatile long compactions;
+
+        /**
+         * Duration of the last compaction.
+         */
+        public volatile long lastCompactionNanos;
+
+        /**
+         * Time taken to open and replay the log.
+         */
+        public volatile long loadNanos;
+
+        /**
+         * Current size of the log file.
+         */
+        public volatile long logBytes;
+
+        /**
+         * Number of records written since open.
+         */
+        public volatile long records;
+
+        /**
+         * Number of records replayed on open.
+         */
+        public volatile long replayed;
+
+        @Override
+        public String toString() {
+            long c = commits;
+            return String.format("%d records in %d commits (%.1f per commit), %d compactions (last %.1f ms), " +
+                            "log %d KiB, loaded %d records in %.1f ms",
+                    records, c, c == 0 ? 0.0 : (double) records / c, compactions, lastCompactionNanos / 1e6,
+                    logBytes / 1024, replayed, loadNanos / 1e6);
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package skjsjhb.rhytick.opfw.je.finder;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Lane;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.ServiceTask;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.function.Consumer;
+
+/**
+ * Service flushing {@link KV} changes incrementally from a loop.
+ * <br/>
+ * While the service runs, the log coalesces changes by key (see {@link KVLog#setCoalescing(boolean)}). The service
+ * requests a flush once the number of dirty keys reaches cfg {@code kv.flush_threshold}, or cfg
+ * {@code kv.flush_interval} milliseconds have passed since the last one. The log writer takes a snapshot of the
+ * dirty keys and writes them on its own thread, so the loop never waits for the disk.
+ * <br/>
+ * The service runs as a timer between flushes, and reaching the threshold pushes a flush to the loop from the log
+ * (see {@link KVLog#setDirtyHook(int, Runnable)}), so the loop can sleep while nothing is changed.
+ * <br/>
+ * When the loop stops, the service makes a final flush and waits for it, then switches coalescing off.
+ * <br/>
+ * The service runs on the {@link Lane#BACKGROUND} lane.
+ */
+public class KVPersistence extends ServiceTask {
+    /**
+     * Hook receiving the result of each flush, or {@code null}.
+     */
+    @Nullable
+    protected final Consumer<KVLog.Flush> hook;
+
+    protected final long intervalNanos;
+
+    protected final int threshold;
+
+    protected volatile long bytesWritten = 0;
+
+    protected volatile long flushes = 0;
+
+    protected long lastFlush;
+
+    @Nullable
+    protected KVLog log;
+
+    protected volatile long maxFlushNanos = 0;
+
+    /**
+     * Create a service without a metrics hook.
+     */
+    public KVPersistence() {
+        this(null);
+    }
+
+    /**
+     * Create a service.
+     *
+     * @param hook Hook receiving the result of each flush on the writer thread, or {@code null}.
+     */
+    public KVPersistence(@Nullable Consumer<KVLog.Flush> hook) {
+        this.hook = hook;
+        lane = Lane.BACKGROUND;
+        intervalNanos = Math.max(0, Cfg.getInt("kv.flush_interval", 1000)) * 1_000_000L;
+        threshold = Math.max(1, Cfg.getInt("kv.flush_threshold", 1024));
+    }
+
+    @Override
+    public boolean always() {
+        KVLog l = log;
+        if (l == null || l != KV.getLog()) {
+            return false; // Not loaded or reloaded
+        }
+        long now = System.nanoTime();
+        int n = l.getDirtyCount();
+        if (n == 0) {
+            lastFlush = now; // Nothing to flush, check again after an interval
+        } else if (n >= threshold || now - lastFlush >= intervalNanos) {
+            l.requestFlush();
+            lastFlush = now;
+        }
+        return true;
+    }
+
+    /**
+     * Internal method for flushing when the threshold is reached. Runs on the loop.
+     */
+    protected void flushDirty() {
+        KVLog l = log;
+        if (l != null && l == KV.getLog()) {
+            l.requestFlush();
+            lastFlush = System.nanoTime();
+        }
+    }
+
+    @Override
+    protected long getNextDelay() {
+        return Math.max(1, intervalNanos - (System.nanoTime() - lastFlush));
+    }
+
+    /**
+     * Gets the total number of bytes written while the service runs.
+     */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    /**
+     * Gets the number of flushes done while the service runs.
+     */
+    public long getFlushCount() {
+        return flushes;
+    }
+
+    /**
+     * Gets the longest time taken by a flush.
+     */
+    public long getMaxFlushNanos() {
+        return maxFlushNanos;
+    }
+
+    @Override
+    public void initial() {
+        log = KV.getLog();
+        if (log == null) {
+            System.err.println("KV is not loaded, changes will not be persisted by the service.");
+            return;
+        }
+        lastFlush = System.nanoTime();
+        log.setFlushHook(this::onFlush);
+        Loop lp = getLoop();
+        log.setDirtyHook(threshold, () -> lp.push(lane, this::flushDirty));
+        log.setCoalescing(true);
+    }
+
+    /**
+     * Internal method for collecting metrics. Called on the writer thread.
+     */
+    protected void onFlush(KVLog.Flush f) {
+        flushes++;
+        bytesWritten += f.bytes();
+        maxFlushNanos = Math.max(maxFlushNanos, f.nanos());
+        if (hook != null) {
+            hook.accept(f);
+        }
+    }
+
+    @Override
+    public void stop() {
+        KVLog l = log;
+        if (l == null) {
+            return;
+        }
+        try {
+            l.flush();
+        } catch (IOException e) {
+            System.err.println("Could not flush KV: " + e);
+        }
+        l.setDirtyHook(0, null);
+        l.setCoalescing(false);
+        l.setFlushHook(null);
+        log = null;
+        System.out.printf("KV persistence stopped. (%d flushes, %d KiB, longest %.1f ms)\n",
+                flushes, bytesWritten / 1024, maxFlushNanos / 1e6);
+    }
+}
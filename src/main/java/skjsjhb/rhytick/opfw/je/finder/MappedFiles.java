@@ -0,0 +1,103 @@
+package skjsjhb.rhytick.opfw.je.finder;
+
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * Files mapped by the guest script of one env.
+ * <br/>
+ * Mapping the same file again returns the existing mapping, unless the file size has changed. All mappings are
+ * released once the env stops, see {@link ScriptEnv#getAttachment(Class, java.util.function.Supplier)}.
+ */
+public final class MappedFiles implements AutoCloseable {
+    /**
+     * Mappings of all envs which have not been released, by identity.
+     * <br/>
+     * Any direct buffer is a {@link MappedByteBuffer}, so the type alone does not tell a file mapping.
+     */
+    private static final Set<ByteBuffer> LIVE = Collections.synchronizedSet(
+            Collections.newSetFromMap(new IdentityHashMap<>()));
+
+    /**
+     * Current mappings by virtual path.
+     */
+    private final Map<String, MappedByteBuffer> mappings = new HashMap<>();
+
+    /**
+     * Mappings replaced by a newer one. The guest might still hold them.
+     */
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+
+    private boolean closed = false;
+
+    /**
+     * Gets the mapping table of the specified env.
+     */
+    public static MappedFiles of(ScriptEnv env) {
+        return env.getAttachment(MappedFiles.class, MappedFiles::new);
+    }
+
+    /**
+     * Check if a buffer is a mapping made by an env, which is released when the env stops.
+     *
+     * @param b Buffer to check. Slices and duplicates of a mapping are not recognized.
+     */
+    public static boolean isMapped(ByteBuffer b) {
+        return LIVE.contains(b);
+    }
+
+    /**
+     * Release all mappings.
+     * <br/>
+     * This must only be called when no code can access the mappings anymore.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        mappings.values().forEach(LIVE::remove);
+        retired.forEach(LIVE::remove);
+        mappings.values().forEach(Finder::unmap);
+        retired.forEach(Finder::unmap);
+        mappings.clear();
+        retired.clear();
+    }
+
+    /**
+     * Gets the number of live mappings.
+     */
+    public synchronized int getCount() {
+        return mappings.size() + retired.size();
+    }
+
+    /**
+     * Map a file, or reuse an existing mapping of it.
+     *
+     * @param vpt File virtual path.
+     * @return A read-only buffer of the whole file.
+     * @throws IOException If the file cannot be mapped.
+     */
+    public synchronized MappedByteBuffer map(String vpt) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("env has stopped");
+        }
+        Finder.checkPathBounds(vpt);
+        String key = Finder.resolve(vpt);
+        MappedByteBuffer prev = mappings.get(key);
+        if (prev != null && prev.capacity() == Files.size(Paths.get(key))) {
+            return prev;
+        }
+        MappedByteBuffer m = Finder.mapFile(vpt);
+        LIVE.add(m);
+        if (prev != null) {
+            retired.add(prev);
+        }
+        mappings.put(key, m);
+        return m;
+    }
+}
@@ -3,9 +3,13 @@ package skjsjhb.rhytick.opfw.je.launcher;
 import skjsjhb.rhytick.opfw.je.dce.Codeload;
 import skjsjhb.rhytick.opfw.je.dce.Emulation;
 import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
 import skjsjhb.rhytick.opfw.je.dce.WorkerFactory;
+import skjsjhb.rhytick.opfw.je.dce.WorkerPool;
 import skjsjhb.rhytick.opfw.je.finder.Finder;
 import skjsjhb.rhytick.opfw.je.finder.KV;
+import skjsjhb.rhytick.opfw.je.finder.KVPersistence;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
 
 import javax.swing.*;
 import java.io.IOException;
@@ -13,9 +17,14 @@ import java.io.IOException;
 /**
  * Main entry class for the OPFW (OPKJE) support.
  * This launcher starts all services, call the main script entry and maintain all necessary envs.
+ * <br/>
+ * With argument {@code --training}, the launcher prepares everything as usual, including the preload script, then
+ * exits without running the main script. This is used for recording the classes loaded at startup into a CDS archive.
  */
 public final class Launcher {
     public static void main(String[] args) throws Exception {
+        StartupTimeline.begin();
+        boolean training = args.length > 0 && args[0].equals("--training");
         // Set UI LAF for message displaying
         try {
             UIManager.setLookAndFeel(UIManager.getSystemLookAndFeelClassName());
@@ -23,6 +32,7 @@ public final class Launcher {
                  IllegalAccessException e) {
             System.out.println("Could not initialize UI look and feel: " + e);
         }
+        StartupTimeline.mark("Look and feel");
         Thread.setDefaultUncaughtExceptionHandler((t, e) -> {
             Reporter.reportError(e, "The application cannot continue due to this failure.");
             System.exit(1);
@@ -32,16 +42,31 @@ public final class Launcher {
         System.out.println("This is OPKJE, JVM edition of the OPK compatibility layer.");
         System.out.println("OPKJE is part of the OPFW Series.");
         Emulation me = new Emulation();
+        StartupTimeline.mark("Main env");
         me.prepareRun();
+        StartupTimeline.mark("Preload script");
+        StartupTimeline.print();
+        if (training) {
+            System.out.println("Training run finished.");
+            prepareExit();
+            return;
+        }
+        if (Cfg.getBoolean("kv.persistence", true)) {
+            me.getEnv().getLoop().push(new KVPersistence());
+        }
+        MetricsDump.install(me.getEnv().getLoop());
+        WorkerPool.install(me.getEnv().getLoop());
         String mainEntry = Cfg.getValue("emulation.entry", "/opt/main.js");
-        me.start(Codeload.readScriptSource(mainEntry));
+        me.start(Codeload.loadScript(mainEntry));
         prepareExit();
     }
 
     private static void prepareExit() {
         System.out.println("Stopping!");
         WorkerFactory.stopAll();
-        KV.save();
+        KV.close();
+        ScriptEnv.closeSharedEngine();
+        Scheduler.shutdown();
     }
 
     private static void prepareLaunch() {
@@ -51,14 +76,23 @@ public final class Launcher {
             Reporter.reportError(e, "Built-in configuration won't be applied. Therefore, the application will" +
                     " likely to malfunction.");
         }
+        StartupTimeline.mark("Bundled cfg");
         try {
             Finder.configure();
         } catch (IOException e) {
             Reporter.reportError(e, "OPKJE cannot save or load data. The application cannot continue.");
             System.exit(1);
         }
+        StartupTimeline.mark("Finder");
         Cfg.loadUserCfg(); // Make sure user cfg overrides the built-in one.
+        StartupTimeline.mark("User cfg");
+        Codeload.verifyManifest(Cfg.getValue("emulation.manifest", "/opt/manifest"));
+        StartupTimeline.mark("Script manifest");
         KV.load();
+        StartupTimeline.mark("KV");
         Modular.autoRegister();
+        StartupTimeline.mark("Module registration");
+        WorkerPool.refill();
+        StartupTimeline.mark("Worker pool");
     }
 }
@@ -0,0 +1,51 @@
+package skjsjhb.rhytick.opfw.je.launcher;
+
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.LoopMetrics;
+import skjsjhb.rhytick.opfw.je.schedule.Scheduler;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Periodic dump of {@link LoopMetrics#report()} to a file.
+ * <br/>
+ * The report is taken on a loop every cfg {@code schedule.metrics_dump} milliseconds (0 to disable), and written to
+ * cfg {@code schedule.metrics_file} under the root of {@link Finder} on the I/O executor, replacing the last one.
+ */
+public final class MetricsDump {
+    /**
+     * Start dumping periodically with a timer on a loop.
+     * <br/>
+     * This method must be called on the home thread of the loop.
+     *
+     * @param l Loop to run the timer.
+     */
+    public static void install(Loop l) {
+        long interval = Cfg.getInt("schedule.metrics_dump", 5000) * 1_000_000L;
+        if (interval <= 0) {
+            return;
+        }
+        l.scheduleRepeating(MetricsDump::dump, interval, interval);
+    }
+
+    /**
+     * Take a report and write it.
+     *
+     * @return A future completed once written.
+     */
+    public static CompletableFuture<Void> dump() {
+        String pt = Cfg.getValue("schedule.metrics_file", "/osr/metrics");
+        ByteBuffer buf = StandardCharsets.UTF_8.encode(LoopMetrics.report());
+        return Scheduler.runIO(() -> {
+            Finder.writeFileBuffer(pt, buf);
+            return (Void) null;
+        }).whenComplete((r, e) -> {
+            if (e != null) {
+                System.err.println("Could not dump loop metrics: " + e);
+            }
+        });
+    }
+}
@@ -0,0 +1,65 @@
+package skjsjhb.rhytick.opfw.je.launcher;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Time spent in each phase of the launch.
+ * <br/>
+ * Phases are always recorded, as taking the time is cheap. The timeline is printed only if cfg
+ * {@code launcher.startup_timeline} is set.
+ */
+public final class StartupTimeline {
+    private static final List<Phase> phases = new ArrayList<>();
+
+    /**
+     * Time of the first access, which is at the start of the launcher.
+     */
+    private static final long origin = System.nanoTime();
+
+    private static long last = origin;
+
+    /**
+     * Start the timeline. This should be called first in the launcher, so the first phase is timed from there.
+     */
+    public static void begin() {
+        // Initializes the origin
+    }
+
+    /**
+     * Record the end of a phase, which started at the end of the previous one.
+     *
+     * @param name Phase name.
+     */
+    public static synchronized void mark(String name) {
+        long now = System.nanoTime();
+        phases.add(new Phase(name, now - last));
+        last = now;
+    }
+
+    /**
+     * Print the timeline if enabled.
+     */
+    public static synchronized void print() {
+        if (!Cfg.getBoolean("launcher.startup_timeline", false)) {
+            return;
+        }
+        StringBuilder sb = new StringBuilder("Startup timeline:\n");
+        // JVM uptime is only read here, so the management classes are not loaded unless enabled
+        long total = ManagementFactory.getRuntimeMXBean().getUptime() * 1_000_000 - (System.nanoTime() - origin);
+        sb.append(String.format("  %-24s %9.1f ms\n", "JVM start", total / 1e6));
+        for (Phase p : phases) {
+            sb.append(String.format("  %-24s %9.1f ms\n", p.name, p.nanos / 1e6));
+            total += p.nanos;
+        }
+        sb.append(String.format("  %-24s %9.1f ms", "Total", total / 1e6));
+        System.out.println(sb);
+    }
+
+    /**
+     * A finished phase.
+     */
+    private record Phase(String name, long nanos) {
+    }
+}
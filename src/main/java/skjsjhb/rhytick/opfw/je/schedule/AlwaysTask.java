@@ -19,7 +19,7 @@ public abstract class AlwaysTask extends Task {
     @Override
     public void execute() {
         if (always() && getLoop() != null && getLoop().isRunning()) {
-            getLoop().push(this);
+            getLoop().repush(this);
         }
     }
 }
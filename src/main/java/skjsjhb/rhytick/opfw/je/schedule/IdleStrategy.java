@@ -0,0 +1,63 @@
+package skjsjhb.rhytick.opfw.je.schedule;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import java.util.Locale;
+
+/**
+ * Strategies for a {@link Loop} to wait when its task queue is empty.
+ * <br/>
+ * The strategy trades wake-up latency for CPU usage. Spinning reacts immediately but takes a full core even
+ * when nothing is queued, while parking and blocking leave the core to other threads until a task is pushed.
+ */
+public enum IdleStrategy {
+    /**
+     * Keep polling the queue without pausing.
+     */
+    SPIN,
+
+    /**
+     * Spin for a while, then yield the thread on each empty poll.
+     */
+    YIELD,
+
+    /**
+     * Spin for a while, then park the thread until a task is pushed.
+     */
+    PARK,
+
+    /**
+     * Wait on a monitor as soon as the queue is empty.
+     */
+    BLOCK;
+
+    /**
+     * Read the strategy from the cfg.
+     *
+     * @param k  Cfg key. The value is one of {@code spin}, {@code yield}, {@code park} or {@code block}.
+     * @param dv Default strategy if the key is not set or the value is invalid.
+     * @return The selected strategy.
+     */
+    public static IdleStrategy fromCfg(String k, IdleStrategy dv) {
+        return fromName(Cfg.getValue(k), dv);
+    }
+
+    /**
+     * Get the strategy by its (case-insensitive) name.
+     *
+     * @param name Strategy name.
+     * @param dv   Default strategy if the name is not valid.
+     * @return The selected strategy.
+     */
+    public static IdleStrategy fromName(String name, IdleStrategy dv) {
+        if (name == null || name.isEmpty()) {
+            return dv;
+        }
+        try {
+            return valueOf(name.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ignored) {
+            System.err.println("Unknown idle strategy: " + name);
+            return dv;
+        }
+    }
+}
@@ -0,0 +1,31 @@
+package skjsjhb.rhytick.opfw.je.schedule;
+
+/**
+ * Priority lanes of a {@link Loop}, from the highest to the lowest.
+ * <br/>
+ * Each lane is a FIFO queue. In each turn, the loop drains the input and render lanes, then spends at most a
+ * time budget on the normal and background lanes, so a flood of low-priority tasks cannot delay a frame for more
+ * than one budget.
+ */
+public enum Lane {
+    /**
+     * Input events. Always drained in each turn.
+     */
+    INPUT,
+
+    /**
+     * Frame work. Always drained in each turn, after input.
+     */
+    RENDER,
+
+    /**
+     * Ordinary tasks, including guest callbacks. Limited by the turn budget.
+     */
+    NORMAL,
+
+    /**
+     * Bulk work which runs only with the budget left by the normal lane. One task still runs in each turn, so it
+     * cannot be starved completely.
+     */
+    BACKGROUND
+}
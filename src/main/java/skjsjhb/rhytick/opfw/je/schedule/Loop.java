@@ -1,9 +1,15 @@
 package skjsjhb.rhytick.opfw.je.schedule;
 
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.timing.Clock;
+import skjsjhb.rhytick.opfw.je.timing.SystemClock;
+
 import javax.annotation.Nullable;
-import java.util.Queue;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.*;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * Loops process micro non-blocking tasks synchronizingly.
@@ -12,29 +18,168 @@ import java.util.concurrent.atomic.AtomicBoolean;
  * this thread.
  * <br/>
  * Once a loop has stopped, it cannot be re-used (i.e. start again). Resource leak might happen if doing so.
+ * <br/>
+ * Tasks are queued in priority {@link Lane}s. In each turn, the input and render lanes are drained, while the normal
+ * and background lanes share a time budget (cfg {@code schedule.turn_budget}, in microseconds), so low-priority
+ * work yields to the next frame. Tasks pushed during a turn run in the next one.
+ * <br/>
+ * Besides the task queues, a loop keeps timers (see {@link #schedule(Task, long)}). When idle, a parking or blocking
+ * loop sleeps until the next timer is due, instead of polling for it. Timers follow the {@link Clock} of the loop,
+ * while the turn budget and task times are always in real time.
+ * <br/>
+ * When the loop stops, it runs a final turn before leaving, so that {@link ServiceTask}s are stopped even if they are
+ * waiting on a timer (see {@link #runFinalTurn()}).
  */
 public class Loop {
 
     /**
-     * Tasks buffer.
+     * Sentinel queue swapped in by {@link #stop()}. It drops every task added and never yields any.
      */
-    protected final WrappedQueue tasks = new WrappedQueue();
+    protected static final Queue<Task> CLOSED_QUEUE = new ClosedQueue();
+
+    /**
+     * Lanes swapped in by {@link #stop()}, which are all {@link #CLOSED_QUEUE}.
+     */
+    protected static final Queue<Task>[] CLOSED_LANES = newLanes(true);
+
+    /**
+     * Maximum number of tasks between two reads of the clock in a limited lane.
+     */
+    protected static final int MAX_CLOCK_STRIDE = 64;
+
+    /**
+     * Handle for atomic transitions of {@link #state}.
+     */
+    protected static final VarHandle STATE;
+
+    static {
+        try {
+            STATE = MethodHandles.lookup().findVarHandle(Loop.class, "state", State.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /**
+     * Clock of the timers.
+     */
+    protected final Clock clock;
+
+    /**
+     * Whether {@link #clock} is the {@link SystemClock}, so a real time can be used as the time of timers.
+     */
+    protected final boolean systemClock;
+
+    /**
+     * Monitor used by {@link IdleStrategy#BLOCK} to wait for tasks.
+     */
+    protected final Object idleLock = new Object();
+
+    /**
+     * Number of empty polls before {@link IdleStrategy#YIELD} and {@link IdleStrategy#PARK} stop spinning.
+     */
+    protected final int idleSpins;
+
+    /**
+     * Counters and task times of this loop.
+     */
+    protected final LoopMetrics metrics = new LoopMetrics(this);
+
+    /**
+     * Whether task times are recorded in {@link #metrics}, set by cfg {@code schedule.metrics}.
+     */
+    protected final boolean timed;
+
+    /**
+     * Time budget of the normal and background lanes in each turn, in nanoseconds.
+     */
+    protected final long turnBudget;
+
+    /**
+     * Time before the deadline of a timer when waiting stops and spinning begins, in real nanoseconds.
+     * <br/>
+     * Parking usually oversleeps by tens of microseconds, which is visible for frame deadlines.
+     */
+    protected final long timerSpin;
+
+    /**
+     * The strategy to wait when there are no tasks.
+     */
+    protected volatile IdleStrategy idleStrategy;
 
     /**
      * The thread this loop belongs.
      */
-    protected Thread homeThread;
+    protected volatile Thread homeThread;
+
+    /**
+     * Lifecycle state. Reads are plain volatile reads, transitions use {@link #STATE}.
+     */
+    protected volatile State state = State.INITIAL;
+
+    /**
+     * Tasks buffers, indexed by {@link Lane#ordinal()}. Replaced by {@link #CLOSED_LANES} once the loop is stopped.
+     */
+    protected volatile Queue<Task>[] lanes = newLanes(false);
+
+    /**
+     * Pending timers. Only accessed on the home thread.
+     */
+    protected final TimerQueue timers = new TimerQueue();
+
+    /**
+     * Services which have been initialized and not stopped yet. Only accessed on the home thread.
+     */
+    protected final Set<ServiceTask> services = new LinkedHashSet<>();
+
+    /**
+     * Whether the home thread is parked or waiting for tasks.
+     */
+    protected volatile boolean sleeping = false;
 
     /**
-     * Running flag.
+     * Counter of turns. Only written on the home thread.
      */
-    protected RunningFlag running = new RunningFlag();
+    protected int turn = 0;
 
     /**
-     * Construct a loop.
+     * Construct a loop with the idle strategy set in cfg {@code schedule.idle_strategy}.
      */
     public Loop() {
+        this(IdleStrategy.fromCfg("schedule.idle_strategy", IdleStrategy.PARK));
+    }
+
+    /**
+     * Construct a loop with specified idle strategy and the default clock.
+     */
+    public Loop(IdleStrategy s) {
+        this(s, Clock.getDefault());
+    }
+
+    /**
+     * Construct a loop with specified idle strategy and clock of timers.
+     */
+    public Loop(IdleStrategy s, Clock c) {
         makeCurrent(Thread.currentThread());
+        idleStrategy = s;
+        clock = c;
+        systemClock = c == SystemClock.INSTANCE;
+        idleSpins = Cfg.getInt("schedule.idle_spins", 256);
+        turnBudget = Math.max(0, Cfg.getInt("schedule.turn_budget", 2000)) * 1000L;
+        timerSpin = Math.max(0, Cfg.getInt("schedule.timer_spin", 100)) * 1000L;
+        timed = Cfg.getBoolean("schedule.metrics", true);
+    }
+
+    /**
+     * Internal method for creating the queues of all lanes.
+     */
+    @SuppressWarnings("unchecked")
+    private static Queue<Task>[] newLanes(boolean closed) {
+        Queue<Task>[] q = new Queue[Lane.values().length];
+        for (int i = 0; i < q.length; i++) {
+            q[i] = closed ? CLOSED_QUEUE : new ConcurrentLinkedQueue<>();
+        }
+        return q;
     }
 
     /**
@@ -47,12 +192,85 @@ public class Loop {
     }
 
     /**
-     * Get the length of queued tasks.
+     * Get the length of queued tasks in all lanes.
      * <br/>
-     * This method can be called from any thread.
+     * The length is kept by counters, so this is cheap. This method can be called from any thread, but the result
+     * is only exact when no task is being pushed or executed.
      */
     public int getQueueLength() {
-        return tasks.get().size();
+        return (int) Math.min(metrics.getQueueDepth(), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Get the length of queued tasks in a lane.
+     * <br/>
+     * Unlike {@link #getQueueLength()}, this walks the queue. This method can be called from any thread.
+     */
+    public int getQueueLength(Lane l) {
+        return lanes[l.ordinal()].size();
+    }
+
+    /**
+     * Check if any lane has queued tasks.
+     */
+    protected boolean hasTasks() {
+        for (Queue<Task> q : lanes) {
+            if (!q.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the number of pending timers.
+     * <br/>
+     * This method should only be called from the home thread.
+     */
+    public int getTimerCount() {
+        return timers.size();
+    }
+
+    /**
+     * Gets the metrics of this loop.
+     * <br/>
+     * This method can be called from any thread.
+     */
+    public LoopMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Gets the lifecycle state of the loop.
+     * <br/>
+     * This method can be called from any thread.
+     */
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Gets the strategy used when there are no tasks.
+     */
+    public IdleStrategy getIdleStrategy() {
+        return idleStrategy;
+    }
+
+    /**
+     * Sets the strategy used when there are no tasks.
+     * <br/>
+     * This method can be called from any thread. A sleeping loop is woken up to pick up the new strategy.
+     */
+    public void setIdleStrategy(IdleStrategy s) {
+        idleStrategy = s;
+        wakeUp(true);
+    }
+
+    /**
+     * Gets the clock of the timers.
+     */
+    public Clock getClock() {
+        return clock;
     }
 
     /**
@@ -69,22 +287,197 @@ public class Loop {
      * This method may be called from any thread.
      */
     public boolean isRunning() {
-        return running.isRunning();
+        return state == State.RUNNING;
+    }
+
+    /**
+     * Wait for the next task according to the idle strategy.
+     *
+     * @param turns Number of consecutive empty polls before this call.
+     */
+    protected void idle(int turns) {
+        switch (idleStrategy) {
+            case SPIN -> Thread.onSpinWait();
+            case YIELD -> {
+                if (turns < idleSpins) {
+                    Thread.onSpinWait();
+                } else {
+                    Thread.yield();
+                }
+            }
+            case PARK -> {
+                if (turns < idleSpins) {
+                    Thread.onSpinWait();
+                } else {
+                    awaitTask(false);
+                }
+            }
+            case BLOCK -> awaitTask(true);
+        }
+    }
+
+    /**
+     * Check if the earliest timer is due.
+     *
+     * @param now Current time in {@link System#nanoTime()}, which is only used if it's also the time of the clock.
+     */
+    protected boolean isTimerDue(long now) {
+        return !timers.isEmpty() && timers.nextDeadline() - (systemClock ? now : clock.nanoTime()) <= 0;
+    }
+
+    /**
+     * Execute all due timers.
+     * <br/>
+     * A repeating timer is added again before it runs, so it can cancel itself. If it has fallen behind for more
+     * than a period, missed runs are skipped rather than run in a burst.
+     *
+     * @return {@code true} if any timer was executed.
+     */
+    protected boolean runTimers() {
+        if (timers.isEmpty()) {
+            return false;
+        }
+        long now = clock.nanoTime();
+        long last = timed ? System.nanoTime() : 0;
+        boolean ran = false;
+        TimerQueue.Entry e;
+        while ((e = timers.peek()) != null && e.deadline - now <= 0 && state == State.RUNNING) {
+            timers.poll();
+            if (e.period > 0) {
+                long next = e.deadline + e.period;
+                timers.readd(e, next - now <= 0 ? now + e.period : next);
+            }
+            metrics.timersFired++;
+            e.task.execute();
+            ran = true;
+            if (timed) {
+                long end = System.nanoTime(); // Not used for the deadlines, or timers added just now might run
+                metrics.record(e.task, end - last);
+                last = end;
+            }
+        }
+        return ran;
     }
 
     /**
      * Main loop executor.
      * <br/>
      * This method continously poll event from the queue and execute them. If the queue is empty, it
-     * will wait for the next task to come.
+     * will wait for the next task to come using the {@link IdleStrategy} of this loop.
      */
     protected void loop() {
-        while (running.isRunning()) {
-            Task t;
-            while ((t = tasks.get().poll()) != null) {
-                t.execute();
+        int idleTurns = 0;
+        while (state == State.RUNNING) {
+            boolean idle = !runTurn();
+            if (idle) {
+                long st = System.nanoTime();
+                idle(idleTurns);
+                metrics.idleNanos += System.nanoTime() - st;
+                if (idleTurns < idleSpins) {
+                    idleTurns++;
+                }
+            } else {
+                idleTurns = 0;
+            }
+        }
+    }
+
+    /**
+     * Run one turn: due timers, then tasks of each lane pushed before this turn.
+     *
+     * @return {@code true} if any timer or task was executed.
+     */
+    protected boolean runTurn() {
+        Queue<Task>[] q = lanes;
+        int cur = ++turn;
+        metrics.turns++;
+        metrics.applyReset();
+        boolean ran = runTimers();
+        ran |= drain(q[Lane.INPUT.ordinal()], cur, false, 0);
+        ran |= drain(q[Lane.RENDER.ordinal()], cur, false, 0);
+        long until = System.nanoTime() + turnBudget;
+        ran |= drain(q[Lane.NORMAL.ordinal()], cur, true, until);
+        ran |= drain(q[Lane.BACKGROUND.ordinal()], cur, true, until);
+        return ran;
+    }
+
+    /**
+     * Run the last turn of a stopping loop.
+     * <br/>
+     * The lanes are closed first, so tasks pushed from now on are dropped. Due timers and tasks queued before this turn
+     * are then executed (none are left if the loop was stopped by {@link #stop()}), and the services still running
+     * are stopped, including those waiting on a timer.
+     */
+    protected void runFinalTurn() {
+        Queue<Task>[] q = lanes;
+        lanes = CLOSED_LANES;
+        int cur = ++turn;
+        metrics.turns++;
+        long now = clock.nanoTime();
+        TimerQueue.Entry e;
+        while ((e = timers.peek()) != null && e.deadline - now <= 0) {
+            timers.poll(); // Repeating timers are not added again
+            metrics.timersFired++;
+            e.task.execute();
+        }
+        for (Queue<Task> l : q) {
+            drain(l, cur, false, 0);
+            while (l.poll() != null) {
+                metrics.dropped.increment(); // Pushed by other threads during this turn
+            }
+        }
+        for (ServiceTask s : List.copyOf(services)) {
+            s.stopService();
+        }
+        services.clear();
+    }
+
+    /**
+     * Execute tasks of a lane pushed before the current turn.
+     * <br/>
+     * A limited lane runs at least one task, even if the budget has been spent by a higher lane, so it cannot be
+     * starved. After that, it stops when the budget is spent or a timer is due.
+     * <br/>
+     * Reading the clock can cost more than a tiny task. While tasks are much shorter than the budget, the clock is
+     * read after every few tasks instead (up to {@link #MAX_CLOCK_STRIDE}), and after each task again once a slow
+     * one is seen. If task times are recorded, the clock is read after each task anyway.
+     *
+     * @param q       Queue of the lane.
+     * @param cur     Current turn.
+     * @param limited Whether the lane is limited by the budget.
+     * @param until   End of the budget in {@link System#nanoTime()}.
+     * @return {@code true} if any task was executed.
+     */
+    private boolean drain(Queue<Task> q, int cur, boolean limited, long until) {
+        boolean ran = false;
+        int stride = 1;
+        int left = 1;
+        long last = limited || timed ? System.nanoTime() : 0;
+        Task t;
+        while ((t = q.peek()) != null && t.pushedTurn != cur) {
+            q.poll();
+            metrics.executed++;
+            t.execute();
+            ran = true;
+            if (timed) {
+                long now = System.nanoTime();
+                metrics.record(t, now - last);
+                last = now;
+                if (limited && (now - until >= 0 || isTimerDue(now))) {
+                    break;
+                }
+            } else if (limited && --left == 0) {
+                long now = System.nanoTime();
+                if (now - until >= 0 || isTimerDue(now)) {
+                    break;
+                }
+                boolean fast = (now - last) / stride < turnBudget >> 8;
+                stride = fast ? Math.min(stride << 1, MAX_CLOCK_STRIDE) : 1;
+                left = stride;
+                last = now;
             }
         }
+        return ran;
     }
 
     /**
@@ -99,15 +492,15 @@ public class Loop {
     }
 
     /**
-     * Append a task to the end of the task queue.
+     * Append a task to the end of its lane, which is {@link Lane#NORMAL} unless set by the task or a previous
+     * {@link #push(Lane, Task)}.
      * <br/>
      * This method can be called from any thread.
      *
      * @param a Task to add.
      */
     public void push(Task a) {
-        tasks.get().add(a);
-        a.setLoop(this);
+        push(a.lane, a);
     }
 
     /**
@@ -117,34 +510,219 @@ public class Loop {
         push(Task.from(a));
     }
 
+    /**
+     * Append a task to the end of a lane. The task keeps the lane when pushing itself again.
+     * <br/>
+     * This method can be called from any thread.
+     *
+     * @param l Lane to add to.
+     * @param a Task to add.
+     */
+    public void push(Lane l, Task a) {
+        a.setLoop(this);
+        a.lane = l;
+        a.pushedTurn = turn; // A stale value from other threads only delays the task for a turn
+        Queue<Task>[] ls = lanes;
+        Queue<Task> q = ls[l.ordinal()];
+        if (q == CLOSED_QUEUE) {
+            return;
+        }
+        metrics.pushed.increment();
+        q.add(a);
+        if (lanes != ls) {
+            // Stopped meanwhile, and the queue may have been drained before the task was added
+            if (q.remove(a)) {
+                metrics.dropped.increment();
+            }
+            return;
+        }
+        wakeUp(false);
+    }
+
+    /**
+     * Push a task which has run again, counting it in {@link #metrics}.
+     */
+    void repush(Task a) {
+        metrics.countRepush(a);
+        push(a);
+    }
+
+    /**
+     * Schedule a task which has run to run again after a delay, counting it in {@link #metrics}.
+     */
+    void repush(Task a, long delayNanos) {
+        metrics.countRepush(a);
+        schedule(a, delayNanos);
+    }
+
+    /**
+     * {@link Runnable} overload of {@link #push(Lane, Task)}.
+     */
+    public void push(Lane l, Runnable a) {
+        push(l, Task.from(a));
+    }
+
+    /**
+     * Run a task once after a delay.
+     * <br/>
+     * The task runs on a later turn than the current one, even with a delay of 0. Timers are dropped when the
+     * loop stops.
+     * <br/>
+     * This method can only be called from the home thread.
+     *
+     * @param a          Task to run.
+     * @param delayNanos Delay in nanoseconds of the clock.
+     * @return The timer, which can be passed to {@link #cancel(TimerQueue.Entry)}.
+     */
+    public TimerQueue.Entry schedule(Task a, long delayNanos) {
+        return addTimer(a, delayNanos, 0);
+    }
+
+    /**
+     * {@link Runnable} overload of {@link #schedule(Task, long)}.
+     */
+    public TimerQueue.Entry schedule(Runnable a, long delayNanos) {
+        return schedule(Task.from(a), delayNanos);
+    }
+
+    /**
+     * Run a task repeatedly until cancelled.
+     * <br/>
+     * This method can only be called from the home thread.
+     *
+     * @param a           Task to run.
+     * @param delayNanos  Delay of the first run in nanoseconds.
+     * @param periodNanos Period of the subsequent runs in nanoseconds. Must be positive.
+     * @return The timer, which can be passed to {@link #cancel(TimerQueue.Entry)}.
+     */
+    public TimerQueue.Entry scheduleRepeating(Task a, long delayNanos, long periodNanos) {
+        if (periodNanos <= 0) {
+            throw new IllegalArgumentException("period must be positive");
+        }
+        return addTimer(a, delayNanos, periodNanos);
+    }
+
+    /**
+     * {@link Runnable} overload of {@link #scheduleRepeating(Task, long, long)}.
+     */
+    public TimerQueue.Entry scheduleRepeating(Runnable a, long delayNanos, long periodNanos) {
+        return scheduleRepeating(Task.from(a), delayNanos, periodNanos);
+    }
+
+    /**
+     * Cancel a timer. Cancelling a timer which has run or been cancelled has no effect.
+     * <br/>
+     * This method can only be called from the home thread.
+     *
+     * @param e Timer returned when scheduling.
+     * @return {@code true} if the timer was pending.
+     */
+    public boolean cancel(TimerQueue.Entry e) {
+        checkThread();
+        return timers.remove(e);
+    }
+
+    /**
+     * Internal method for adding a timer.
+     */
+    private TimerQueue.Entry addTimer(Task a, long delayNanos, long periodNanos) {
+        checkThread();
+        a.setLoop(this);
+        if (state == State.STOPPED) {
+            return new TimerQueue.Entry(a, periodNanos); // Dropped like tasks pushed after stop
+        }
+        // Never due in the current turn, so a timer adding itself cannot starve the loop
+        return timers.add(a, clock.nanoTime() + Math.max(delayNanos, 1), periodNanos);
+    }
+
     /**
      * Requests the loop to stop.
      * <br/>
-     * The {@link #running} flag will be set to {@code false} immediately. No more tasks are allowed to
-     * be added after this method. Existing tasks can still finish execution.
+     * The {@link #state} will be set to {@link State#STOPPING} immediately. After the current turn, tasks already
+     * queued and due timers run in a final turn, and services are stopped. Tasks added after that are dropped.
      * <br/>
      * This method can be called from any thread.
      */
     public void requestStop() {
-        running.setRunning(false);
+        STATE.compareAndSet(this, State.RUNNING, State.STOPPING);
+        wakeUp(true);
     }
 
     /**
      * Run the loop once synchronizied, temporarily setting running to true.
      * <br/>
+     * Due timers are executed first, then at most one task from the highest non-empty lane.
+     * <br/>
      * This method can only be called from the main thread.
      */
     public void runOnce() {
-        if (running.isRunning()) {
+        State prev = state;
+        if (prev == State.RUNNING) {
             throw new IllegalStateException("loop is running");
         }
         checkThread();
-        running.setRunning(true);
-        Task t = tasks.get().poll();
-        if (t != null) {
-            t.execute();
+        state = State.RUNNING;
+        metrics.applyReset();
+        runTimers();
+        for (Queue<Task> q : lanes) {
+            Task t = q.poll();
+            if (t != null) {
+                metrics.executed++;
+                long st = timed ? System.nanoTime() : 0;
+                t.execute();
+                if (timed) {
+                    metrics.record(t, System.nanoTime() - st);
+                }
+                break;
+            }
+        }
+        STATE.compareAndSet(this, State.RUNNING, prev); // Keep the stop request of the task, if any
+    }
+
+    /**
+     * Put the home thread to sleep until a task is pushed, the next timer is due, or the loop stops.
+     * <br/>
+     * The wait ends {@link #timerSpin} before the next timer, and the caller spins for the rest. Waits are done by the
+     * {@link #clock}.
+     *
+     * @param block {@code true} to wait on {@link #idleLock}, otherwise park the thread.
+     */
+    protected void awaitTask(boolean block) {
+        boolean timed = !timers.isEmpty();
+        long spin = clock.isFreeRunning() ? clock.toClockNanos(timerSpin) : 0;
+        long deadline = timed ? timers.nextDeadline() - spin : 0;
+        sleeping = true;
+        try {
+            if (block) {
+                synchronized (idleLock) {
+                    while (!hasTasks() && state == State.RUNNING && idleStrategy == IdleStrategy.BLOCK) {
+                        if (!timed) {
+                            idleLock.wait();
+                            continue;
+                        }
+                        long remaining = deadline - clock.nanoTime();
+                        if (remaining <= 0) {
+                            break; // Spin for the rest
+                        }
+                        clock.waitNanos(idleLock, remaining);
+                    }
+                }
+            } else if (!hasTasks() && state == State.RUNNING) {
+                // Spurious wake-ups are handled by the caller
+                if (!timed) {
+                    LockSupport.park(this);
+                } else {
+                    long remaining = deadline - clock.nanoTime();
+                    if (remaining > 0) {
+                        clock.parkNanos(this, remaining);
+                    }
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            sleeping = false;
         }
-        running.setRunning(false);
     }
 
     /**
@@ -156,14 +734,24 @@ public class Loop {
                 throw new IllegalStateException("loop is already running");
             }
             checkThread();
-            running.setRunning(true);
+            metrics.started(homeThread); // Visible once running
+            state = State.RUNNING;
         }
-        loop();
+        try {
+            loop();
+            runFinalTurn();
+        } finally {
+            metrics.stopped();
+        }
+        timers.clear();
+        STATE.compareAndSet(this, State.STOPPING, State.STOPPED);
     }
 
     /**
      * Stop the loop and ignore any subsequent tasks.
      * <br/>
+     * Unlike {@link #requestStop()}, queued tasks are dropped. Running services are still stopped in the final turn.
+     * <br/>
      * This can be called from any thread.
      */
     public void stop() {
@@ -171,42 +759,89 @@ public class Loop {
             return; // Fails silently
         }
         requestStop();
-        tasks.get().clear();
-        tasks.lock();
+        Queue<Task>[] q = lanes;
+        lanes = CLOSED_LANES;
+        for (Queue<Task> l : q) {
+            while (l.poll() != null) {
+                metrics.dropped.increment(); // Keep the counted length right, as the home thread might still poll
+            }
+        }
     }
 
     /**
-     * Wrapper object for running flag.
+     * Wake up the home thread if it's sleeping.
+     *
+     * @param all {@code true} to wake up both parked and blocked threads regardless of the current strategy.
      */
-    protected static final class RunningFlag {
-        private boolean running = false;
-
-        public synchronized boolean isRunning() {
-            return running;
+    protected void wakeUp(boolean all) {
+        if (!sleeping) {
+            return;
         }
-
-        public synchronized void setRunning(boolean ar) {
-            running = ar;
+        IdleStrategy s = idleStrategy;
+        if (all || s != IdleStrategy.BLOCK) {
+            LockSupport.unpark(homeThread);
+        }
+        if (all || s == IdleStrategy.BLOCK) {
+            synchronized (idleLock) {
+                idleLock.notifyAll();
+            }
         }
     }
 
-    protected static final class WrappedQueue {
-        private final Queue<Task> emptyQueue = new ConcurrentLinkedQueue<>();
+    /**
+     * Lifecycle states of a loop.
+     */
+    public enum State {
+        /**
+         * The loop has not been started yet, or is between two {@link #runOnce()} calls.
+         */
+        INITIAL,
+
+        /**
+         * The loop is processing tasks.
+         */
+        RUNNING,
 
-        private final AtomicBoolean locked = new AtomicBoolean(false);
+        /**
+         * A stop has been requested. Remaining tasks might still be executed.
+         */
+        STOPPING,
 
-        private final Queue<Task> queue = new ConcurrentLinkedQueue<>();
+        /**
+         * The home thread has left the loop.
+         */
+        STOPPED,
+    }
 
-        public Queue<Task> get() {
-            if (locked.get()) {
-                emptyQueue.clear();
-                return emptyQueue;
-            }
-            return queue;
+    /**
+     * Queue implementation of {@link #CLOSED_QUEUE}.
+     */
+    protected static final class ClosedQueue extends AbstractQueue<Task> {
+        @Override
+        public Iterator<Task> iterator() {
+            return Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean offer(Task task) {
+            return true; // Dropped silently
+        }
+
+        @Nullable
+        @Override
+        public Task peek() {
+            return null;
+        }
+
+        @Nullable
+        @Override
+        public Task poll() {
+            return null;
         }
 
-        public void lock() {
-            locked.set(true);
+        @Override
+        public int size() {
+            return 0;
         }
     }
 }
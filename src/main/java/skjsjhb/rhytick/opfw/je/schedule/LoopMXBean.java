@@ -0,0 +1,48 @@
+package skjsjhb.rhytick.opfw.je.schedule;
+
+/**
+ * Management interface of {@link LoopMetrics}.
+ * <br/>
+ * Loops are registered as {@code skjsjhb.rhytick.opfw.je:type=Loop,name=...} while running, if cfg
+ * {@code schedule.metrics_jmx} is set. Times are in nanoseconds.
+ */
+public interface LoopMXBean {
+    long getAlwaysRepushes();
+
+    long getBusyNanos();
+
+    long getIdleNanos();
+
+    long getLongestTaskNanos();
+
+    String getLongestTaskSource();
+
+    String getName();
+
+    long getQueueDepth();
+
+    long getServiceRepushes();
+
+    String getState();
+
+    double getTaskTimeMean();
+
+    long getTaskTimeP50();
+
+    long getTaskTimeP90();
+
+    long getTaskTimeP99();
+
+    long getTaskTimeMax();
+
+    long getTasksExecuted();
+
+    long getTimersFired();
+
+    long getTurns();
+
+    /**
+     * Reset the task time histogram and the longest task. Counters are kept.
+     */
+    void resetTaskTimes();
+}
@@ -0,0 +1,291 @@
+package skjsjhb.rhytick.opfw.je.schedule;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.timing.Histogram;
+
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and task times of a {@link Loop}.
+ * <br/>
+ * Counters are always kept. Task times need a clock read after each task, and are recorded if cfg
+ * {@code schedule.metrics} is set (the default). Besides plain fields and a {@link LongAdder} for pushes, nothing is
+ * shared on the hot path, so the metrics can stay on in production.
+ * <br/>
+ * Fields are only written on the home thread of the loop. Readers on other threads, like JMX and
+ * {@link #report()}, see values which are slightly behind. A reset requested from another thread is also done by the
+ * home thread, on the next turn.
+ */
+public final class LoopMetrics implements LoopMXBean {
+    /**
+     * Metrics of running loops.
+     */
+    private static final Set<LoopMetrics> LIVE = ConcurrentHashMap.newKeySet();
+
+    private static final AtomicInteger NEXT_ID = new AtomicInteger(0);
+
+    /**
+     * Tasks pushed to the loop, from any thread.
+     */
+    final LongAdder pushed = new LongAdder();
+
+    /**
+     * Tasks dropped from the queues by {@link Loop#stop()}.
+     */
+    final LongAdder dropped = new LongAdder();
+
+    final Histogram taskTimes = new Histogram();
+
+    private final int id = NEXT_ID.getAndIncrement();
+
+    private final Loop loop;
+
+    long alwaysRepushes;
+
+    long busyNanos;
+
+    long executed;
+
+    long idleNanos;
+
+    long serviceRepushes;
+
+    long timersFired;
+
+    long turns;
+
+    private long longestTask;
+
+    private String longestSource = "";
+
+    /**
+     * Whether {@link #resetTaskTimes()} has been called and the reset is not done yet.
+     */
+    private volatile boolean resetRequested = false;
+
+    private volatile String name = "Loop#" + id;
+
+    @Nullable
+    private ObjectName objectName;
+
+    LoopMetrics(Loop loop) {
+        this.loop = loop;
+    }
+
+    /**
+     * Gets the metrics of all running loops.
+     */
+    public static Collection<LoopMetrics> getLive() {
+        return List.copyOf(LIVE);
+    }
+
+    /**
+     * Format the metrics of all running loops as text.
+     */
+    public static String report() {
+        List<LoopMetrics> ls = new ArrayList<>(LIVE);
+        ls.sort((a, b) -> Integer.compare(a.id, b.id));
+        StringBuilder sb = new StringBuilder("Loop metrics at ").append(Instant.now()).append('\n');
+        for (LoopMetrics m : ls) {
+            sb.append(m).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Count a task pushing itself again.
+     */
+    void countRepush(Task t) {
+        if (t instanceof ServiceTask) {
+            serviceRepushes++;
+        } else {
+            alwaysRepushes++;
+        }
+    }
+
+    @Override
+    public long getAlwaysRepushes() {
+        return alwaysRepushes;
+    }
+
+    @Override
+    public long getBusyNanos() {
+        return busyNanos;
+    }
+
+    @Override
+    public long getIdleNanos() {
+        return idleNanos;
+    }
+
+    @Override
+    public long getLongestTaskNanos() {
+        return longestTask;
+    }
+
+    @Override
+    public String getLongestTaskSource() {
+        return longestSource;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Gets the number of queued tasks, counted without walking the queues.
+     */
+    @Override
+    public long getQueueDepth() {
+        if (loop.lanes == Loop.CLOSED_LANES) {
+            return 0;
+        }
+        return Math.max(0, pushed.sum() - executed - dropped.sum());
+    }
+
+    @Override
+    public long getServiceRepushes() {
+        return serviceRepushes;
+    }
+
+    @Override
+    public String getState() {
+        return loop.getState().name();
+    }
+
+    @Override
+    public double getTaskTimeMean() {
+        return taskTimes.getMean();
+    }
+
+    @Override
+    public long getTaskTimeMax() {
+        return taskTimes.getMax();
+    }
+
+    @Override
+    public long getTaskTimeP50() {
+        return taskTimes.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getTaskTimeP90() {
+        return taskTimes.getValueAtPercentile(90);
+    }
+
+    @Override
+    public long getTaskTimeP99() {
+        return taskTimes.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getTasksExecuted() {
+        return executed;
+    }
+
+    @Override
+    public long getTimersFired() {
+        return timersFired;
+    }
+
+    @Override
+    public long getTurns() {
+        return turns;
+    }
+
+    /**
+     * Record the execution time of a task or timer.
+     */
+    void record(Task t, long nanos) {
+        taskTimes.record(nanos);
+        busyNanos += nanos;
+        if (nanos > longestTask) {
+            longestTask = nanos;
+            longestSource = t.getSource(); // Only when a new record is set
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * <br/>
+     * This method can be called from any thread. The reset is done by the loop at the start of its next turn, which
+     * might be a while for a loop which is not running.
+     */
+    @Override
+    public void resetTaskTimes() {
+        resetRequested = true;
+        loop.wakeUp(true);
+    }
+
+    /**
+     * Do a reset requested by {@link #resetTaskTimes()}, if any. Called on the home thread at the start of a turn.
+     */
+    void applyReset() {
+        if (!resetRequested) {
+            return;
+        }
+        resetRequested = false;
+        taskTimes.reset();
+        longestTask = 0;
+        longestSource = "";
+    }
+
+    /**
+     * Mark the loop as running on a thread, and register it to JMX if enabled.
+     */
+    void started(Thread t) {
+        name = t.getName() + "#" + id;
+        LIVE.add(this);
+        if (!Cfg.getBoolean("schedule.metrics_jmx", false)) {
+            return;
+        }
+        try {
+            ObjectName on = new ObjectName("skjsjhb.rhytick.opfw.je:type=Loop,name=" + ObjectName.quote(name));
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, on);
+            objectName = on;
+        } catch (JMException e) {
+            System.err.println("Could not register loop metrics: " + e);
+        }
+    }
+
+    /**
+     * Mark the loop as stopped, and unregister it from JMX.
+     */
+    void stopped() {
+        LIVE.remove(this);
+        if (objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return String.format("""
+                        %s (%s)
+                          turns %d, tasks %d, timers %d, queued %d
+                          busy %.1f ms, idle %.1f ms
+                          task time p50 %.1f us, p90 %.1f us, p99 %.1f us, max %.1f us
+                          longest task %.1f us: %s
+                          re-pushed always %d, service %d""",
+                name, getState(), turns, executed, timersFired, getQueueDepth(), busyNanos / 1e6, idleNanos / 1e6,
+                getTaskTimeP50() / 1e3, getTaskTimeP90() / 1e3, getTaskTimeP99() / 1e3, getTaskTimeMax() / 1e3,
+                longestTask / 1e3, longestSource.isEmpty() ? "none" : longestSource, alwaysRepushes,
+                serviceRepushes);
+    }
+}
@@ -1,23 +1,139 @@
 package skjsjhb.rhytick.opfw.je.schedule;
 
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import javax.annotation.Nullable;
+import java.util.Locale;
+import java.util.concurrent.*;
 import java.util.function.Consumer;
 import java.util.function.Supplier;
 
 /**
  * Schedule, queue and run tasks specified by the main function.
+ * <br/>
+ * Background jobs run on the job executor. Depending on cfg {@code schedule.thread_mode}, it starts a virtual thread
+ * for each job (the default), or runs jobs on a fixed pool of {@code schedule.platform_threads} platform threads.
+ * Short blocking jobs such as file reads should go to the I/O executor instead, which is a fixed pool of
+ * {@code schedule.io_threads} platform threads.
+ * <br/>
+ * Loops which own a GraalVM context must stay on one thread for their whole life, and should be started with
+ * {@link #startPinned(String, Runnable)}.
  */
 public final class Scheduler {
+    /**
+     * Factory for background jobs, created on demand.
+     */
+    @Nullable
+    private static ThreadFactory jobFactory;
+
+    /**
+     * Executor for background jobs, created on demand.
+     */
+    @Nullable
+    private static ExecutorService jobExecutor;
+
+    /**
+     * Executor for short blocking jobs, created on demand.
+     */
+    @Nullable
+    private static ExecutorService ioExecutor;
+
+    /**
+     * Internal method for creating the I/O executor.
+     */
+    private static ExecutorService createIOExecutor() {
+        int n = Math.max(1, Cfg.getInt("schedule.io_threads", 4));
+        ThreadFactory f = Thread.ofPlatform().name("IO-", 0).daemon(true).factory();
+        return Executors.newFixedThreadPool(n, f);
+    }
+
+    /**
+     * Gets the executor for short blocking jobs, like file reads.
+     * <br/>
+     * The executor has a fixed number of threads. Jobs submitted when all threads are busy wait in the queue.
+     */
+    public static synchronized ExecutorService getIOExecutor() {
+        if (ioExecutor == null) {
+            ioExecutor = createIOExecutor();
+        }
+        return ioExecutor;
+    }
+
+    /**
+     * Internal method for creating the job executor.
+     */
+    private static ExecutorService createJobExecutor() {
+        return switch (getThreadMode()) {
+            case VIRTUAL -> Executors.newThreadPerTaskExecutor(getJobFactory());
+            case PLATFORM -> Executors.newFixedThreadPool(
+                    Math.max(1, Cfg.getInt("schedule.platform_threads", Runtime.getRuntime().availableProcessors())),
+                    Thread.ofPlatform().name("Job-Pool-", 0).daemon(true).factory());
+        };
+    }
+
+    /**
+     * Gets the executor for background jobs.
+     * <br/>
+     * In platform mode, the executor has a fixed number of threads, and jobs submitted when all threads are busy
+     * wait in the queue.
+     */
+    public static synchronized ExecutorService getJobExecutor() {
+        if (jobExecutor == null) {
+            jobExecutor = createJobExecutor();
+        }
+        return jobExecutor;
+    }
+
+    /**
+     * Gets the factory for background job threads.
+     */
+    public static synchronized ThreadFactory getJobFactory() {
+        if (jobFactory == null) {
+            jobFactory = switch (getThreadMode()) {
+                case VIRTUAL -> Thread.ofVirtual().name("Job-", 0).factory();
+                case PLATFORM -> Thread.ofPlatform().name("Job-", 0).factory();
+            };
+        }
+        return jobFactory;
+    }
+
+    /**
+     * Gets the thread mode of background jobs, set in cfg {@code schedule.thread_mode}.
+     */
+    public static ThreadMode getThreadMode() {
+        String s = Cfg.getValue("schedule.thread_mode", "virtual");
+        try {
+            return ThreadMode.valueOf(s.trim().toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException ignored) {
+            System.err.println("Unknown thread mode: " + s);
+            return ThreadMode.VIRTUAL;
+        }
+    }
+
+    /**
+     * Run a background job on the job executor.
+     *
+     * @param a Job to run.
+     * @return Future of the job.
+     */
+    public static Future<?> runJob(Runnable a) {
+        return getJobExecutor().submit(a);
+    }
+
     /**
      * Run specified {@link Runnable} task on a seperated thread, without blocking the main loop
      * or other threads, or expecting any results.
      * <br/>
      * The thread will be destroyed once the {@link Runnable} returns. No value will be returned.
+     * <br/>
+     * A new thread is started on each call, even in platform mode. Background jobs which do not need their own
+     * thread should use {@link #runJob(Runnable)}, which is bounded.
      *
      * @param a {@link Runnable} object to be run on the thread.
      * @return The created thread.
      */
     public static Thread runOnNewThread(Runnable a) {
-        var th = new Thread(a);
+        var th = getJobFactory().newThread(a);
         th.start();
         return th;
     }
@@ -34,8 +150,69 @@ public final class Scheduler {
      * @return The created thread.
      */
     public static <T> Thread runOnNewThread(Supplier<T> a, Consumer<T> cb) {
-        var th = new Thread(() -> cb.accept(a.get()));
-        th.start();
-        return th;
+        return runOnNewThread(() -> cb.accept(a.get()));
+    }
+
+    /**
+     * Run a short blocking job on the I/O executor.
+     *
+     * @param a Job to run.
+     * @return Future of the job result. Exceptions thrown by the job complete it exceptionally, without wrapping.
+     */
+    public static <T> CompletableFuture<T> runIO(Callable<T> a) {
+        CompletableFuture<T> f = new CompletableFuture<>();
+        getIOExecutor().execute(() -> {
+            try {
+                f.complete(a.call());
+            } catch (Throwable e) {
+                f.completeExceptionally(e);
+            }
+        });
+        return f;
+    }
+
+    /**
+     * Stop the job and I/O executors. Queued jobs are still run, but new jobs are rejected.
+     * <br/>
+     * This should only be called when the application exits.
+     */
+    public static synchronized void shutdown() {
+        if (jobExecutor != null) {
+            jobExecutor.shutdown();
+            jobExecutor = null;
+        }
+        if (ioExecutor != null) {
+            ioExecutor.shutdown();
+            ioExecutor = null;
+        }
+    }
+
+    /**
+     * Start a named platform thread which is never shared with other jobs.
+     * <br/>
+     * Loops owning a GraalVM context run on such threads. The context is entered once and stays bound to the
+     * thread, which would otherwise pin the carrier of a virtual thread for the whole life of the loop.
+     *
+     * @param name Thread name.
+     * @param a    {@link Runnable} object to be run on the thread.
+     * @return The created thread.
+     */
+    public static Thread startPinned(String name, Runnable a) {
+        return Thread.ofPlatform().name(name).start(a);
+    }
+
+    /**
+     * Kinds of threads used for background jobs.
+     */
+    public enum ThreadMode {
+        /**
+         * Virtual threads, cheap to create and block.
+         */
+        VIRTUAL,
+
+        /**
+         * A fixed pool of platform threads.
+         */
+        PLATFORM,
     }
 }
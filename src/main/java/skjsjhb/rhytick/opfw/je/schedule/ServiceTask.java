@@ -5,6 +5,9 @@ package skjsjhb.rhytick.opfw.je.schedule;
  * A task implementation which executes initial method, runs always method until it returns false, and
  * then executes stop method. A service automatically stops itself when the loop is about to exit, regardless
  * of the return value of the executor.
+ * <br/>
+ * The loop keeps track of running services, so a service waiting on a timer (see {@link #getNextDelay()}) is
+ * stopped as well.
  */
 public abstract class ServiceTask extends AlwaysTask {
 
@@ -29,19 +32,51 @@ public abstract class ServiceTask extends AlwaysTask {
             if (getLoop().isRunning()) {
                 initial();
                 status = ServiceStatus.ALWAYS;
-                getLoop().push(this);
+                getLoop().services.add(this);
+                getLoop().repush(this);
             }
         } else if (status == ServiceStatus.ALWAYS) {
             if (always() && getLoop().isRunning()) {
-                getLoop().push(this);
+                long d = getNextDelay();
+                if (d > 0) {
+                    getLoop().repush(this, d);
+                } else {
+                    getLoop().repush(this);
+                }
             } else {
                 // Stop on demand or when loop stops
-                status = ServiceStatus.STOP;
-                stop();
+                stopService();
             }
         }
     }
 
+    /**
+     * Internal method for stopping the service if it's running. Called on the home thread.
+     */
+    void stopService() {
+        if (status != ServiceStatus.ALWAYS) {
+            return;
+        }
+        status = ServiceStatus.STOP;
+        Loop l = getLoop();
+        if (l != null) {
+            l.services.remove(this);
+        }
+        stop();
+    }
+
+    /**
+     * Gets the delay before {@link #always()} runs again.
+     * <br/>
+     * By default the service runs again in the next turn. A service which waits for a deadline can return the
+     * time left instead, so it runs as a timer and the loop can sleep until then.
+     *
+     * @return Delay in ns, or 0 to run in the next turn.
+     */
+    protected long getNextDelay() {
+        return 0;
+    }
+
     /**
      * Initial method to be executed once.
      */
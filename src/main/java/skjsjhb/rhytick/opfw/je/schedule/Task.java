@@ -3,8 +3,18 @@ package skjsjhb.rhytick.opfw.je.schedule;
 import javax.annotation.Nullable;
 
 public abstract class Task {
+    /**
+     * Lane used by {@link Loop#push(Task)}, which is also kept when the task pushes itself again.
+     */
+    protected Lane lane = Lane.NORMAL;
+
     protected Loop parentLoop;
 
+    /**
+     * Turn of the loop when this task was pushed. Tasks pushed in the current turn run in the next one.
+     */
+    int pushedTurn;
+
     /**
      * Converts a {@link Runnable} to {@link Task}.
      *
@@ -16,6 +26,11 @@ public abstract class Task {
             public void execute() {
                 a.run();
             }
+
+            @Override
+            public String getSource() {
+                return sourceOf(a);
+            }
         };
     }
 
@@ -24,6 +39,31 @@ public abstract class Task {
      */
     public abstract void execute();
 
+    /**
+     * Internal method for naming the class of an object, without the address of lambda classes.
+     */
+    static String sourceOf(Object o) {
+        String n = o.getClass().getName();
+        int i = n.indexOf("/0x");
+        return i < 0 ? n : n.substring(0, i);
+    }
+
+    /**
+     * Describe where this task comes from, like the longest task in {@link LoopMetrics}.
+     * <br/>
+     * This is the class name by default. It's only called occasionally, so it may take some time.
+     */
+    public String getSource() {
+        return sourceOf(this);
+    }
+
+    /**
+     * Gets the lane of this task.
+     */
+    public Lane getLane() {
+        return lane;
+    }
+
     /**
      * Gets the parent loop of this task.
      * <br/>
@@ -0,0 +1,228 @@
+package skjsjhb.rhytick.opfw.je.schedule;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * Pending timers of a {@link Loop}, ordered by deadline.
+ * <br/>
+ * Timers are kept in a binary heap, and each one knows its index in the heap, so adding, cancelling and running
+ * the earliest one all take O(log n) regardless of how many timers are pending. Timers with the same deadline
+ * run in the order they were added.
+ * <br/>
+ * This class is not thread-safe. It's only accessed on the home thread of its loop.
+ */
+public final class TimerQueue {
+    private Entry[] heap = new Entry[16];
+
+    private int size;
+
+    /**
+     * Counter for ordering timers with the same deadline.
+     */
+    private long seq;
+
+    /**
+     * Internal method for comparing two entries.
+     */
+    private static boolean before(Entry a, Entry b) {
+        long d = a.deadline - b.deadline; // Overflow-safe for nano time
+        return d < 0 || (d == 0 && a.seq < b.seq);
+    }
+
+    /**
+     * Add a timer.
+     *
+     * @param t        Task to execute.
+     * @param deadline Deadline in time of the clock of the loop.
+     * @param period   Period in ns for repeating timers, or 0 for a one-shot timer.
+     * @return The added timer, which can be used for cancelling.
+     */
+    Entry add(Task t, long deadline, long period) {
+        Entry e = new Entry(t, period);
+        offer(e, deadline);
+        return e;
+    }
+
+    /**
+     * Remove all timers.
+     */
+    void clear() {
+        for (int i = 0; i < size; i++) {
+            heap[i].index = -1;
+            heap[i] = null;
+        }
+        size = 0;
+    }
+
+    /**
+     * Gets the deadline of the earliest timer.
+     *
+     * @return The deadline in time of the clock of the loop. Only valid if not {@link #isEmpty()}.
+     */
+    long nextDeadline() {
+        return heap[0].deadline;
+    }
+
+    /**
+     * Checks if there is no pending timer.
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Internal method for inserting an entry with its deadline.
+     */
+    private void offer(Entry e, long deadline) {
+        if (size == heap.length) {
+            heap = Arrays.copyOf(heap, size * 2);
+        }
+        e.deadline = deadline;
+        e.seq = seq++;
+        e.index = size;
+        heap[size++] = e;
+        siftUp(e.index);
+    }
+
+    /**
+     * Gets the earliest timer without removing it.
+     */
+    @Nullable
+    Entry peek() {
+        return size == 0 ? null : heap[0];
+    }
+
+    /**
+     * Remove and return the earliest timer.
+     */
+    @Nullable
+    Entry poll() {
+        if (size == 0) {
+            return null;
+        }
+        Entry e = heap[0];
+        removeAt(0);
+        return e;
+    }
+
+    /**
+     * Add a timer removed by {@link #poll()} again with a new deadline.
+     */
+    void readd(Entry e, long deadline) {
+        offer(e, deadline);
+    }
+
+    /**
+     * Remove a timer.
+     *
+     * @return {@code true} if the timer was pending in this queue.
+     */
+    boolean remove(Entry e) {
+        int i = e.index;
+        if (i < 0 || i >= size || heap[i] != e) {
+            return false;
+        }
+        removeAt(i);
+        return true;
+    }
+
+    /**
+     * Internal method for removing the entry at an index.
+     */
+    private void removeAt(int i) {
+        Entry e = heap[i];
+        e.index = -1;
+        Entry last = heap[--size];
+        heap[size] = null;
+        if (i == size) {
+            return;
+        }
+        heap[i] = last;
+        last.index = i;
+        siftDown(i);
+        if (heap[i] == last) {
+            siftUp(i);
+        }
+    }
+
+    /**
+     * Internal method for moving an entry towards the leaves.
+     */
+    private void siftDown(int i) {
+        Entry e = heap[i];
+        int half = size >>> 1;
+        while (i < half) {
+            int c = 2 * i + 1;
+            int r = c + 1;
+            if (r < size && before(heap[r], heap[c])) {
+                c = r;
+            }
+            if (!before(heap[c], e)) {
+                break;
+            }
+            heap[i] = heap[c];
+            heap[i].index = i;
+            i = c;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+    /**
+     * Internal method for moving an entry towards the root.
+     */
+    private void siftUp(int i) {
+        Entry e = heap[i];
+        while (i > 0) {
+            int p = (i - 1) >>> 1;
+            if (!before(e, heap[p])) {
+                break;
+            }
+            heap[i] = heap[p];
+            heap[i].index = i;
+            i = p;
+        }
+        heap[i] = e;
+        e.index = i;
+    }
+
+    /**
+     * Gets the number of pending timers.
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * A timer. Guest code receives it as an opaque handle for cancelling.
+     */
+    public static final class Entry {
+        final Task task;
+
+        final long period;
+
+        long deadline;
+
+        long seq;
+
+        /**
+         * Index in the heap, or -1 if not pending.
+         */
+        int index = -1;
+
+        Entry(Task task, long period) {
+            this.task = task;
+            this.period = period;
+        }
+
+        /**
+         * Checks if the timer is still waiting to run.
+         * <br/>
+         * A repeating timer stays pending until it's cancelled. This should only be called on the home thread.
+         */
+        public boolean isPending() {
+            return index >= 0;
+        }
+    }
+}
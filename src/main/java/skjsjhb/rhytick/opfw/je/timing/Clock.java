@@ -0,0 +1,84 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+/**
+ * Source of time for {@link Timer}, {@link Throttle}, {@link FramePacer} and loop timers.
+ * <br/>
+ * Replacing the clock lets scheduling and pacing run faster than real time, like a {@link ScaledClock}, or be
+ * stepped by hand, like a {@link ManualClock}. Durations which measure work, like task times of loops, are always
+ * taken from {@link System#nanoTime()}.
+ * <br/>
+ * Implementations must be thread-safe.
+ */
+public interface Clock {
+    /**
+     * Gets the clock used by objects constructed without one.
+     * <br/>
+     * This is a {@link ScaledClock} if cfg {@code timing.clock_scale} is set to a value other than 1, otherwise the
+     * {@link SystemClock}.
+     */
+    static Clock getDefault() {
+        return SystemClock.getDefault();
+    }
+
+    /**
+     * Sets the clock used by objects constructed from now on.
+     */
+    static void setDefault(Clock c) {
+        SystemClock.setDefault(c);
+    }
+
+    /**
+     * Gets the wall clock time.
+     *
+     * @return Time in milliseconds since the epoch.
+     */
+    long currentTimeMillis();
+
+    /**
+     * Check if the clock advances by itself.
+     * <br/>
+     * A thread may only spin until a deadline on such clocks. Otherwise, it must wait with
+     * {@link #parkNanos(Object, long)}, which is what advances the clock.
+     */
+    boolean isFreeRunning();
+
+    /**
+     * Convert a duration of real time to a duration of this clock.
+     * <br/>
+     * This is used for spinning, which must last for a real duration however fast the clock runs.
+     *
+     * @param ns Duration in real ns.
+     * @return Duration in ns of this clock.
+     */
+    default long toClockNanos(long ns) {
+        return ns;
+    }
+
+    /**
+     * Gets the monotonic time, like {@link System#nanoTime()}.
+     *
+     * @return Time in nanoseconds from an arbitrary origin.
+     */
+    long nanoTime();
+
+    /**
+     * Park the current thread for a duration of this clock.
+     * <br/>
+     * Like {@link java.util.concurrent.locks.LockSupport#parkNanos(Object, long)}, this method may return early,
+     * including on an unpark, and callers should check the time again.
+     *
+     * @param blocker Object to report as the blocker.
+     * @param ns      Duration in ns.
+     */
+    void parkNanos(Object blocker, long ns);
+
+    /**
+     * Wait on a monitor for a duration of this clock.
+     * <br/>
+     * The caller must hold the monitor. Like {@link Object#wait(long)}, this method may return early.
+     *
+     * @param monitor Monitor to wait on.
+     * @param ns      Duration in ns.
+     */
+    void waitNanos(Object monitor, long ns) throws InterruptedException;
+}
@@ -0,0 +1,236 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+/**
+ * Paces frames to a fixed rate, and keeps statistics of frame times.
+ * <br/>
+ * Deadlines are kept on a fixed grid of {@code origin + n * period}, rather than counted from the start of the last
+ * frame, so a frame which starts late does not push back the following ones and the rate does not drift. A frame
+ * which starts more than a period late skips the slots it has missed, which are counted as missed deadlines.
+ * <br/>
+ * The pacer reads time from a {@link Clock}, which can be a {@link ManualClock} for tests. Only {@link #await()}
+ * waits, all other methods only read the clock.
+ * <br/>
+ * A pacer is meant to be used by one thread.
+ */
+public class FramePacer {
+    protected final Clock clock;
+
+    protected final Histogram frameTimes = new Histogram();
+
+    /**
+     * Deadline of the next frame.
+     */
+    protected long deadline;
+
+    protected long frames;
+
+    protected long lastFrame;
+
+    protected long missed;
+
+    /**
+     * Start of the grid of deadlines.
+     */
+    protected long origin;
+
+    /**
+     * Frame period in ns, or 0 if unlimited.
+     */
+    protected double period;
+
+    /**
+     * Index of the next frame on the grid.
+     */
+    protected long slot;
+
+    /**
+     * Time before the deadline when {@link #await()} stops parking and begins spinning, in real ns.
+     */
+    protected long spinWindow = Math.max(0, Cfg.getInt("schedule.timer_spin", 100)) * 1000L;
+
+    /**
+     * Construct a pacer with the default clock and no frame limit.
+     */
+    public FramePacer() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * Construct a pacer with a clock and no frame limit.
+     */
+    public FramePacer(Clock clock) {
+        this.clock = clock;
+        reset(clock.nanoTime());
+    }
+
+    /**
+     * Block until the deadline of the next frame, then begin it.
+     * <br/>
+     * The thread is parked until {@link #getSpinWindow()} before the deadline, and spins for the rest, since parking
+     * may oversleep. Clocks which are not {@linkplain Clock#isFreeRunning() free-running} are parked all the way.
+     */
+    public void await() {
+        long spin = clock.isFreeRunning() ? clock.toClockNanos(spinWindow) : 0;
+        long remaining;
+        while ((remaining = deadline - clock.nanoTime()) > spin) {
+            clock.parkNanos(this, remaining - spin);
+        }
+        long now;
+        while (deadline - (now = clock.nanoTime()) > 0) {
+            Thread.onSpinWait();
+        }
+        beginFrame(now);
+    }
+
+    /**
+     * Begin a frame and move to the next deadline.
+     *
+     * @param now Current time of the clock.
+     */
+    protected void beginFrame(long now) {
+        if (frames > 0) {
+            frameTimes.record(now - lastFrame);
+        }
+        frames++;
+        lastFrame = now;
+        if (period == 0) {
+            deadline = now;
+            return;
+        }
+        long late = now - deadline;
+        if (late >= period) {
+            long skip = (long) (late / period);
+            missed += skip;
+            slot += skip;
+        }
+        slot++;
+        deadline = origin + Math.round(slot * period);
+        if (deadline - now <= 0) {
+            slot++; // Rounding at the boundary
+            deadline = origin + Math.round(slot * period);
+        }
+    }
+
+    /**
+     * Gets the deadline of the next frame, in time of the clock.
+     */
+    public long getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * Gets the time left until the next frame.
+     *
+     * @return Time left in ns, or 0 if the frame is due.
+     */
+    public long getDelay() {
+        return Math.max(0, deadline - clock.nanoTime());
+    }
+
+    /**
+     * Gets the frame time at a percentile.
+     *
+     * @param p Percentile in {@code [0, 100]}.
+     * @return Time between the starts of two frames in ns.
+     */
+    public long getFrameTime(double p) {
+        return frameTimes.getValueAtPercentile(p);
+    }
+
+    /**
+     * Gets the longest frame time in ns.
+     */
+    public long getFrameTimeMax() {
+        return frameTimes.getMax();
+    }
+
+    /**
+     * Gets the number of frames begun.
+     */
+    public long getFrames() {
+        return frames;
+    }
+
+    /**
+     * Gets the number of frame slots missed by frames which began more than a period late.
+     */
+    public long getMissed() {
+        return missed;
+    }
+
+    /**
+     * Gets the frame period in ns, or 0 if unlimited.
+     */
+    public double getPeriod() {
+        return period;
+    }
+
+    /**
+     * Gets the spin window of {@link #await()} in real ns.
+     */
+    public long getSpinWindow() {
+        return spinWindow;
+    }
+
+    /**
+     * Sets the spin window of {@link #await()}.
+     *
+     * @param ns Spin window in real ns.
+     */
+    public void setSpinWindow(long ns) {
+        spinWindow = Math.max(0, ns);
+    }
+
+    /**
+     * Internal method for starting a new grid of deadlines.
+     */
+    protected void reset(long now) {
+        origin = now;
+        slot = 0;
+        deadline = now;
+    }
+
+    /**
+     * Reset the frame statistics.
+     */
+    public void resetStats() {
+        frameTimes.reset();
+        frames = 0;
+        missed = 0;
+    }
+
+    /**
+     * Sets the target frame rate. The next frame is due immediately, and later ones are paced from then.
+     *
+     * @param fps Frames per second, or 0 for unlimited.
+     */
+    public void setFrequency(double fps) {
+        if (fps < 0) {
+            throw new IllegalArgumentException("frequency must not be negative");
+        }
+        period = fps == 0 ? 0 : 1e9 / fps;
+        reset(clock.nanoTime());
+    }
+
+    /**
+     * Check if the next frame is due, and begin it if so.
+     *
+     * @return {@code true} if a new frame should be generated.
+     */
+    public boolean shouldRun() {
+        long now = clock.nanoTime();
+        if (deadline - now > 0) {
+            return false;
+        }
+        beginFrame(now);
+        return true;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("frames %d, missed %d, frame time p50 %.2f ms, p99 %.2f ms, max %.2f ms",
+                frames, missed, getFrameTime(50) / 1e6, getFrameTime(99) / 1e6, getFrameTimeMax() / 1e6);
+    }
+}
@@ -0,0 +1,119 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+import java.util.Arrays;
+
+/**
+ * A histogram of non-negative values, such as durations in nanoseconds, with bounded relative error.
+ * <br/>
+ * Like HdrHistogram, values are counted in buckets which double in width for each power of two, each split into
+ * {@value #SUB_BUCKETS} sub-buckets. Recording is a few bit operations and an array increment, and percentiles are
+ * accurate to about 1/{@value #SUB_BUCKETS} of the value, with a fixed size for the whole {@code long} range.
+ * <br/>
+ * Recording is meant for one thread. Reading from other threads is allowed, but the results are approximate while
+ * values are being recorded.
+ */
+public final class Histogram {
+    /**
+     * Number of sub-buckets in each power of two.
+     */
+    public static final int SUB_BUCKETS = 8;
+
+    private static final int SUB_BITS = Integer.numberOfTrailingZeros(SUB_BUCKETS);
+
+    private final long[] counts = new long[indexOf(Long.MAX_VALUE) + 1];
+
+    private long count;
+
+    private long max;
+
+    private long total;
+
+    /**
+     * Internal method for getting the bucket of a value.
+     */
+    private static int indexOf(long v) {
+        if (v < SUB_BUCKETS) {
+            return (int) Math.max(v, 0); // Exact for small values
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(v) - SUB_BITS;
+        return SUB_BUCKETS + (shift << SUB_BITS) + (int) ((v >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * Internal method for getting the largest value of a bucket.
+     */
+    private static long highestOf(int i) {
+        if (i < SUB_BUCKETS) {
+            return i;
+        }
+        int shift = (i - SUB_BUCKETS) >>> SUB_BITS;
+        long sub = (i - SUB_BUCKETS) & (SUB_BUCKETS - 1);
+        return ((SUB_BUCKETS + sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Gets the number of recorded values.
+     */
+    public long getCount() {
+        return count;
+    }
+
+    /**
+     * Gets the largest recorded value, or 0 if empty.
+     */
+    public long getMax() {
+        return max;
+    }
+
+    /**
+     * Gets the mean of recorded values, or 0 if empty.
+     */
+    public double getMean() {
+        long n = count;
+        return n == 0 ? 0 : (double) total / n;
+    }
+
+    /**
+     * Gets the value at a percentile.
+     *
+     * @param p Percentile in {@code [0, 100]}.
+     * @return The largest value of the bucket where the percentile falls, capped at {@link #getMax()}, or 0 if empty.
+     */
+    public long getValueAtPercentile(double p) {
+        long n = count;
+        if (n == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(Math.min(Math.max(p, 0), 100) / 100 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestOf(i), max);
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Record a value. Negative values are counted as 0.
+     */
+    public void record(long v) {
+        counts[indexOf(v)]++;
+        count++;
+        total += Math.max(v, 0);
+        if (v > max) {
+            max = v;
+        }
+    }
+
+    /**
+     * Remove all recorded values.
+     */
+    public void reset() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        max = 0;
+        total = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A clock which only advances when told to, for tests and simulations.
+ * <br/>
+ * If auto-advance is enabled, a wait advances the clock by its duration and returns at once, so a single-threaded
+ * simulation jumps from one deadline to the next as fast as it can run. Otherwise, waits last for a short slice of
+ * real time, until another thread calls {@link #advance(long)}.
+ */
+public final class ManualClock implements Clock {
+    /**
+     * Real time of a wait when not advancing automatically.
+     */
+    private static final long WAIT_SLICE = 1_000_000;
+
+    private final boolean autoAdvance;
+
+    private final long originMillis = System.currentTimeMillis();
+
+    private volatile long now;
+
+    /**
+     * Construct a clock starting from zero, which does not advance automatically.
+     */
+    public ManualClock() {
+        this(false);
+    }
+
+    /**
+     * Construct a clock starting from zero.
+     *
+     * @param autoAdvance {@code true} to advance the clock on waits.
+     */
+    public ManualClock(boolean autoAdvance) {
+        this.autoAdvance = autoAdvance;
+    }
+
+    /**
+     * Move the clock forward.
+     *
+     * @param ns Duration in ns.
+     */
+    public synchronized void advance(long ns) {
+        if (ns < 0) {
+            throw new IllegalArgumentException("clock cannot go backwards");
+        }
+        now += ns;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return originMillis + now / 1_000_000;
+    }
+
+    @Override
+    public boolean isFreeRunning() {
+        return false;
+    }
+
+    @Override
+    public long nanoTime() {
+        return now;
+    }
+
+    @Override
+    public void parkNanos(Object blocker, long ns) {
+        if (autoAdvance) {
+            advance(Math.max(ns, 0));
+        } else {
+            LockSupport.parkNanos(blocker, WAIT_SLICE);
+        }
+    }
+
+    @Override
+    public void waitNanos(Object monitor, long ns) throws InterruptedException {
+        if (autoAdvance) {
+            advance(Math.max(ns, 0));
+        } else {
+            TimeUnit.NANOSECONDS.timedWait(monitor, WAIT_SLICE);
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+/**
+ * A clock which runs at a multiple of the speed of another clock.
+ * <br/>
+ * Times are counted from the creation of the clock, when both clocks read the same. Waits are shortened by the same
+ * factor, so loops and pacers using this clock run faster (or slower) than real time as a whole.
+ */
+public final class ScaledClock implements Clock {
+    private final Clock base;
+
+    private final long baseMillis;
+
+    private final long baseNanos;
+
+    private final double scale;
+
+    /**
+     * Construct a scaled clock.
+     *
+     * @param base  Clock to follow.
+     * @param scale Speed relative to the base clock, like {@code 100} for 100 times faster.
+     */
+    public ScaledClock(Clock base, double scale) {
+        if (!(scale > 0) || Double.isInfinite(scale)) {
+            throw new IllegalArgumentException("scale must be positive");
+        }
+        this.base = base;
+        this.scale = scale;
+        baseNanos = base.nanoTime();
+        baseMillis = base.currentTimeMillis();
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return baseMillis + (long) ((base.currentTimeMillis() - baseMillis) * scale);
+    }
+
+    /**
+     * Gets the speed relative to the base clock.
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    @Override
+    public boolean isFreeRunning() {
+        return base.isFreeRunning();
+    }
+
+    @Override
+    public long nanoTime() {
+        return baseNanos + (long) ((base.nanoTime() - baseNanos) * scale);
+    }
+
+    @Override
+    public void parkNanos(Object blocker, long ns) {
+        base.parkNanos(blocker, Math.max(1, (long) (ns / scale)));
+    }
+
+    @Override
+    public long toClockNanos(long ns) {
+        return (long) (base.toClockNanos(ns) * scale);
+    }
+
+    @Override
+    public void waitNanos(Object monitor, long ns) throws InterruptedException {
+        base.waitNanos(monitor, Math.max(1, (long) (ns / scale)));
+    }
+}
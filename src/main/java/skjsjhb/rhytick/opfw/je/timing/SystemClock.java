@@ -0,0 +1,65 @@
+package skjsjhb.rhytick.opfw.je.timing;
+
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The real clock of the system.
+ */
+public final class SystemClock implements Clock {
+    public static final SystemClock INSTANCE = new SystemClock();
+
+    @Nullable
+    private static volatile Clock defaultClock;
+
+    private SystemClock() {
+    }
+
+    /**
+     * Internal method for {@link Clock#getDefault()}.
+     */
+    static Clock getDefault() {
+        Clock c = defaultClock;
+        if (c == null) {
+            double scale = Cfg.getDouble("timing.clock_scale", 1);
+            c = scale == 1 ? INSTANCE : new ScaledClock(INSTANCE, scale);
+            defaultClock = c; // Racing here creates equivalent clocks
+        }
+        return c;
+    }
+
+    /**
+     * Internal method for {@link Clock#setDefault(Clock)}.
+     */
+    static void setDefault(Clock c) {
+        defaultClock = c;
+    }
+
+    @Override
+    public long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+
+    @Override
+    public boolean isFreeRunning() {
+        return true;
+    }
+
+    @Override
+    public long nanoTime() {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void parkNanos(Object blocker, long ns) {
+        LockSupport.parkNanos(blocker, ns);
+    }
+
+    @Override
+    public void waitNanos(Object monitor, long ns) throws InterruptedException {
+        TimeUnit.NANOSECONDS.timedWait(monitor, ns);
+    }
+}
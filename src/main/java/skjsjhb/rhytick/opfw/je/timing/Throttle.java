@@ -2,13 +2,30 @@ package skjsjhb.rhytick.opfw.je.timing;
 
 /**
  * A throttled action which runs with limited speed.
+ * <br/>
+ * Runs are counted on a fixed grid of intervals, so a late poll does not delay the following runs. Use
+ * {@link FramePacer} to wait for the next run instead of polling.
  */
 public class Throttle {
     protected long lastTimestamp = 0;
 
     protected double nspt = 0;
 
-    protected Timer timer = new Timer();
+    protected Timer timer;
+
+    /**
+     * Construct a throttle with the default clock.
+     */
+    public Throttle() {
+        this(Clock.getDefault());
+    }
+
+    /**
+     * Construct a throttle with a clock.
+     */
+    public Throttle(Clock c) {
+        timer = new Timer(c);
+    }
 
     /**
      * Set the target frequency.
@@ -23,11 +40,15 @@ public class Throttle {
 
     /**
      * Check if it's already time.
+     * <br/>
+     * If the last run is more than two intervals ago, the missed runs are dropped rather than run in a burst.
      */
     public boolean shouldRun() {
-        var delay = timer.getHighResTime() - lastTimestamp;
+        long now = timer.getHighResTime();
+        var delay = now - lastTimestamp;
         if (delay >= nspt) {
-            lastTimestamp += delay;
+            // Step by the interval, not the delay, or the overshoot of each poll adds up
+            lastTimestamp = delay >= 2 * nspt ? now : lastTimestamp + (long) nspt;
             return true;
         }
         return false;
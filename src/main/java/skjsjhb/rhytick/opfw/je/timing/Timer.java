@@ -3,15 +3,33 @@ package skjsjhb.rhytick.opfw.je.timing;
 import skjsjhb.rhytick.opfw.je.dce.Expose;
 import skjsjhb.rhytick.opfw.je.dce.GuestModule;
 
+/**
+ * Timer reading a {@link Clock}.
+ * <br/>
+ * Guest timers read the default clock, so they follow its speed with the same API.
+ */
 @GuestModule(value = "timer", statik = true)
 public class Timer {
+    protected final Clock clock;
+
     /**
      * Nano time offset for {@link #getHighResTime()}.
      */
     protected long nanoTimeOffset;
 
+    /**
+     * Construct a timer with the default clock.
+     */
     public Timer() {
-        nanoTimeOffset = System.nanoTime();
+        this(Clock.getDefault());
+    }
+
+    /**
+     * Construct a timer with a clock.
+     */
+    public Timer(Clock c) {
+        clock = c;
+        nanoTimeOffset = c.nanoTime();
     }
 
     /**
@@ -29,7 +47,7 @@ public class Timer {
      */
     @Expose
     public double getApproxTime() {
-        return System.currentTimeMillis() / 1e3;
+        return clock.currentTimeMillis() / 1e3;
     }
 
     /**
@@ -39,7 +57,7 @@ public class Timer {
      */
     @Expose
     public long getHighResTime() {
-        return System.nanoTime() - nanoTimeOffset;
+        return clock.nanoTime() - nanoTimeOffset;
     }
 
 }
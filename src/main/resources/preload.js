@@ -7,6 +7,7 @@ console.log("[OPKJE Preload Compatibility Layer]");
     const ikv = VM.require("kv");
     const finder = VM.require("finder");
     const util = VM.require("util");
+    const channels = VM.require("channels");
 
     // Sys
     globalThis.Sys = {
@@ -15,10 +16,233 @@ console.log("[OPKJE Preload Compatibility Layer]");
         },
         stop: () => {
             VM.stop();
+        },
+        library: (name) => {
+            return new Promise((res, rej) => VM.libraryAsync(name, (r, e) => e == null ? res() : rej(new Error(e))));
+        }
+    };
+
+    // Timers, kept on the VM loop
+    const timerCallback = (f, args) => args.length === 0 ? f : () => f(...args);
+    globalThis.setTimeout = (f, ms = 0, ...args) => {
+        return VM.setTimeout(timerCallback(f, args), Number(ms) || 0);
+    };
+    globalThis.setInterval = (f, ms = 0, ...args) => {
+        return VM.setInterval(timerCallback(f, args), Number(ms) || 0);
+    };
+    globalThis.clearTimeout = (h) => {
+        VM.clearTimeout(h);
+    };
+    globalThis.clearInterval = globalThis.clearTimeout;
+
+    // Pack, a compact binary encoding of JSON-like values, which also keeps typed arrays as bytes
+    const T_NULL = 0, T_FALSE = 1, T_TRUE = 2, T_INT = 3, T_FLOAT = 4, T_STRING = 5, T_ARRAY = 6, T_OBJECT = 7,
+        T_BYTES = 8;
+    globalThis.Pack = {
+        encode: (value) => {
+            let buf = new Uint8Array(64);
+            let dv = new DataView(buf.buffer);
+            let pos = 0;
+            const ensure = (n) => {
+                if (pos + n > buf.length) {
+                    const nb = new Uint8Array(Math.max(buf.length * 2, pos + n));
+                    nb.set(buf);
+                    buf = nb;
+                    dv = new DataView(buf.buffer);
+                }
+            };
+            const u8 = (b) => {
+                ensure(1);
+                buf[pos++] = b;
+            };
+            const varint = (n) => {
+                while (n >= 0x80) {
+                    u8((n & 0x7f) | 0x80);
+                    n >>>= 7;
+                }
+                u8(n);
+            };
+            const str = (s) => {
+                let n = 0;
+                for (let i = 0; i < s.length; i++) {
+                    const c = s.charCodeAt(i);
+                    n += c < 0x80 ? 1 : c < 0x800 ? 2 : (c & 0xfc00) === 0xd800 ? (i++, 4) : 3;
+                }
+                varint(n);
+                ensure(n);
+                for (let i = 0; i < s.length; i++) {
+                    let c = s.charCodeAt(i);
+                    if (c < 0x80) {
+                        buf[pos++] = c;
+                    } else if (c < 0x800) {
+                        buf[pos++] = 0xc0 | c >> 6;
+                        buf[pos++] = 0x80 | c & 0x3f;
+                    } else if ((c & 0xfc00) === 0xd800) {
+                        c = 0x10000 + ((c & 0x3ff) << 10 | s.charCodeAt(++i) & 0x3ff);
+                        buf[pos++] = 0xf0 | c >> 18;
+                        buf[pos++] = 0x80 | c >> 12 & 0x3f;
+                        buf[pos++] = 0x80 | c >> 6 & 0x3f;
+                        buf[pos++] = 0x80 | c & 0x3f;
+                    } else {
+                        buf[pos++] = 0xe0 | c >> 12;
+                        buf[pos++] = 0x80 | c >> 6 & 0x3f;
+                        buf[pos++] = 0x80 | c & 0x3f;
+                    }
+                }
+            };
+            const val = (v) => {
+                if (v == null) {
+                    return u8(T_NULL);
+                }
+                switch (typeof v) {
+                    case "boolean":
+                        return u8(v ? T_TRUE : T_FALSE);
+                    case "number":
+                        if (Number.isInteger(v) && v >= -0x80000000 && v <= 0x7fffffff && !Object.is(v, -0)) {
+                            u8(T_INT);
+                            return varint(((v << 1) ^ (v >> 31)) >>> 0); // Zigzag, small numbers take 1 byte
+                        }
+                        u8(T_FLOAT);
+                        ensure(8);
+                        dv.setFloat64(pos, v, true);
+                        pos += 8;
+                        return;
+                    case "string":
+                        u8(T_STRING);
+                        return str(v);
+                }
+                if (v instanceof ArrayBuffer || ArrayBuffer.isView(v)) {
+                    const b = v instanceof ArrayBuffer ? new Uint8Array(v) : new Uint8Array(v.buffer, v.byteOffset, v.byteLength);
+                    u8(T_BYTES);
+                    varint(b.length);
+                    ensure(b.length);
+                    buf.set(b, pos);
+                    pos += b.length;
+                    return;
+                }
+                if (Array.isArray(v)) {
+                    u8(T_ARRAY);
+                    varint(v.length);
+                    for (const e of v) {
+                        val(e);
+                    }
+                    return;
+                }
+                if (typeof v.toJSON === "function") {
+                    return val(v.toJSON());
+                }
+                const ks = Object.keys(v).filter((k) => v[k] !== undefined && typeof v[k] !== "function");
+                u8(T_OBJECT);
+                varint(ks.length);
+                for (const k of ks) {
+                    str(k);
+                    val(v[k]);
+                }
+            };
+            val(value);
+            return buf.subarray(0, pos);
+        },
+        decode: (b) => {
+            const dv = new DataView(b.buffer, b.byteOffset, b.byteLength);
+            let pos = 0;
+            const varint = () => {
+                let n = 0, s = 0, c;
+                do {
+                    c = b[pos++];
+                    n |= (c & 0x7f) << s;
+                    s += 7;
+                } while (c & 0x80);
+                return n >>> 0;
+            };
+            const str = () => {
+                const end = varint() + pos;
+                let ascii = true;
+                for (let i = pos; i < end && ascii; i++) {
+                    ascii = b[i] < 0x80;
+                }
+                if (ascii) { // Most keys, decoded in one call
+                    const s = String.fromCharCode.apply(null, b.subarray(pos, end));
+                    pos = end;
+                    return s;
+                }
+                let s = "";
+                while (pos < end) {
+                    const c = b[pos++];
+                    if (c < 0x80) {
+                        s += String.fromCharCode(c);
+                    } else if (c < 0xe0) {
+                        s += String.fromCharCode((c & 0x1f) << 6 | b[pos++] & 0x3f);
+                    } else if (c < 0xf0) {
+                        s += String.fromCharCode((c & 0x0f) << 12 | (b[pos++] & 0x3f) << 6 | b[pos++] & 0x3f);
+                    } else {
+                        s += String.fromCodePoint((c & 0x07) << 18 | (b[pos++] & 0x3f) << 12 | (b[pos++] & 0x3f) << 6 |
+                            b[pos++] & 0x3f);
+                    }
+                }
+                return s;
+            };
+            const val = () => {
+                switch (b[pos++]) {
+                    case T_NULL:
+                        return null;
+                    case T_FALSE:
+                        return false;
+                    case T_TRUE:
+                        return true;
+                    case T_INT: {
+                        const z = varint();
+                        return (z >>> 1) ^ -(z & 1);
+                    }
+                    case T_FLOAT: {
+                        const f = dv.getFloat64(pos, true);
+                        pos += 8;
+                        return f;
+                    }
+                    case T_STRING:
+                        return str();
+                    case T_BYTES: {
+                        const n = varint();
+                        pos += n;
+                        return b.slice(pos - n, pos);
+                    }
+                    case T_ARRAY: {
+                        const a = new Array(varint());
+                        for (let i = 0; i < a.length; i++) {
+                            a[i] = val();
+                        }
+                        return a;
+                    }
+                    case T_OBJECT: {
+                        const o = {};
+                        for (let n = varint(); n > 0; n--) {
+                            const k = str();
+                            o[k] = val();
+                        }
+                        return o;
+                    }
+                    default:
+                        throw new Error("Corrupted packed value");
+                }
+            };
+            return val();
         }
     };
 
     // KV
+    const copyBytes = (a) => {
+        const ab = new ArrayBuffer(util.sizeOf(a));
+        util.copyToBuffer(a, ab, 0);
+        return new Uint8Array(ab);
+    };
+    const fromKV = (val) => {
+        if (typeof val === "string") {
+            return JSON.parse(val);
+        }
+        if (val == null || typeof val === "number") {
+            return val;
+        }
+        return val.packed !== undefined ? Pack.decode(copyBytes(val.packed)) : copyBytes(val); // Same as getPacked
+    };
     globalThis.KV = {
         set: (k, v) => {
             ikv.set(k, JSON.stringify(v));
@@ -26,13 +250,50 @@ console.log("[OPKJE Preload Compatibility Layer]");
         get: (k) => {
             const val = ikv.get(k);
             return val == null ? null : JSON.parse(val);
+        },
+        getMany: (ks) => {
+            return Array.from(ikv.getMany(ks), fromKV);
+        },
+        setMany: (o) => {
+            const m = {};
+            for (const k of Object.keys(o)) {
+                m[k] = o[k] === undefined ? null : JSON.stringify(o[k]);
+            }
+            ikv.setMany(m);
+        },
+        scan: (prefix, limit = 0) => {
+            const r = ikv.scanPrefix(prefix, limit);
+            return Object.keys(r).map((k) => [k, fromKV(r[k])]); // Arrays keep the key order
+        },
+        // Typed values skip JSON, and are stored in binary
+        setNumber: (k, v) => {
+            ikv.setNumber(k, v);
+        },
+        getNumber: (k) => {
+            return ikv.getNumber(k);
+        },
+        setBytes: (k, v) => {
+            ikv.setBytes(k, v);
+        },
+        getBytes: (k) => {
+            const a = ikv.getBytes(k);
+            return a == null ? null : copyBytes(a);
+        },
+        setPacked: (k, v) => {
+            ikv.setPacked(k, Pack.encode(v));
+        },
+        getPacked: (k) => {
+            const a = ikv.getPacked(k);
+            return a == null ? null : Pack.decode(copyBytes(a)); // Decoding a host buffer in place is much slower
         }
     }
 
     // Finder
+    const settle = (res, rej, map) => (r, e) => e == null ? res(map(r)) : rej(new Error(e));
+    const viewBytes = (bb) => new Uint8Array(new ArrayBuffer(bb)); // Host buffers are viewed without copying
     globalThis.Finder = {
         readFile: (pt) => {
-            return new Uint8Array(util.toArray(finder.readFile(pt)));
+            return copyBytes(finder.readFile(pt));
         },
         readString: (pt) => {
             return util.decodeString(finder.readFile(pt)); // Decoder can handle native bytes
@@ -44,7 +305,71 @@ console.log("[OPKJE Preload Compatibility Layer]");
             return util.decodeString(a);
         },
         getStringBytes: (a) => {
-            return new Uint8Array(util.toArray(util.encodeString(a)));
+            return copyBytes(util.encodeString(a));
+        },
+        mapFile: (pt) => {
+            const bb = finder.mapFile(pt);
+            return bb == null ? null : viewBytes(bb); // Read-only, backed by the file
+        },
+        readFileAsync: (pt) => {
+            return new Promise((res, rej) => finder.readFileAsync(pt, settle(res, rej, viewBytes)));
+        },
+        readStringAsync: (pt) => {
+            return new Promise((res, rej) => finder.readStringAsync(pt, settle(res, rej, (s) => s)));
+        },
+        writeFileAsync: (pt, dat) => {
+            return new Promise((res, rej) => finder.writeFileAsync(pt, dat, settle(res, rej, () => undefined)));
+        },
+        readFileChunked: (pt, size, onChunk) => {
+            return new Promise((res, rej) => finder.readFileChunked(pt, size,
+                (b, off) => onChunk(viewBytes(b), off), settle(res, rej, () => undefined)));
+        }
+    };
+
+    // Channel
+    const hostBuffers = new WeakMap(); // ArrayBuffer -> host buffer, for transferring without copy
+    const viewHost = (bb) => {
+        const ab = new ArrayBuffer(bb);
+        hostBuffers.set(ab, bb);
+        return new Uint8Array(ab);
+    };
+    globalThis.Channel = {
+        self: () => {
+            return channels.self();
+        },
+        parent: () => {
+            return channels.parent();
+        },
+        allocate: (size) => {
+            return viewHost(channels.allocate(size));
+        },
+        post: (target, msg) => {
+            if (msg == null || typeof msg !== "object") {
+                return channels.post(target, msg);
+            }
+            const ab = ArrayBuffer.isView(msg) ? msg.buffer : msg;
+            if (ab instanceof ArrayBuffer) {
+                const bb = hostBuffers.get(ab);
+                const off = ab === msg ? 0 : msg.byteOffset;
+                const len = ab === msg ? ab.byteLength : msg.byteLength;
+                if (bb != null && off === 0 && len === ab.byteLength) {
+                    return channels.post(target, bb); // Transferred
+                }
+                return channels.postBuffer(target, ab, off, len); // Copied once
+            }
+            return channels.postJSON(target, JSON.stringify(msg));
+        },
+        onMessage: (f) => {
+            channels.onMessage((data, from, kind) => {
+                switch (kind) {
+                    case 1:
+                        return f(JSON.parse(data), from);
+                    case 2:
+                        return f(viewHost(data), from);
+                    default:
+                        return f(data, from);
+                }
+            });
         }
     };
 })();
\ No newline at end of file
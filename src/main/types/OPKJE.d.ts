@@ -17,22 +17,41 @@ type KnownRequireTypeMap<T> =
                     T extends "transformer" ? Transformer :
                         T extends "util" ? Util :
                             T extends "workers" ? Workers :
-                                never;
+                                T extends "channels" ? Channels :
+                                    T extends "paint" ? Paint :
+                                        never;
 
-type KnownRequireNames = "version" | "kv" | "timer" | "finder" | "transformer" | "util" | "workers";
+type KnownRequireNames = "version" | "kv" | "timer" | "finder" | "transformer" | "util" | "workers" | "channels"
+    | "paint";
 
 declare interface VM {
     getVMInfo(): string;
 
     library(name: string): void;
 
+    libraryAsync(name: string, cb: (r: null, err: string | null) => void): void;
+
     requestLoop(f: () => any): void;
 
+    requestIdle(f: () => any): void;
+
+    setTimeout(f: () => any, ms: number): TimerHandle | null;
+
+    setInterval(f: () => any, ms: number): TimerHandle | null;
+
+    clearTimeout(h: TimerHandle | null | undefined): void;
+
     require<T extends KnownRequireNames>(name: T): KnownRequireTypeMap<T>;
 
     stop(): void;
 }
 
+/**
+ * Opaque handle of a timer on the VM loop.
+ */
+declare interface TimerHandle {
+}
+
 declare interface Version {
     getAPIVersion(): number;
 
@@ -42,7 +61,25 @@ declare interface Version {
 declare interface KV {
     get(key: string): string | null;
 
+    getBytes(key: string): any | null; /* byte[] */
+
+    getMany(keys: string[]): (string | number | any /* byte[] */ | null)[];
+
+    getNumber(key: string): number | null;
+
+    getPacked(key: string): any | null; /* byte[] */
+
+    scanPrefix(prefix: string, limit: number): Record<string, string | number | any /* byte[] */>;
+
     set(key: string, value: string): void;
+
+    setBytes(key: string, data: ArrayBuffer | ArrayBufferView): void;
+
+    setMany(entries: Record<string, string | number | ArrayBuffer | ArrayBufferView | null>): void;
+
+    setNumber(key: string, value: number): void;
+
+    setPacked(key: string, data: ArrayBuffer | ArrayBufferView): void;
 }
 
 
@@ -58,21 +95,79 @@ declare interface Workers {
     stopWorker(id: number): void;
 }
 
+declare interface Channels {
+    allocate(size: number): any; /* ByteBuffer */
+
+    onMessage(f: (data: any, from: number, kind: number) => void): void;
+
+    parent(): number;
+
+    post(target: number, msg: string | number | boolean | null | ArrayBuffer | any /* ByteBuffer */): boolean;
+
+    postBuffer(target: number, buf: ArrayBuffer, offset: number, length: number): boolean;
+
+    postJSON(target: number, json: string): boolean;
+
+    self(): number;
+}
+
+/**
+ * A region of an atlas texture.
+ */
+declare interface Sprite {
+    height(): number;
+
+    width(): number;
+}
+
+declare interface Paint {
+    fill(x: number, y: number, w: number, h: number, rgba: number): void;
+
+    getHeight(): number;
+
+    getWidth(): number;
+
+    loadSprite(vpt: string): Sprite | null;
+
+    onFrame(f: () => void): void;
+
+    setBlend(mode: "alpha" | "add"): void;
+
+    sprite(s: Sprite, x: number, y: number, w: number, h: number, rgba: number): void;
+}
+
 declare interface TimerFactory {
     newTimer(): Timer;
 }
 
+type FinderCallback<T> = (result: T | null, err: string | null) => void;
+
 declare interface Finder {
+    mapFile(vpt: string): any | null; /* ByteBuffer */
+
     readFile(vpt: string): any; /* byte[] */
 
+    readFileAsync(vpt: string, cb: FinderCallback<any /* ByteBuffer */>): void;
+
+    readFileChunked(vpt: string, chunkSize: number, onChunk: (buf: any /* ByteBuffer */, offset: number) => void,
+                    onDone: FinderCallback<null>): void;
+
+    readStringAsync(vpt: string, cb: FinderCallback<string>): void;
+
     writeFile(vpt: string, dat: Uint8Array | string): void;
+
+    writeFileAsync(vpt: string, dat: ArrayBuffer | Uint8Array | string, cb: FinderCallback<null>): void;
 }
 
 declare interface Util {
+    copyToBuffer(a: any /* byte[] | int[] | long[] | float[] | double[] */, buf: ArrayBuffer, offset: number): number;
+
     decodeString(a: Uint8Array): string;
 
     encodeString(a: string): Uint8Array;
 
+    sizeOf(a: any /* byte[] | int[] | long[] | float[] | double[] */): number;
+
     sleep(millis: number): void;
 
     toArray(a: any /* T[] */): any[];
@@ -0,0 +1,185 @@
+package skjsjhb.rhytick.opfw.je.tests;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import org.lwjgl.system.MemoryUtil;
+import skjsjhb.rhytick.opfw.je.cherry.*;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.timing.Clock;
+import skjsjhb.rhytick.opfw.je.timing.FramePacer;
+import skjsjhb.rhytick.opfw.je.timing.ManualClock;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Cherry Graphics")
+@Timeout(5)
+public class CherryTests {
+    /**
+     * Run Cherry on a loop until its window closes.
+     *
+     * @return The window.
+     */
+    static HeadlessWindow runCherry() {
+        Loop l = new Loop();
+        l.push(new CherryGlobal());
+        Cherry c = new Cherry();
+        l.push(c);
+        l.scheduleRepeating(() -> {
+            if (!c.isRunning()) {
+                l.stop();
+            }
+        }, 1_000_000, 1_000_000);
+        l.start();
+        return (HeadlessWindow) c.getWindow();
+    }
+
+    /**
+     * Add a sprite of a solid color.
+     */
+    static Sprite solidSprite(Paint p, int w, int h, int rgba) {
+        ByteBuffer px = MemoryUtil.memAlloc(4 * w * h);
+        try {
+            for (int i = 0; i < w * h; i++) {
+                px.putInt(4 * i, Integer.reverseBytes(rgba));
+            }
+            return p.addSprite(w, h, px);
+        } finally {
+            MemoryUtil.memFree(px);
+        }
+    }
+
+    @AfterEach
+    void reset() {
+        Cfg.load(new String[]{"cherry.backend glfw", "cherry.headless_max_frames 0", "cherry.fps_max 165",
+                "cherry.atlas_size 2048"});
+    }
+
+    @Test
+    @DisplayName("Headless Frame Loop")
+    void testHeadlessLoop() {
+        Cfg.load(new String[]{"cherry.backend headless", "cherry.headless_max_frames 120", "cherry.fps_max 240"});
+        ManualClock c = new ManualClock(true); // Used by the loop and the pacer
+        Clock prev = Clock.getDefault();
+        Clock.setDefault(c);
+        try {
+            HeadlessWindow w = runCherry();
+            FramePacer p = w.getPacer();
+            assertEquals(120, w.getFrames());
+            assertEquals(120, p.getFrames());
+            assertEquals(0, p.getMissed());
+            assertEquals(120 * 1e9 / 240, p.getDeadline(), 1); // Each frame began on its deadline
+            assertEquals(1e9 / 240, p.getFrameTimeMax(), 1);
+            assertTrue(w.shouldClose());
+        } finally {
+            Clock.setDefault(prev);
+        }
+    }
+
+    @Test
+    @DisplayName("Headless Frame Throughput")
+    void testHeadlessThroughput() {
+        Cfg.load(new String[]{"cherry.backend headless", "cherry.headless_max_frames 100000", "cherry.fps_max 0"});
+        long st = System.nanoTime();
+        HeadlessWindow w = runCherry();
+        long elapsed = System.nanoTime() - st;
+        assertEquals(100000, w.getFrames());
+        System.out.printf("Headless frames: %.0f FPS\n", w.getFrames() / (elapsed / 1e9));
+    }
+
+    @Test
+    @DisplayName("Headless Framebuffer Swap")
+    void testHeadlessSwap() {
+        HeadlessWindow w = new HeadlessWindow(4, 4);
+        assertEquals(4 * 4 * 4, w.getBackBuffer().capacity());
+        w.getBackBuffer().putInt(0, 0xff0000ff);
+        w.flush();
+        assertEquals(0xff0000ff, w.getFrontBuffer().getInt(0));
+        assertEquals(1, w.getFrames());
+        assertFalse(w.shouldClose());
+        w.close();
+        assertTrue(w.shouldClose());
+        w.close();
+    }
+
+    @Test
+    @DisplayName("Backend Selection")
+    void testBackend() {
+        Cfg.load(new String[]{"cherry.backend headless"});
+        Window w = Window.create();
+        assertInstanceOf(HeadlessWindow.class, w);
+        assertEquals(1280, w.getWidth());
+        w.close();
+        Cfg.load(new String[]{"cherry.backend vulkan"});
+        assertThrows(IllegalArgumentException.class, Window::create);
+    }
+
+    @Test
+    @DisplayName("Paint Batching")
+    void testPaintBatching() {
+        HeadlessWindow w = new HeadlessWindow(64, 64);
+        Paint p = new Paint(w);
+        Sprite a = solidSprite(p, 4, 4, 0xff0000ff);
+        Sprite b = solidSprite(p, 2, 2, 0x0000ffff);
+        assertEquals(a.texture(), b.texture());
+        HeadlessPaintBackend be = (HeadlessPaintBackend) p.getBackend();
+        assertEquals(0xff0000ff, be.getTexel(a.texture(), (int) (a.u0() * 2048), (int) (a.v0() * 2048)));
+
+        p.begin();
+        for (int i = 0; i < 1000; i++) {
+            p.sprite(a, i, 0, 4, 4, 0xffffffff);
+            p.fill(0, i, 1, 1, 0x00ff00ff);
+            p.sprite(b, 0, 0, 2, 2, 0xffffff80);
+        }
+        p.setBlend(Blend.ADD);
+        for (int i = 0; i < 10; i++) {
+            p.sprite(a, 1, 2, 3, 4, 0x11223344);
+        }
+        p.end();
+        assertEquals(3010, p.getQuads());
+        assertEquals(2, p.getDrawCalls()); // One for each blend mode
+
+        // Last draw is the additive batch
+        long v = be.getStaging();
+        assertEquals(1, MemoryUtil.memGetFloat(v));
+        assertEquals(2, MemoryUtil.memGetFloat(v + 4));
+        assertEquals(a.u0(), MemoryUtil.memGetFloat(v + 8));
+        assertEquals(a.v0(), MemoryUtil.memGetFloat(v + 12));
+        assertEquals(0x11, MemoryUtil.memGetByte(v + 16));
+        assertEquals(0x44, MemoryUtil.memGetByte(v + 19));
+        assertEquals(4, MemoryUtil.memGetFloat(v + 2 * Paint.VERTEX_SIZE));
+        assertEquals(6, MemoryUtil.memGetFloat(v + 2 * Paint.VERTEX_SIZE + 4));
+
+        assertThrows(IllegalStateException.class, () -> p.fill(0, 0, 1, 1, 0));
+        p.close();
+        w.close();
+    }
+
+    @Test
+    @DisplayName("Atlas Pages")
+    void testAtlasPages() {
+        Cfg.load(new String[]{"cherry.atlas_size 64"});
+        HeadlessWindow w = new HeadlessWindow(64, 64);
+        Paint p = new Paint(w);
+        Sprite[] s = new Sprite[8];
+        for (int i = 0; i < s.length; i++) {
+            s[i] = solidSprite(p, 30, 30, 0xffffffff);
+        }
+        assertTrue(p.getAtlas().getPages() > 1);
+        assertNotEquals(s[0].texture(), s[s.length - 1].texture());
+        assertThrows(IllegalArgumentException.class, () -> solidSprite(p, 64, 1, 0));
+        p.begin();
+        for (int i = 0; i < 100; i++) {
+            p.sprite(s[0], 0, 0, 30, 30, -1);
+            p.sprite(s[s.length - 1], 0, 0, 30, 30, -1);
+        }
+        p.end();
+        assertEquals(2, p.getDrawCalls());
+        p.close();
+        w.close();
+    }
+}
@@ -2,9 +2,22 @@ package skjsjhb.rhytick.opfw.je.tests;
 
 import org.graalvm.polyglot.PolyglotException;
 import org.junit.jupiter.api.*;
+import skjsjhb.rhytick.opfw.je.cherry.HeadlessWindow;
+import skjsjhb.rhytick.opfw.je.cherry.Paint;
 import skjsjhb.rhytick.opfw.je.dce.*;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.finder.IntegrityCache;
+import skjsjhb.rhytick.opfw.je.finder.MappedFiles;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
 
-import java.util.Objects;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -18,8 +31,10 @@ public class DCETests {
     static ScriptEnv se;
 
     @BeforeAll
-    static void init() {
+    static void init() throws IOException {
         Modular.autoRegister();
+        System.setProperty("user.home", Files.createTempDirectory("opkje-test").toString());
+        Finder.configure();
 
         se = new ScriptEnv();
         se.initVMAPI();
@@ -30,6 +45,11 @@ public class DCETests {
         Modular.addModule("tt", ThreadTester.class, true);
     }
 
+    @AfterAll
+    static void close() {
+        se.close();
+    }
+
     @BeforeEach
     void resetTesters() {
         AccessTester.accessed = false;
@@ -43,6 +63,156 @@ public class DCETests {
         assertEquals(buffer.content, GetArray.getArray()[3]);
     }
 
+    @Test
+    @DisplayName("Bulk Array Copy")
+    void testArrayBulkCopy() {
+        se.eval("""
+                {
+                    const u = VM.require('util');
+                    const a = array.getArray();
+                    const ab = new ArrayBuffer(u.sizeOf(a) + 4);
+                    u.copyToBuffer(a, ab, 4);
+                    const i = new Int32Array(ab);
+                    const b = u.toArray(u.encodeString('abc'));
+                    b[1] = 100;
+                    report.set(i[1] * 10000 + i[6] * 1000 + b[1]);
+                }
+                """);
+        assertEquals(16100, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Message Channel Round Trip")
+    @SuppressWarnings("StatementWithEmptyBody")
+    void testChannelRoundTrip() throws InterruptedException {
+        se.eval("""
+                {
+                    const ch = VM.require('channels');
+                    ch.onMessage((d) => report.set(d));
+                    const w = VM.require('workers').createWorker(`
+                        Channel.onMessage((d) => { Channel.post(Channel.parent(), d[0] + 1); VM.stop(); });
+                    `);
+                    ch.post(w, new Uint8Array([41]).buffer);
+                    report.set(w);
+                }
+                """);
+        Emulation wk = Objects.requireNonNull(WorkerFactory.getWorker(buffer.content));
+        while (se.getMailbox().getSize() == 0) {
+        } // Wait for the reply
+        se.getLoop().makeCurrent(Thread.currentThread());
+        se.getLoop().runOnce();
+        assertEquals(42, buffer.content);
+        while (wk.getEnv().getLoop().getState() == Loop.State.INITIAL) {
+        }
+        Objects.requireNonNull(wk.getThread()).join();
+    }
+
+    @Test
+    @DisplayName("Buffer Transfer in Channels")
+    void testChannelTransfer() throws IOException {
+        Finder.ensureDir("/tmp/sent.bin");
+        Files.write(Paths.get(Finder.resolve("/tmp/sent.bin")), new byte[]{1, 2});
+        se.eval("""
+                {
+                    const ch = VM.require('channels');
+                    const buf = ch.allocate(16);
+                    const m = VM.require('finder').mapFile('/tmp/sent.bin');
+                    const got = [];
+                    ch.onMessage((d) => got.push(d));
+                    ch.post(ch.self(), buf);
+                    ch.post(ch.self(), m);
+                    globalThis.checkTransfer = () => {
+                        if (got[0] !== buf) throw 'Allocated buffer is copied!';
+                        if (got[1] === m || new Uint8Array(new ArrayBuffer(got[1]))[1] !== 2) throw 'Mapping is not copied!';
+                        report.set(1);
+                    };
+                }
+                """);
+        se.getLoop().makeCurrent(Thread.currentThread());
+        se.getLoop().runOnce();
+        se.eval("checkTransfer();");
+        assertEquals(1, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Message Handler Errors")
+    void testChannelHandlerError() {
+        se.eval("""
+                {
+                    const ch = VM.require('channels');
+                    ch.onMessage((d) => {
+                        if (d === 1) throw new Error('Bad message');
+                        report.set(d);
+                    });
+                    ch.post(ch.self(), 1);
+                    ch.post(ch.self(), 2);
+                }
+                """);
+        se.getLoop().makeCurrent(Thread.currentThread());
+        se.getLoop().runOnce();
+        assertEquals(2, buffer.content);
+        se.eval("VM.require('channels').post(VM.require('channels').self(), 3);");
+        se.getLoop().runOnce();
+        assertEquals(3, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Cached Integrity Verification")
+    void testIntegrityCache() throws Exception {
+        Path file = Paths.get(Finder.resolve("/opt/verified.js"));
+        Finder.ensureDir("/opt/verified.js");
+        Files.writeString(file, "report.set(1);");
+        Files.writeString(Paths.get(file + ".sig"),
+                HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(Files.readAllBytes(file))));
+        Files.writeString(Paths.get(Finder.resolve("/opt/bad.js")), "report.set(2);");
+        Files.writeString(Paths.get(Finder.resolve("/opt/bad.js.sig")), "00");
+        IntegrityCache.clear();
+        Map<String, IOException> failed = Finder.verifyAll(List.of("/opt/verified.js", "/opt/bad.js", "/opt/none.js"));
+        assertEquals(Set.of("/opt/bad.js", "/opt/none.js"), failed.keySet());
+        assertEquals(2, IntegrityCache.size());
+        assertEquals("report.set(1);", new String(Finder.readFileBytes("/opt/verified.js", true)));
+
+        // Same size, but changed content and time
+        Files.writeString(file, "report.set(3);");
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 1000));
+        assertThrows(IOException.class, () -> Finder.readFileBytes("/opt/verified.js", true));
+        assertThrows(IOException.class, () -> Finder.verifyFile("/opt/verified.js"));
+    }
+
+    @Test
+    @DisplayName("Module Binding Reuse")
+    void testModuleBinding() {
+        se.bindModules(List.of("util", "none"));
+        se.eval("globalThis.boundUtil = VM.require('util');");
+        se.eval("report.set(VM.require('util') === boundUtil && VM.require('none') == null ? 1 : 0);");
+        assertEquals(1, buffer.content);
+        Modular.addModule("bound", new IntCache(), false);
+        se.eval("VM.require('bound').set(2); report.set(VM.require('bound') === VM.require('bound') ? 3 : 0);");
+        assertEquals(3, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Mapped File Access")
+    void testMapFile() throws IOException {
+        Finder.ensureDir("/tmp/mapped.bin");
+        Files.write(Paths.get(Finder.resolve("/tmp/mapped.bin")), new byte[]{7, 8, 9});
+        se.eval("""
+                {
+                    const f = VM.require('finder');
+                    const a = new Uint8Array(new ArrayBuffer(f.mapFile('/tmp/mapped.bin')));
+                    if (f.mapFile('/tmp/mapped.bin') !== f.mapFile('/tmp/mapped.bin')) throw 'Not reused!';
+                    report.set(a.length * 100 + a[2]);
+                    try {
+                        a[0] = 1;
+                    } catch (e) {
+                    }
+                    if (a[0] !== 7) throw 'Mapping is writable!';
+                }
+                """);
+        assertEquals(309, buffer.content);
+        assertEquals(1, MappedFiles.of(se).getCount());
+    }
+
     @Test
     @DisplayName("Minimum Script Evaluation")
     void testEval() {
@@ -50,6 +220,52 @@ public class DCETests {
         assertEquals(42, buffer.content);
     }
 
+    @Test
+    @DisplayName("Async File Access")
+    void testFinderAsync() {
+        se.eval("""
+                {
+                    const f = VM.require('finder');
+                    let n = 0;
+                    f.writeFileAsync('/tmp/async.txt', new Uint8Array([1, 2, 3, 4, 5]), (r, e) => {
+                        f.readFileChunked('/tmp/async.txt', 2,
+                            (b) => n += new Uint8Array(new ArrayBuffer(b)).length,
+                            (r, e) => report.set(e == null ? n : -1));
+                    });
+                }
+                """);
+        se.getLoop().makeCurrent(Thread.currentThread());
+        while (buffer.content == 0) {
+            se.getLoop().runOnce();
+        }
+        assertEquals(5, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Async Callback Errors")
+    void testAsyncErrors() throws IOException {
+        Finder.ensureDir("/tmp/bad.js");
+        Files.writeString(Paths.get(Finder.resolve("/tmp/bad.js")), "throw new Error('bad library');");
+        Cfg.load(new String[]{"+emulation.no_script_verify"});
+        try {
+            se.eval("""
+                    VM.libraryAsync('/tmp/bad.js', (r, e) => {
+                        if (e == null || !e.includes('bad library')) throw 'Error not reported!';
+                        VM.require('finder').readFileChunked('/tmp/bad.js', 4, (b) => {
+                            throw new Error('bad chunk');
+                        }, (r, e) => report.set(e != null && e.includes('bad chunk') ? 1 : -1));
+                    });
+                    """);
+            se.getLoop().makeCurrent(Thread.currentThread());
+            while (buffer.content == 0) {
+                se.getLoop().runOnce();
+            }
+            assertEquals(1, buffer.content);
+        } finally {
+            Cfg.load(new String[]{"-emulation.no_script_verify"});
+        }
+    }
+
     @Test
     @DisplayName("Accept Access to Exposed Interfaces")
     void testExposedAccess() {
@@ -101,13 +317,90 @@ public class DCETests {
         assertEquals(buffer.content, 1);
     }
 
+    @Test
+    @DisplayName("Guest Timers")
+    void testVMTimers() {
+        se.getLoop().makeCurrent(Thread.currentThread());
+        se.eval("""
+                let n = 0;
+                VM.clearTimeout(VM.setTimeout(() => report.set(-1), 0));
+                const i = VM.setInterval(() => {
+                    if (++n === 3) {
+                        VM.clearTimeout(i);
+                        report.set(n);
+                    }
+                }, 1);
+                """);
+        while (se.getLoop().getTimerCount() > 0) {
+            se.getLoop().runOnce();
+        }
+        assertEquals(3, buffer.content);
+    }
+
+    @Test
+    @DisplayName("Closing Unstarted Env")
+    void testEnvClose() {
+        ScriptEnv e = new ScriptEnv();
+        assertSame(e, ScriptEnv.get(e.getID()));
+        e.close();
+        assertNull(ScriptEnv.get(e.getID()));
+        assertThrows(IllegalStateException.class, () -> e.eval("1"));
+        e.close();
+    }
+
+    @Test
+    @DisplayName("Idle Worker Eviction")
+    void testPoolEviction() throws InterruptedException {
+        Cfg.load(new String[]{"workers.pool_min 1", "workers.pool_max 2", "workers.pool_idle_timeout 0"});
+        long evicted = WorkerPool.getStats().getEvicted();
+        try {
+            Emulation w = WorkerPool.acquire(); // A miss, which raises the target to 2
+            w.getEnv().getLoop().push(w.getEnv().getLoop()::requestStop);
+            while (WorkerPool.getIdleCount() < 2) {
+                Thread.sleep(10);
+            }
+            WorkerPool.evict();
+            assertEquals(1, WorkerPool.getIdleCount());
+            assertEquals(evicted + 1, WorkerPool.getStats().getEvicted());
+        } finally {
+            Cfg.load(new String[]{"workers.pool_min 0"});
+            while (WorkerPool.getIdleCount() > 0) {
+                Loop l = WorkerPool.acquire().getEnv().getLoop();
+                l.push(l::requestStop);
+            }
+        }
+    }
+
+    @Test
+    @DisplayName("Guest Paint")
+    void testGuestPaint() {
+        HeadlessWindow w = new HeadlessWindow(64, 64);
+        Paint p = new Paint(w);
+        se.eval("""
+                const p = VM.require('paint');
+                p.onFrame(() => {
+                    p.fill(0, 0, p.getWidth(), 10, 0xff0000ff);
+                    p.setBlend('add');
+                    p.fill(0, 0, 1, 1, 0xffffffff);
+                    p.setBlend('alpha');
+                });
+                """);
+        p.frame();
+        assertEquals(2, p.getQuads());
+        assertEquals(2, p.getDrawCalls());
+        assertThrows(PolyglotException.class, () -> se.eval("VM.require('paint').setBlend('screen');"));
+        p.close();
+        w.close();
+        assertThrows(PolyglotException.class, () -> se.eval("VM.require('paint').getWidth();"));
+    }
+
     @RepeatedTest(value = 8, name = Values.REPEAT_TEST_TITLE)
     @DisplayName("Worker Thread Spawning")
     @SuppressWarnings("StatementWithEmptyBody")
     void testWorkerSpawn() throws InterruptedException {
         se.eval("report.set(VM.require('workers').createWorker(`VM.require('tt').set();VM.stop();`));");
         Emulation wk = Objects.requireNonNull(WorkerFactory.getWorker(buffer.content));
-        while (!wk.getEnv().getLoop().isRunning()) {
+        while (wk.getEnv().getLoop().getState() == Loop.State.INITIAL) {
         } // Wait until the worker is ready, this won't take long
         Objects.requireNonNull(wk.getThread()).join();
         se.eval("VM.require('tt').check();");
@@ -119,7 +412,7 @@ public class DCETests {
     void testWorkerStopExternal() throws InterruptedException {
         se.eval("report.set(VM.require('workers').createWorker(``));");
         Emulation wk = Objects.requireNonNull(WorkerFactory.getWorker(buffer.content));
-        while (!wk.getEnv().getLoop().isRunning()) {
+        while (wk.getEnv().getLoop().getState() == Loop.State.INITIAL) {
         }
         wk.getEnv().getLoop().requestStop();
         Objects.requireNonNull(wk.getThread()).join();
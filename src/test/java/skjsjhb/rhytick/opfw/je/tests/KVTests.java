@@ -0,0 +1,243 @@
+package skjsjhb.rhytick.opfw.je.tests;
+
+import org.junit.jupiter.api.*;
+import skjsjhb.rhytick.opfw.je.dce.Modular;
+import skjsjhb.rhytick.opfw.je.dce.ScriptEnv;
+import skjsjhb.rhytick.opfw.je.finder.Finder;
+import skjsjhb.rhytick.opfw.je.finder.KV;
+import skjsjhb.rhytick.opfw.je.finder.KVLog;
+import skjsjhb.rhytick.opfw.je.finder.KVPersistence;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.zip.CRC32C;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Key-Value Storage")
+@Timeout(5)
+public class KVTests {
+    static Path logFile() {
+        return Paths.get(Finder.resolve("/osr/kv.log"));
+    }
+
+    @BeforeEach
+    void configureRoot() throws IOException {
+        System.setProperty("user.home", Files.createTempDirectory("opkje-test").toString());
+        Finder.configure();
+    }
+
+    @AfterEach
+    void closeKV() {
+        KV.close();
+    }
+
+    @Test
+    @DisplayName("Bulk Access and Prefix Scan")
+    void testBulk() {
+        KV.load();
+        Map<String, String> m = new LinkedHashMap<>();
+        for (int i = 0; i < 10; i++) {
+            m.put("slot.1." + i, String.valueOf(i));
+        }
+        m.put("slot.10.0", "x");
+        m.put("slot.2.0", "y");
+        KV.setMany(m);
+        assertEquals(List.of("slot.1.0", "slot.1.1", "slot.1.2"), List.copyOf(KV.scan("slot.1.", 3).keySet()));
+        assertEquals(10, KV.scan("slot.1.", 0).size());
+        assertEquals(12, KV.scan("", 0).size());
+
+        Modular.autoRegister();
+        ScriptEnv se = new ScriptEnv();
+        se.initVMAPI();
+        se.eval("""
+                {
+                    const kv = VM.require('kv');
+                    kv.setMany({'slot.2.0': null, 'slot.2.1': 'a', 'slot.2.2': 'b'});
+                    const r = kv.getMany(['slot.2.0', 'slot.2.2']);
+                    if (r[0] !== null || r[1] !== 'b') throw 'Wrong values!';
+                    if (Object.keys(kv.scanPrefix('slot.2.', 0)).join() !== 'slot.2.1,slot.2.2') throw 'Wrong scan!';
+                }
+                """);
+        se.close();
+        KV.close();
+        KV.load();
+        assertEquals(Map.of("slot.2.1", "a", "slot.2.2", "b"), KV.scan("slot.2.", 0));
+    }
+
+    @Test
+    @DisplayName("Log Compaction")
+    void testCompaction() throws IOException {
+        KV.load();
+        for (int i = 0; i < 1000; i++) {
+            KV.set("score", String.valueOf(i));
+        }
+        KV.save();
+        long before = Files.size(logFile());
+        KV.compact();
+        assertTrue(Files.size(logFile()) < before / 100);
+        KV.close();
+        KV.load();
+        assertEquals("999", KV.get("score"));
+    }
+
+    @Test
+    @DisplayName("Damaged Log Tail Recovery")
+    void testDamagedTail() throws IOException {
+        KV.load();
+        KV.set("a", "1");
+        KV.set("b", "2");
+        KV.close();
+        long size = Files.size(logFile());
+        Files.write(logFile(), new byte[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10}, StandardOpenOption.APPEND);
+        KV.load();
+        assertEquals("1", KV.get("a"));
+        assertEquals("2", KV.get("b"));
+        assertEquals(size, Files.size(logFile()));
+    }
+
+    @Test
+    @DisplayName("Typed Binary Values")
+    void testTypedValues() throws IOException {
+        KV.load();
+        KV.setNumber("score", 1000000);
+        KV.setBytes("stats", new byte[]{1, 2, 3});
+        KV.set("name", "Tick");
+        assertNull(KV.getNumber("name"));
+        assertNull(KV.get("score"));
+
+        Modular.autoRegister();
+        ScriptEnv se = new ScriptEnv();
+        se.initVMAPI();
+        try (InputStream in = Objects.requireNonNull(getClass().getClassLoader().getResourceAsStream("preload.js"))) {
+            se.eval(new String(in.readAllBytes(), StandardCharsets.UTF_8));
+        }
+        se.eval("""
+                {
+                    const v = {acc: 0.995, combo: -42, tags: ['fc', '谱面 🎵'], raw: new Uint8Array([9, 8]), ok: true};
+                    KV.setPacked('chart.1', v);
+                    const r = KV.getPacked('chart.1');
+                    if (JSON.stringify({...r, raw: null}) !== JSON.stringify({...v, raw: null})) throw 'Wrong packed value!';
+                    if (r.raw[1] !== 8) throw 'Wrong packed bytes!';
+                    if (KV.getNumber('score') !== 1000000 || KV.getBytes('stats')[2] !== 3) throw 'Wrong typed value!';
+                    const [m, b] = KV.getMany(['chart.1', 'stats']);
+                    if (m.acc !== v.acc || m.raw[1] !== 8 || b[2] !== 3) throw 'Wrong packed value in batch!';
+                    const s = KV.scan('chart.');
+                    if (s.length !== 1 || s[0][1].tags[1] !== v.tags[1]) throw 'Wrong packed value in scan!';
+                }
+                """);
+        se.close();
+        KV.close();
+        KV.load();
+        assertEquals(1000000, KV.getNumber("score"));
+        assertArrayEquals(new byte[]{1, 2, 3}, KV.getBytes("stats"));
+        assertNotNull(KV.getPacked("chart.1"));
+        assertNull(KV.getBytes("chart.1"));
+        assertEquals("Tick", KV.get("name"));
+    }
+
+    @Test
+    @DisplayName("Log Format Upgrade")
+    void testUpgrade() throws IOException {
+        byte[] k = "old".getBytes(StandardCharsets.UTF_8);
+        byte[] v = "value".getBytes(StandardCharsets.UTF_8);
+        int len = 1 + 4 + k.length + 4 + v.length;
+        ByteBuffer bb = ByteBuffer.allocate(8 + 8 + len).putInt(0x4F504B56).putInt(1);
+        bb.position(16);
+        bb.put((byte) 1).putInt(k.length).put(k).putInt(v.length).put(v);
+        CRC32C crc = new CRC32C();
+        crc.update(bb.array(), 16, len);
+        bb.putInt(8, (int) crc.getValue()).putInt(12, len);
+        Finder.ensureDir("/osr/kv.log");
+        Files.write(logFile(), bb.array());
+
+        KV.load();
+        assertEquals("value", KV.get("old"));
+        KV.setNumber("new", 1);
+        KV.close();
+        assertEquals(2, ByteBuffer.wrap(Files.readAllBytes(logFile())).getInt(4));
+        KV.load();
+        assertEquals("value", KV.get("old"));
+        assertEquals(1, KV.getNumber("new"));
+    }
+
+    @Test
+    @DisplayName("Legacy Data Migration")
+    void testMigration() throws IOException {
+        Map<String, String> legacy = new Hashtable<>();
+        legacy.put("old", "value");
+        Finder.ensureDir("/osr/kv");
+        try (var oos = new ObjectOutputStream(Files.newOutputStream(Paths.get(Finder.resolve("/osr/kv"))))) {
+            oos.writeObject(legacy);
+        }
+        KV.load();
+        assertEquals("value", KV.get("old"));
+        assertTrue(Files.exists(Paths.get(Finder.resolve("/osr/kv.migrated"))));
+        KV.close();
+        KV.load();
+        assertEquals("value", KV.get("old"));
+    }
+
+    @Test
+    @DisplayName("Incremental Persistence Service")
+    void testPersistenceService() {
+        KV.load();
+        List<KVLog.Flush> flushes = new CopyOnWriteArrayList<>();
+        KVPersistence ps = new KVPersistence(flushes::add);
+        Loop loop = new Loop();
+        loop.push(ps);
+        loop.runOnce(); // Initial
+
+        for (int i = 0; i < 3000; i++) {
+            KV.set("k" + i % 1500, String.valueOf(i));
+            if (i == 1000) {
+                loop.runOnce(); // Below the threshold and within the interval
+            }
+        }
+        assertTrue(flushes.isEmpty());
+        loop.runOnce(); // Over the threshold
+        KV.save();
+        assertEquals(1, flushes.size());
+        assertEquals(1500, flushes.get(0).records()); // Coalesced by key
+
+        KV.set("k0", "last");
+        loop.runOnce(); // Below the threshold and within the interval
+        loop.push(loop::requestStop);
+        loop.start(); // The service is stopped with the loop
+        assertEquals(2, ps.getFlushCount());
+        assertEquals(1, flushes.get(1).records());
+        KV.close();
+        KV.load();
+        assertEquals("last", KV.get("k0"));
+        assertEquals("2999", KV.get("k1499"));
+    }
+
+    @Test
+    @DisplayName("Persistence Across Reloads")
+    void testReload() {
+        KV.load();
+        for (int i = 0; i < 100; i++) {
+            KV.set("k" + i, "v" + i);
+        }
+        KV.set("k50", null);
+        KV.set("unicode", "谱面 🎵");
+        KV.close();
+        assertNull(KV.get("k1"));
+        KV.load();
+        assertEquals("v1", KV.get("k1"));
+        assertEquals("v99", KV.get("k99"));
+        assertNull(KV.get("k50"));
+        assertEquals("谱面 🎵", KV.get("unicode"));
+        assertTrue(Objects.requireNonNull(KV.getStats()).replayed >= 100);
+    }
+}
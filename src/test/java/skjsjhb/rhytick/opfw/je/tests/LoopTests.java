@@ -1,20 +1,37 @@
 package skjsjhb.rhytick.opfw.je.tests;
 
 import org.junit.jupiter.api.*;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.EnumSource;
+import skjsjhb.rhytick.opfw.je.launcher.Cfg;
 import skjsjhb.rhytick.opfw.je.schedule.*;
+import skjsjhb.rhytick.opfw.je.timing.Histogram;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.Random;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 @DisplayName("Loop and Scheduler")
 @Timeout(5)
 public class LoopTests {
+    static final long FRAME_PERIOD = 4_000_000;
+
+    static final int TIMER_COUNT = 100_000;
+
     Loop loop;
 
     @BeforeEach
@@ -60,6 +77,234 @@ public class LoopTests {
         assertEquals(a.get(), 5);
     }
 
+    @Test
+    @DisplayName("Frame Jitter under Task Flood")
+    void testFrameJitter() throws InterruptedException {
+        measureFrameLateness(Lane.RENDER, 100); // Warm up, as compilation takes most of the time on few cores
+        loop = new Loop();
+        long[] render = measureFrameLateness(Lane.RENDER, 50);
+        loop = new Loop();
+        long[] normal = measureFrameLateness(Lane.NORMAL, 30); // Each frame waits for the whole flood
+        System.out.printf("Frame lateness under flood: render lane p50 %.3f ms, p90 %.3f ms, max %.3f ms; " +
+                        "normal lane p50 %.3f ms, p90 %.3f ms, max %.3f ms\n",
+                render[render.length / 2] / 1e6, render[render.length * 9 / 10] / 1e6, render[render.length - 1] / 1e6,
+                normal[normal.length / 2] / 1e6, normal[normal.length * 9 / 10] / 1e6, normal[normal.length - 1] / 1e6);
+        // Compared with the normal lane, as the absolute lateness depends on other threads sharing the cores
+        assertTrue(render[render.length / 2] < normal[normal.length / 2] / 2, "frames are delayed by the flood");
+    }
+
+    /**
+     * Run frames on a lane while the normal lane is flooded, and measure how late each frame is.
+     *
+     * @return Sorted lateness of frames in nanoseconds.
+     */
+    long[] measureFrameLateness(Lane frameLane, int frames) throws InterruptedException {
+        long[] late = new long[frames];
+        AtomicInteger count = new AtomicInteger(0);
+        Thread t = startAsync();
+        loop.push(() -> {
+            for (int i = 0; i < 2000; i++) {
+                loop.push(new Runnable() {
+                    @Override
+                    public void run() {
+                        long end = System.nanoTime() + 20_000;
+                        while (System.nanoTime() - end < 0) {
+                            Thread.onSpinWait();
+                        }
+                        loop.push(this); // Keep the flood
+                    }
+                });
+            }
+            loop.push(frameLane, new AlwaysTask() {
+                long next = System.nanoTime() + FRAME_PERIOD;
+
+                @Override
+                public boolean always() {
+                    long now = System.nanoTime();
+                    if (now - next >= 0) {
+                        late[count.getAndIncrement()] = now - next;
+                        next += FRAME_PERIOD;
+                        if (next - now <= 0) {
+                            next = now + FRAME_PERIOD; // Skip missed frames
+                        }
+                    }
+                    return count.get() < frames;
+                }
+            });
+        });
+        while (count.get() < frames) {
+            Thread.sleep(10);
+        }
+        loop.stop();
+        t.join();
+        Arrays.sort(late);
+        return late;
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = IdleStrategy.class, names = {"PARK", "BLOCK"})
+    @DisplayName("CPU Time of Idle Loop")
+    void testIdleCpuTime(IdleStrategy s) throws InterruptedException {
+        var mx = ManagementFactory.getThreadMXBean();
+        assumeTrue(mx.isThreadCpuTimeSupported());
+        loop.setIdleStrategy(s);
+        Thread t = startAsync();
+        Thread.sleep(50); // Let the loop settle down
+        long cpu = mx.getThreadCpuTime(t.threadId());
+        long wall = System.nanoTime();
+        Thread.sleep(500);
+        cpu = mx.getThreadCpuTime(t.threadId()) - cpu;
+        wall = System.nanoTime() - wall;
+        loop.stop();
+        t.join();
+        System.out.printf("Idle CPU time (%s): %.2f ms in %.2f ms\n", s, cpu / 1e6, wall / 1e6);
+        assertTrue(cpu < wall / 10, "idle loop is consuming CPU");
+    }
+
+    @ParameterizedTest
+    @EnumSource(value = IdleStrategy.class, names = {"PARK", "BLOCK"})
+    @DisplayName("CPU Time of Idle Loop with Pending Timers")
+    void testIdleCpuTimeWithTimers(IdleStrategy s) throws InterruptedException {
+        var mx = ManagementFactory.getThreadMXBean();
+        assumeTrue(mx.isThreadCpuTimeSupported());
+        loop.setIdleStrategy(s);
+        Thread t = startAsync();
+        AtomicBoolean added = new AtomicBoolean(false);
+        loop.push(() -> {
+            for (int i = 0; i < TIMER_COUNT; i++) {
+                loop.schedule(() -> fail("timer fired too early"), 3600_000_000_000L + i);
+            }
+            added.set(true);
+        });
+        while (!added.get()) {
+            Thread.sleep(1);
+        }
+        Thread.sleep(50);
+        long cpu = mx.getThreadCpuTime(t.threadId());
+        long wall = System.nanoTime();
+        Thread.sleep(500);
+        cpu = mx.getThreadCpuTime(t.threadId()) - cpu;
+        wall = System.nanoTime() - wall;
+        loop.stop();
+        t.join();
+        System.out.printf("Idle CPU time with %d timers (%s): %.2f ms in %.2f ms\n", TIMER_COUNT, s, cpu / 1e6,
+                wall / 1e6);
+        assertTrue(cpu < wall / 10, "idle loop is consuming CPU");
+    }
+
+    @ParameterizedTest
+    @EnumSource(IdleStrategy.class)
+    @DisplayName("Wake-up Latency of Idle Loop")
+    void testIdleWakeUp(IdleStrategy s) throws InterruptedException {
+        loop.setIdleStrategy(s);
+        Thread t = startAsync();
+        long worst = 0;
+        for (int i = 0; i < 16; i++) {
+            Thread.sleep(10); // Make sure the loop is idle
+            AtomicLong done = new AtomicLong(0);
+            long st = System.nanoTime();
+            loop.push(() -> done.set(System.nanoTime()));
+            while (done.get() == 0) {
+                Thread.onSpinWait();
+            }
+            worst = Math.max(worst, done.get() - st);
+        }
+        loop.stop();
+        t.join();
+        System.out.printf("Worst wake-up latency (%s): %.3f ms\n", s, worst / 1e6);
+        assertTrue(worst < 100_000_000L, "loop is not woken up in time");
+    }
+
+    @Test
+    @DisplayName("Task Time Histogram")
+    void testHistogram() {
+        Histogram h = new Histogram();
+        assertEquals(0, h.getValueAtPercentile(50));
+        for (long v = 1; v <= 100_000; v++) {
+            h.record(v * 1000);
+        }
+        assertEquals(100_000, h.getCount());
+        assertEquals(100_000_000L, h.getMax());
+        for (double p : new double[]{50, 90, 99, 99.9}) {
+            double exact = p * 1_000_000;
+            double err = Math.abs(h.getValueAtPercentile(p) - exact) / exact;
+            assertTrue(err <= 1.0 / Histogram.SUB_BUCKETS, "percentile " + p + " is off by " + err);
+        }
+        assertEquals(100_000_000L, h.getValueAtPercentile(100));
+        h.reset();
+        assertEquals(0, h.getCount());
+    }
+
+    @Test
+    @DisplayName("Lane Priority")
+    void testLanePriority() {
+        List<Lane> order = new ArrayList<>();
+        for (Lane l : new Lane[]{Lane.BACKGROUND, Lane.NORMAL, Lane.RENDER, Lane.INPUT}) {
+            loop.push(l, () -> order.add(l));
+        }
+        assertEquals(4, loop.getQueueLength());
+        assertEquals(1, loop.getQueueLength(Lane.RENDER));
+        while (loop.getQueueLength() > 0) {
+            loop.runOnce();
+        }
+        assertEquals(List.of(Lane.INPUT, Lane.RENDER, Lane.NORMAL, Lane.BACKGROUND), order);
+    }
+
+    @Test
+    @DisplayName("Loop Metrics")
+    void testMetrics() {
+        AtomicInteger a = new AtomicInteger(0);
+        loop.push(new AlwaysTask() {
+            @Override
+            public boolean always() {
+                return a.incrementAndGet() < 3;
+            }
+        });
+        loop.push(new SlowTask());
+        loop.push(() -> {
+        });
+        assertEquals(3, loop.getQueueLength());
+        while (loop.getQueueLength() > 0) {
+            loop.runOnce();
+        }
+        LoopMetrics m = loop.getMetrics();
+        System.out.println(m);
+        assertEquals(5, m.getTasksExecuted());
+        assertEquals(2, m.getAlwaysRepushes());
+        assertEquals(0, m.getQueueDepth());
+        assertTrue(m.getLongestTaskNanos() >= 5_000_000L);
+        assertEquals(SlowTask.class.getName(), m.getLongestTaskSource());
+        assertTrue(m.getTaskTimeMax() >= m.getTaskTimeP99() && m.getTaskTimeP99() >= m.getTaskTimeP50());
+        m.resetTaskTimes();
+        assertEquals(SlowTask.class.getName(), m.getLongestTaskSource()); // Done by the loop
+        loop.runOnce();
+        assertEquals(0, m.getLongestTaskNanos());
+        assertEquals(5, m.getTasksExecuted());
+    }
+
+    @Test
+    @DisplayName("Loop Metrics over JMX")
+    void testMetricsJMX() throws Exception {
+        Cfg.load(new String[]{"+schedule.metrics_jmx"});
+        try {
+            Thread t = startAsync();
+            var server = ManagementFactory.getPlatformMBeanServer();
+            var names = server.queryNames(new ObjectName("skjsjhb.rhytick.opfw.je:type=Loop,*"), null);
+            assertFalse(names.isEmpty());
+            assertTrue(LoopMetrics.getLive().contains(loop.getMetrics()));
+            assertTrue(LoopMetrics.report().contains(loop.getMetrics().getName()));
+            var on = new ObjectName("skjsjhb.rhytick.opfw.je:type=Loop,name="
+                    + ObjectName.quote(loop.getMetrics().getName()));
+            assertEquals("RUNNING", server.getAttribute(on, "State"));
+            loop.stop();
+            t.join();
+            assertFalse(server.isRegistered(on));
+            assertFalse(LoopMetrics.getLive().contains(loop.getMetrics()));
+        } finally {
+            Cfg.load(new String[]{"-schedule.metrics_jmx"});
+        }
+    }
+
     @Test
     @DisplayName("Minimum Loop Run")
     void testLoop() {
@@ -114,6 +359,78 @@ public class LoopTests {
         assertTrue(stopTouched.get());
     }
 
+    @Test
+    @DisplayName("Stop Services with the Loop")
+    void testStopServices() throws InterruptedException {
+        AtomicBoolean initTouched = new AtomicBoolean(false);
+        AtomicBoolean stopTouched = new AtomicBoolean(false);
+        var t = new ServiceTask() {
+            @Override
+            public boolean always() {
+                return true;
+            }
+
+            @Override
+            protected long getNextDelay() {
+                return 3600_000_000_000L; // Waits on a timer, not in a lane
+            }
+
+            @Override
+            public void initial() {
+                initTouched.set(true);
+            }
+
+            @Override
+            public void stop() {
+                stopTouched.set(true);
+            }
+        };
+        loop.push(t);
+        Thread th = startAsync();
+        while (!initTouched.get()) {
+            Thread.sleep(1);
+        }
+        loop.stop();
+        th.join();
+        assertTrue(stopTouched.get());
+        assertEquals(Loop.State.STOPPED, loop.getState());
+
+        AtomicBoolean ran = new AtomicBoolean(false);
+        Loop l = new Loop(IdleStrategy.PARK);
+        l.push(l::requestStop);
+        l.push(() -> l.push(() -> ran.set(true))); // Pushed in the last turn
+        l.start();
+        assertTrue(ran.get());
+    }
+
+    /**
+     * A task taking some time, for finding the longest task.
+     */
+    static final class SlowTask extends Task {
+        @Override
+        public void execute() {
+            long end = System.nanoTime() + 5_000_000;
+            while (System.nanoTime() - end < 0) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    /**
+     * Start the loop on a new thread and wait until it's running.
+     */
+    @SuppressWarnings("StatementWithEmptyBody")
+    Thread startAsync() {
+        var t = new Thread(() -> {
+            loop.makeCurrent(Thread.currentThread());
+            loop.start();
+        });
+        t.start();
+        while (!loop.isRunning()) {
+        }
+        return t;
+    }
+
     @RepeatedTest(value = 8, name = Values.REPEAT_TEST_TITLE)
     @DisplayName("Stop Infinite Loop")
     @SuppressWarnings("StatementWithEmptyBody")
@@ -166,6 +483,96 @@ public class LoopTests {
         }
     }
 
+    @Test
+    @DisplayName("Timer Cancellation")
+    void testTimerCancel() {
+        AtomicInteger a = new AtomicInteger(0);
+        var e = loop.schedule(() -> a.addAndGet(100), 0);
+        loop.schedule(() -> a.incrementAndGet(), 0);
+        assertEquals(2, loop.getTimerCount());
+        assertTrue(loop.cancel(e));
+        assertFalse(loop.cancel(e));
+        assertFalse(e.isPending());
+        while (loop.getTimerCount() > 0) {
+            loop.runOnce();
+        }
+        assertEquals(1, a.get());
+        var r = loop.scheduleRepeating(() -> a.incrementAndGet(), 0, 1);
+        while (a.get() < 4) {
+            loop.runOnce();
+        }
+        assertTrue(r.isPending());
+        assertTrue(loop.cancel(r));
+        assertEquals(0, loop.getTimerCount());
+    }
+
+    @Test
+    @DisplayName("Timer Execution Order")
+    void testTimerOrder() throws InterruptedException {
+        List<Integer> order = new ArrayList<>();
+        AtomicBoolean done = new AtomicBoolean(false);
+        Thread t = startAsync();
+        loop.push(() -> {
+            loop.schedule(() -> order.add(3), 30_000_000);
+            loop.schedule(() -> order.add(1), 10_000_000);
+            loop.schedule(() -> order.add(2), 20_000_000);
+            var c = loop.schedule(() -> order.add(-1), 15_000_000);
+            loop.schedule(() -> loop.cancel(c), 5_000_000);
+            loop.schedule(() -> order.add(4), 30_000_000); // Same deadline keeps the order
+            AtomicInteger runs = new AtomicInteger(0);
+            var tk = new Object() {
+                TimerQueue.Entry e;
+            };
+            tk.e = loop.scheduleRepeating(() -> {
+                if (runs.incrementAndGet() == 3) {
+                    loop.cancel(tk.e);
+                    order.add(0);
+                }
+            }, 1_000_000, 1_000_000);
+            loop.schedule(() -> done.set(true), 40_000_000);
+        });
+        while (!done.get()) {
+            Thread.sleep(1);
+        }
+        loop.stop();
+        t.join();
+        assertEquals(List.of(0, 1, 2, 3, 4), order);
+    }
+
+    @Test
+    @DisplayName("Timer Precision with Many Pending Timers")
+    void testTimerPrecision() throws InterruptedException {
+        long[] late = new long[TIMER_COUNT];
+        AtomicInteger fired = new AtomicInteger(0);
+        AtomicLong overhead = new AtomicLong(0);
+        Thread t = startAsync();
+        loop.push(() -> {
+            Random rand = new Random(42);
+            long st = System.nanoTime();
+            for (int i = 0; i < TIMER_COUNT; i++) {
+                int id = i;
+                long delay = 500_000_000L + rand.nextLong(1_000_000_000L); // Leave time for scheduling them all
+                long deadline = System.nanoTime() + delay;
+                loop.schedule(() -> {
+                    late[id] = System.nanoTime() - deadline;
+                    fired.incrementAndGet();
+                }, delay);
+            }
+            overhead.set(System.nanoTime() - st);
+        });
+        while (fired.get() < TIMER_COUNT) {
+            Thread.sleep(10);
+        }
+        loop.stop();
+        t.join();
+        Arrays.sort(late);
+        System.out.printf("Scheduled %d timers in %.2f ms, lateness p50 %.3f ms, p99 %.3f ms, max %.3f ms\n",
+                TIMER_COUNT, overhead.get() / 1e6, late[TIMER_COUNT / 2] / 1e6, late[TIMER_COUNT * 99 / 100] / 1e6,
+                late[TIMER_COUNT - 1] / 1e6);
+        assertTrue(late[0] >= 0, "timer fired too early");
+        assertTrue(late[TIMER_COUNT / 2] < 5_000_000L, "timers are not fired in time");
+    }
+
     @Test
     @DisplayName("Async Thread Calls")
     void testThread() throws InterruptedException {
@@ -176,4 +583,18 @@ public class LoopTests {
         }, AtomicInteger::incrementAndGet).join();
         assertEquals(a.get(), 2);
     }
+
+    @Test
+    @DisplayName("Background Jobs")
+    void testJobs() throws InterruptedException, ExecutionException {
+        AtomicInteger a = new AtomicInteger(0);
+        List<Future<?>> jobs = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            jobs.add(Scheduler.runJob(a::incrementAndGet));
+        }
+        for (Future<?> f : jobs) {
+            f.get();
+        }
+        assertEquals(100, a.get());
+    }
 }
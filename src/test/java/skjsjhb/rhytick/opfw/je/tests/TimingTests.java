@@ -0,0 +1,250 @@
+package skjsjhb.rhytick.opfw.je.tests;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.Timeout;
+import skjsjhb.rhytick.opfw.je.schedule.IdleStrategy;
+import skjsjhb.rhytick.opfw.je.schedule.Loop;
+import skjsjhb.rhytick.opfw.je.schedule.ServiceTask;
+import skjsjhb.rhytick.opfw.je.timing.*;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+@DisplayName("Timing")
+@Timeout(5)
+public class TimingTests {
+    static final long CHART_LENGTH = 120_000_000_000L;
+
+    static final long NOTE_INTERVAL = 125_000_000;
+
+    /**
+     * Play a chart on a loop: frames at 120 FPS, input polled at 250 Hz, and a note every {@link #NOTE_INTERVAL}.
+     *
+     * @return Lateness of each note in ns of the clock of the loop.
+     */
+    static Histogram playChart(Loop l, FramePacer p) {
+        Clock c = l.getClock();
+        Histogram lateness = new Histogram();
+        scheduleNote(l, c.nanoTime(), 0, lateness);
+        l.scheduleRepeating(() -> {
+        }, 4_000_000, 4_000_000);
+        l.schedule(l::stop, CHART_LENGTH + NOTE_INTERVAL);
+        p.setFrequency(120);
+        l.push(new ServiceTask() {
+            @Override
+            public boolean always() {
+                p.shouldRun();
+                return true;
+            }
+
+            @Override
+            protected long getNextDelay() {
+                return p.getDelay();
+            }
+
+            @Override
+            public void initial() {
+            }
+
+            @Override
+            public void stop() {
+            }
+        });
+        l.start();
+        assertEquals(CHART_LENGTH / NOTE_INTERVAL, lateness.getCount());
+        return lateness;
+    }
+
+    /**
+     * Schedule a note of {@link #playChart(Loop, FramePacer)}, which schedules the next one when it's played.
+     * <br/>
+     * Notes are placed at absolute chart times, so the time spent on scheduling does not add up.
+     */
+    static void scheduleNote(Loop l, long origin, int n, Histogram lateness) {
+        Clock c = l.getClock();
+        long at = origin + (n + 1) * NOTE_INTERVAL;
+        l.schedule(() -> {
+            lateness.record(c.nanoTime() - at);
+            if ((n + 1) * NOTE_INTERVAL < CHART_LENGTH) {
+                scheduleNote(l, origin, n + 1, lateness);
+            }
+        }, at - c.nanoTime());
+    }
+
+    @Test
+    @DisplayName("Frame Pacing without Drift")
+    void testPacerDrift() {
+        ManualClock c = new ManualClock();
+        FramePacer p = new FramePacer(c);
+        p.setFrequency(120);
+        long start = c.nanoTime();
+        Random rand = new Random(0);
+        int frames = 0;
+        while (c.nanoTime() - start < 60_000_000_000L) {
+            if (p.shouldRun()) {
+                frames++;
+            }
+            c.advance(rand.nextLong(2_000_000)); // Late by up to 2ms on each frame
+        }
+        assertEquals(60 * 120, frames, 1);
+        assertEquals(0, p.getMissed());
+        assertEquals(p.getPeriod(), p.getFrameTime(50), p.getPeriod() / 4);
+    }
+
+    @Test
+    @DisplayName("Missed Frame Deadlines")
+    void testPacerMissed() {
+        ManualClock c = new ManualClock();
+        FramePacer p = new FramePacer(c);
+        p.setFrequency(100);
+        long start = c.nanoTime();
+        assertTrue(p.shouldRun());
+        c.advance(10_000_000);
+        assertTrue(p.shouldRun());
+        assertFalse(p.shouldRun());
+        assertEquals(10_000_000, p.getDelay());
+        c.advance(35_000_000); // Deadline at 20ms, now at 45ms
+        assertTrue(p.shouldRun());
+        assertEquals(2, p.getMissed());
+        assertEquals(start + 50_000_000, p.getDeadline()); // Still on the grid
+        c.advance(4_999_999);
+        assertFalse(p.shouldRun());
+        c.advance(1);
+        assertTrue(p.shouldRun());
+        assertEquals(4, p.getFrames());
+        assertEquals(35_000_000, p.getFrameTimeMax());
+    }
+
+    @Test
+    @DisplayName("Unlimited Frame Pacing")
+    void testPacerUnlimited() {
+        ManualClock c = new ManualClock();
+        FramePacer p = new FramePacer(c);
+        p.setFrequency(0);
+        for (int i = 0; i < 100; i++) {
+            assertTrue(p.shouldRun());
+            assertEquals(0, p.getDelay());
+        }
+        assertEquals(0, p.getMissed());
+    }
+
+    @Test
+    @DisplayName("Frame Pacer Await")
+    void testPacerAwait() {
+        FramePacer p = new FramePacer();
+        p.setFrequency(200);
+        p.await();
+        long st = System.nanoTime();
+        for (int i = 0; i < 100; i++) {
+            p.await();
+        }
+        long elapsed = System.nanoTime() - st;
+        assertEquals(500_000_000, elapsed, 20_000_000);
+        System.out.println("Await pacing: " + p);
+    }
+
+    @Test
+    @DisplayName("Paced Service on Loop")
+    void testPacedService() {
+        Loop l = new Loop();
+        FramePacer p = new FramePacer();
+        p.setFrequency(250);
+        int[] frames = {0};
+        int[] polls = {0};
+        long[] first = {0};
+        l.push(new ServiceTask() {
+            @Override
+            public boolean always() {
+                polls[0]++;
+                if (p.shouldRun()) {
+                    frames[0]++;
+                    if (frames[0] == 1) {
+                        first[0] = System.nanoTime();
+                        p.setFrequency(250); // Start the grid here, as the loop may start slowly
+                    } else if (frames[0] == 101) {
+                        l.stop();
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            protected long getNextDelay() {
+                return p.getDelay();
+            }
+
+            @Override
+            public void initial() {
+            }
+
+            @Override
+            public void stop() {
+            }
+        });
+        l.start();
+        long elapsed = System.nanoTime() - first[0];
+        assertEquals(101, frames[0]);
+        assertEquals(400_000_000, elapsed, 20_000_000);
+        assertTrue(l.getMetrics().getIdleNanos() > elapsed / 2, "loop should sleep between frames");
+        assertTrue(polls[0] < 2 * frames[0], "service should not poll for frames");
+        System.out.println("Loop pacing: " + p);
+    }
+
+    @Test
+    @DisplayName("Chart Session on Manual Clock")
+    void testChartManual() {
+        ManualClock c = new ManualClock(true);
+        Loop l = new Loop(IdleStrategy.BLOCK, c);
+        FramePacer p = new FramePacer(c);
+        Histogram lateness = playChart(l, p);
+        assertEquals(0, lateness.getMax());
+        assertEquals((CHART_LENGTH + NOTE_INTERVAL) * 120 / 1_000_000_000, p.getFrames(), 1);
+        assertEquals(0, p.getMissed());
+    }
+
+    @Test
+    @DisplayName("Chart Session at 100x")
+    void testChartScaled() {
+        ScaledClock c = new ScaledClock(SystemClock.INSTANCE, 100);
+        Loop l = new Loop(IdleStrategy.PARK, c);
+        FramePacer p = new FramePacer(c);
+        long st = System.nanoTime();
+        Histogram lateness = playChart(l, p);
+        long elapsed = System.nanoTime() - st;
+        System.out.printf("Chart at 100x: %.1f ms, note lateness p50 %.2f ms, p99 %.2f ms, %s\n", elapsed / 1e6,
+                lateness.getValueAtPercentile(50) / 1e6, lateness.getValueAtPercentile(99) / 1e6, p);
+        assertTrue(elapsed < CHART_LENGTH / 50, "chart should run at about 100x");
+        assertTrue(lateness.getValueAtPercentile(50) < 5_000_000);
+        assertTrue(p.getFrames() > CHART_LENGTH * 120 / 1_000_000_000 / 2); // Frames are 83 us apart in real time
+    }
+
+    @Test
+    @DisplayName("Guest Timer on Scaled Clock")
+    void testTimerScaled() {
+        Timer t = new Timer(new ScaledClock(SystemClock.INSTANCE, 100));
+        long st = System.nanoTime();
+        long ht = t.getHighResTime();
+        while (System.nanoTime() - st < 10_000_000) {
+            Thread.onSpinWait();
+        }
+        assertEquals(1e9, t.getHighResTime() - ht, 1e8);
+    }
+
+    @Test
+    @DisplayName("Throttle without Drift")
+    void testThrottleDrift() {
+        ManualClock c = new ManualClock();
+        Throttle t = new Throttle(c);
+        t.setFrequency(100);
+        int runs = 0;
+        for (int i = 0; i < 10_000; i++) {
+            c.advance(3_000_000); // Polls which never land on the interval
+            if (t.shouldRun()) {
+                runs++;
+            }
+        }
+        assertEquals(3000, runs, 1);
+    }
+}